@@ -0,0 +1,495 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import org.bridj.Pointer;
+import org.freedesktop.dbus.DBus._MessageIter;
+import org.freedesktop.dbus.annotation.DBusMethod;
+import org.freedesktop.dbus.introspection.Argument;
+import org.freedesktop.dbus.introspection.Interface;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Dispatches method calls of one interface to the methods of a Java object that are annotated with
+ * {@link DBusMethod}.
+ * <p>All annotated methods are resolved when the handler is created: their signatures are checked and every
+ * method is compiled into a {@link MethodHandle} that takes the decoded arguments as array, so dispatching a
+ * call involves no reflection. Calls are executed on a worker pool, so a slow method does not block the dispatch
+ * of other messages; with a {@code null} executor calls are executed on the dispatching thread instead. A
+ * {@link FairScheduler} as executor queues calls per sender, an {@link OrderedExecutor} keeps them in order per
+ * key. Calls that are refused or shed because the
+ * executor is saturated are answered with {@code org.freedesktop.DBus.Error.LimitsExceeded}.</p>
+ * <p>Calls are routed by the native header fields: interface, member and signature are matched against
+ * precomputed UTF-8 bytes and a perfect hash table, so no strings are created for calls of this interface nor
+ * for calls that are not handled.</p>
+ * <p>Exceptions thrown by a method are replied as errors: a {@link DBusException} with an error name as
+ * error of that name, all other exceptions as {@code org.freedesktop.DBus.Error.Failed}.</p>
+ * <p>Methods that depend on other services need not wait for them: a method that declares a
+ * {@link DeferredReply} parameter (which is not part of the D-Bus signature) replies by completing that token,
+ * whenever it likes. A method that returns a {@link PendingReply} is replied once the pending reply completes,
+ * with its value or its error; the reply of a downstream call ({@code PendingReply<Message>}) is forwarded
+ * as it is. The output signature of such methods must be declared unless the reply is empty or forwarded.</p>
+ * @author Benjamin P. Jung
+ */
+public class AnnotatedHandler implements MessageHandler {
+
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object[].class);
+
+    /** Pre-encoded error for refused and shed calls. */
+    private static final Pointer<Byte> _LIMITS_EXCEEDED = Pointer.pointerToCString(DBus.ERROR_LIMITS_EXCEEDED);
+    private static final Pointer<Byte> _TOO_MANY_CALLS = Pointer.pointerToCString("Too many pending calls.");
+
+    private final String _interface;
+    private final byte[] interfaceBytes;
+    private final Executor executor;
+    /** member &rarr; invoker; never modified after construction */
+    private final Map<String, Invoker> invokers = new HashMap<>();
+    private final NameTable<Invoker> members;
+
+
+    /**
+     * Creates a new handler that executes calls on a shared fork/join pool.
+     * @param _interface
+     *         Name of the interface that is implemented by the target.
+     * @param target
+     *         Object with methods annotated with {@link DBusMethod}.
+     */
+    public AnnotatedHandler(final String _interface, final Object target) {
+        this(_interface, target, DefaultExecutor.INSTANCE);
+    }
+
+    /**
+     * Creates a new handler.
+     * @param _interface
+     *         Name of the interface that is implemented by the target.
+     * @param target
+     *         Object with methods annotated with {@link DBusMethod}.
+     * @param executor
+     *         Executor the calls are executed on, or {@code null} to execute them on the dispatching thread.
+     */
+    public AnnotatedHandler(final String _interface, final Object target, final Executor executor) {
+        super();
+        this._interface = _interface;
+        this.interfaceBytes = _interface.getBytes(NameTable.UTF_8);
+        this.executor = executor;
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (final java.lang.reflect.Method method: target.getClass().getMethods()) {
+            final DBusMethod annotation = method.getAnnotation(DBusMethod.class);
+            if (annotation == null) {
+                continue;
+            }
+            final String name = annotation.name().isEmpty() ? method.getName() : annotation.name();
+            if (this.invokers.put(name, new Invoker(lookup, target, method, annotation)) != null) {
+                throw new IllegalArgumentException("Method " + name + " is declared twice on " + target.getClass().getName());
+            }
+        }
+        this.members = new NameTable<>(this.invokers);
+    }
+
+
+    /**
+     * Returns the name of the implemented interface.
+     * @return
+     *         The interface name.
+     */
+    public String getInterface() {
+        return this._interface;
+    }
+
+    /**
+     * Describes the implemented interface, e.g. for {@link ObjectExporter#addInterface(String, Interface, Map, MessageHandler)}.
+     * @return
+     *         The description of all annotated methods.
+     */
+    public Interface getDescription() {
+        final List<org.freedesktop.dbus.introspection.Method> methods = new ArrayList<>(this.invokers.size());
+        for (final Map.Entry<String, Invoker> invoker: this.invokers.entrySet()) {
+            methods.add(new org.freedesktop.dbus.introspection.Method(invoker.getKey(),
+                    arguments(invoker.getValue().inTypes), arguments(invoker.getValue().outTypes),
+                    Collections.<String, String>emptyMap()));
+        }
+        return new Interface(this._interface, methods, Collections.<org.freedesktop.dbus.introspection.Signal>emptyList(),
+                Collections.<org.freedesktop.dbus.introspection.Property>emptyList(), Collections.<String, String>emptyMap());
+    }
+
+    @Override
+    public HandlerResult handleMessage(final Connection connection, final Message message) {
+
+        if (message.getType() != Message.Type.METHOD_CALL) {
+            return HandlerResult.NOT_YET_HANDLED;
+        }
+        final Pointer<Byte> _interface = DBus._messageGetInterface(message._peer);
+        if (_interface != Pointer.NULL && !NameTable.equals(_interface, this.interfaceBytes)) {
+            return HandlerResult.NOT_YET_HANDLED;
+        }
+        final Invoker invoker = this.members.get(DBus._messageGetMember(message._peer));
+        if (invoker == null) {
+            return HandlerResult.NOT_YET_HANDLED;
+        }
+        if (!NameTable.equals(DBus._messageGetSignature(message._peer), invoker.inSignatureBytes)) {
+            if (!message.isNoReply()) {
+                connection.send(Message.newError(message, DBus.ERROR_INVALID_ARGS,
+                        "Expected signature " + invoker.inSignature + " but got " + message.getSignature()));
+            }
+            return HandlerResult.HANDLED;
+        }
+
+        if (this.executor == null) {
+            invoker.invoke(connection, message);
+            return HandlerResult.HANDLED;
+        }
+        final FairScheduler.Sheddable task = new FairScheduler.Sheddable() {
+            @Override
+            public void run() {
+                invoker.invoke(connection, message);
+            }
+            @Override
+            public void shed() {
+                refuse(connection, message);
+                connection.flush();
+            }
+        };
+        if (this.executor instanceof FairScheduler) {
+            if (!((FairScheduler) this.executor).offer(message.getSender(), task)) {
+                refuse(connection, message);
+            }
+            return HandlerResult.HANDLED;
+        }
+        try {
+            if (this.executor instanceof OrderedExecutor) {
+                ((OrderedExecutor) this.executor).execute(message, task);
+            } else {
+                this.executor.execute(task);
+            }
+        } catch (final RejectedExecutionException e) {
+            refuse(connection, message);
+        }
+        return HandlerResult.HANDLED;
+
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AnnotatedHandler (%s)", this._interface);
+    }
+
+
+    /**
+     * Replies {@code org.freedesktop.DBus.Error.LimitsExceeded} from the pre-encoded strings.
+     */
+    @Internal
+    private static void refuse(final Connection connection, final Message call) {
+        if (!call.isNoReply()) {
+            connection.send(Message._newError(call, _LIMITS_EXCEEDED, _TOO_MANY_CALLS));
+        }
+    }
+
+    @Internal
+    private static List<Argument> arguments(final String[] types) {
+        final List<Argument> arguments = new ArrayList<>(types.length);
+        for (final String type: types) {
+            arguments.add(new Argument(null, type));
+        }
+        return arguments;
+    }
+
+    /**
+     * Splits a signature into its complete types.
+     */
+    @Internal
+    private static String[] completeTypes(final String signature) {
+        final List<String> types = new ArrayList<>();
+        for (int i = 0; i < signature.length(); i = Message._completeTypeEnd(signature, i)) {
+            types.add(signature.substring(i, Message._completeTypeEnd(signature, i)));
+        }
+        return types.toArray(new String[types.size()]);
+    }
+
+    /**
+     * Infers the D-Bus type of a Java type as described in {@link DBusMethod}.
+     */
+    @Internal
+    private static String typeOf(final Class<?> type, final java.lang.reflect.Method method) {
+        final Class<?> wrapped = wrap(type);
+        if (wrapped == String.class) {
+            return DBus.TYPE_STRING_AS_STRING;
+        } else if (wrapped == Boolean.class) {
+            return DBus.TYPE_BOOLEAN_AS_STRING;
+        } else if (wrapped == Byte.class) {
+            return DBus.TYPE_BYTE_AS_STRING;
+        } else if (wrapped == Short.class) {
+            return DBus.TYPE_INT16_AS_STRING;
+        } else if (wrapped == Integer.class) {
+            return DBus.TYPE_INT32_AS_STRING;
+        } else if (wrapped == Long.class) {
+            return DBus.TYPE_INT64_AS_STRING;
+        } else if (wrapped == Double.class) {
+            return DBus.TYPE_DOUBLE_AS_STRING;
+        } else if (wrapped == Object.class) {
+            return "v";
+        } else if (wrapped == Map.class) {
+            return "a{sv}";
+        }
+        throw new IllegalArgumentException("Unable to infer D-Bus type of " + type.getName()
+                + " in " + method + "; declare the signature explicitly.");
+    }
+
+    /**
+     * Returns the Java type that values of a complete D-Bus type are decoded to or, if {@code encoded} is set,
+     * the most general Java type they can be encoded from.
+     */
+    @Internal
+    private static Class<?> javaType(final String type, final boolean encoded) {
+        switch (type.charAt(0)) {
+            case 's':
+            case 'o':
+            case 'g':
+                return String.class;
+            case 'b':
+                return Boolean.class;
+            case 'y':
+                return encoded ? Number.class : Byte.class;
+            case 'n':
+            case 'q':
+                return encoded ? Number.class : Short.class;
+            case 'i':
+            case 'u':
+            case 'h':
+                return encoded ? Number.class : Integer.class;
+            case 'x':
+            case 't':
+                return encoded ? Number.class : Long.class;
+            case 'd':
+                return encoded ? Number.class : Double.class;
+            case 'a':
+                if (type.charAt(1) == '{') {
+                    return Map.class;
+                }
+                return encoded ? Collection.class : List.class;
+            case '(':
+                return List.class;
+            default:
+                // Variants may contain anything.
+                return Object.class;
+        }
+    }
+
+    /**
+     * Checks whether a Java type can hold values of the other type, i.e. whether one is assignable to the other.
+     */
+    @Internal
+    private static boolean compatible(final Class<?> type, final Class<?> other) {
+        return type.isAssignableFrom(other) || other.isAssignableFrom(type);
+    }
+
+    @Internal
+    private static Class<?> wrap(final Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+        return MethodType.methodType(type).wrap().returnType();
+    }
+
+
+    /**
+     * A precompiled annotated method.
+     */
+    private static final class Invoker {
+
+        private final String inSignature;
+        private final byte[] inSignatureBytes;
+        private final String[] inTypes;
+        private final String[] outTypes;
+        /** Parameter types (primitives wrapped), used to check the decoded arguments. */
+        private final Class<?>[] parameterTypes;
+        /** Index of the {@link DeferredReply} parameter or {@code -1}. */
+        private final int deferredIndex;
+        /** {@code (Object[]) -> Object} */
+        private final MethodHandle handle;
+
+        private Invoker(final MethodHandles.Lookup lookup, final Object target,
+                        final java.lang.reflect.Method method, final DBusMethod annotation) {
+            super();
+            final Class<?>[] parameters = method.getParameterTypes();
+            this.parameterTypes = new Class<?>[parameters.length];
+            int deferredIndex = -1;
+            for (int i = 0; i < parameters.length; i++) {
+                this.parameterTypes[i] = wrap(parameters[i]);
+                if (parameters[i] == DeferredReply.class) {
+                    if (deferredIndex >= 0) {
+                        throw new IllegalArgumentException("More than one DeferredReply parameter in " + method);
+                    }
+                    deferredIndex = i;
+                }
+            }
+            this.deferredIndex = deferredIndex;
+            final int argumentCount = deferredIndex < 0 ? parameters.length : parameters.length - 1;
+
+            if (annotation.in().isEmpty()) {
+                this.inTypes = new String[argumentCount];
+                for (int i = 0, j = 0; i < parameters.length; i++) {
+                    if (i != deferredIndex) {
+                        this.inTypes[j++] = typeOf(parameters[i], method);
+                    }
+                }
+            } else {
+                this.inTypes = completeTypes(annotation.in());
+                if (this.inTypes.length != argumentCount) {
+                    throw new IllegalArgumentException("Signature " + annotation.in() + " does not match the parameters of " + method);
+                }
+                for (int i = 0, j = 0; i < parameters.length; i++) {
+                    if (i != deferredIndex && !compatible(this.parameterTypes[i], javaType(this.inTypes[j++], false))) {
+                        throw new IllegalArgumentException("Parameter " + i + " of " + method
+                                + " cannot take arguments of type " + this.inTypes[j - 1]);
+                    }
+                }
+            }
+            final StringBuilder inSignature = new StringBuilder();
+            for (final String type: this.inTypes) {
+                inSignature.append(type);
+            }
+            this.inSignature = inSignature.toString();
+            this.inSignatureBytes = this.inSignature.getBytes(NameTable.UTF_8);
+
+            final Class<?> returnType = method.getReturnType();
+            if (!annotation.out().isEmpty()) {
+                this.outTypes = completeTypes(annotation.out());
+                // Deferred results are checked when they are being replied.
+                if (returnType != void.class && deferredIndex < 0 && !PendingReply.class.isAssignableFrom(returnType)
+                        && !compatible(wrap(returnType), this.outTypes.length == 1
+                                ? javaType(this.outTypes[0], true) : Object[].class)) {
+                    throw new IllegalArgumentException("Return type of " + method + " cannot be replied as "
+                            + annotation.out());
+                }
+            } else if (returnType == void.class || deferredIndex >= 0 || PendingReply.class.isAssignableFrom(returnType)) {
+                // The type of deferred results cannot be inferred.
+                this.outTypes = new String[0];
+            } else {
+                this.outTypes = new String[] { typeOf(returnType, method) };
+            }
+
+            try {
+                MethodHandle handle = lookup.unreflect(method);
+                if (!Modifier.isStatic(method.getModifiers())) {
+                    handle = handle.bindTo(target);
+                }
+                this.handle = handle.asSpreader(Object[].class, parameters.length).asType(INVOKER_TYPE);
+            } catch (final IllegalAccessException e) {
+                throw new IllegalArgumentException("Method is not accessible: " + method, e);
+            }
+        }
+
+        /**
+         * Decodes the arguments, invokes the method and replies its result, unless the method defers the reply.
+         */
+        private void invoke(final Connection connection, final Message call) {
+            final DeferredReply reply = new DeferredReply(connection, call, this.outTypes);
+            final Object[] arguments = this.decode(call, reply);
+            if (arguments == null) {
+                return;
+            }
+            final Object result;
+            try {
+                result = this.handle.invokeExact(arguments);
+            } catch (final java.lang.Error e) {
+                throw e;
+            } catch (final Throwable t) {
+                // Also replies methods that fail before completing their token.
+                reply.fail(t);
+                return;
+            }
+            if (result instanceof PendingReply) {
+                replyWhenCompleted((PendingReply<?>) result, reply);
+            } else if (this.deferredIndex < 0) {
+                try {
+                    reply.complete(result);
+                } catch (final IllegalArgumentException e) {
+                    reply.fail(e);
+                }
+            }
+        }
+
+        /**
+         * Decodes the arguments of a call in a single pass of one message iterator.
+         * @return
+         *         The parameters of the method or {@code null} if an argument has the wrong type, in which case
+         *         the call has been replied with an error already.
+         */
+        private Object[] decode(final Message call, final DeferredReply reply) {
+            final Object[] arguments = new Object[this.parameterTypes.length];
+            final Pointer<_MessageIter> _iter = DBus._new(_MessageIter.class, 1);
+            try {
+                boolean more = DBus._messageIterInit(call._peer, _iter);
+                for (int i = 0, j = 0; i < arguments.length; i++) {
+                    if (i == this.deferredIndex) {
+                        arguments[i] = reply;
+                        continue;
+                    }
+                    arguments[i] = more ? Message._value(_iter, false) : null;
+                    if (!this.parameterTypes[i].isInstance(arguments[i])) {
+                        reply.fail(DBus.ERROR_INVALID_ARGS, "Argument " + j + " cannot be converted to "
+                                + this.parameterTypes[i].getName());
+                        return null;
+                    }
+                    more = more && DBus._messageIterNext(_iter);
+                    j++;
+                }
+            } finally {
+                DBus._free(_iter);
+            }
+            return arguments;
+        }
+
+        private static <T> void replyWhenCompleted(final PendingReply<T> pending, final DeferredReply reply) {
+            pending.addListener(new PendingReply.Listener<T>() {
+                @Override
+                public void completed(final PendingReply<T> completed) {
+                    try {
+                        reply.complete(completed.get());
+                    } catch (final Exception e) {
+                        reply.fail(e);
+                    }
+                }
+            });
+        }
+
+    }
+
+    /**
+     * Lazily created pool for handlers without an explicit executor.
+     */
+    private static final class DefaultExecutor {
+
+        private static final ExecutorService INSTANCE = new ForkJoinPool();
+
+    }
+
+}
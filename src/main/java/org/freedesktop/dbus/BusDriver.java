@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import org.freedesktop.dbus.Connection.NameFlag;
+import org.freedesktop.dbus.Connection.ReleaseNameReply;
+import org.freedesktop.dbus.Connection.RequestNameReply;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.freedesktop.dbus.Message.MethodArgument.stringParam;
+import static org.freedesktop.dbus.Message.MethodArgument.uint32Param;
+
+/**
+ * Asynchronous client for the {@code org.freedesktop.DBus} interface of the bus daemon.
+ * <p>In contrast to the blocking methods of {@link Connection}, every method of this class only queues the
+ * method call and immediately returns a {@link PendingReply}. Any number of calls can thus be in flight at the
+ * same time and cost a single round trip once the connection gets flushed or dispatched.</p>
+ * @author Benjamin P. Jung
+ */
+public class BusDriver {
+
+    private static final PendingReply.Decoder<List<String>> STRING_ARRAY = new PendingReply.Decoder<List<String>>() {
+        @Override
+        public List<String> decode(final Message reply) {
+            return reply.getStringArrayArgument(0);
+        }
+    };
+
+    private static final PendingReply.Decoder<String> STRING = new PendingReply.Decoder<String>() {
+        @Override
+        public String decode(final Message reply) {
+            return reply.getStringArgument(0);
+        }
+    };
+
+    private static final PendingReply.Decoder<Boolean> BOOLEAN = new PendingReply.Decoder<Boolean>() {
+        @Override
+        public Boolean decode(final Message reply) {
+            return (Boolean) reply.getArgument(0);
+        }
+    };
+
+    private static final PendingReply.Decoder<RequestNameReply> REQUEST_NAME = new PendingReply.Decoder<RequestNameReply>() {
+        @Override
+        public RequestNameReply decode(final Message reply) {
+            return RequestNameReply.valueOf(((Integer) reply.getArgument(0)).intValue());
+        }
+    };
+
+    private static final PendingReply.Decoder<ReleaseNameReply> RELEASE_NAME = new PendingReply.Decoder<ReleaseNameReply>() {
+        @Override
+        public ReleaseNameReply decode(final Message reply) {
+            return ReleaseNameReply.valueOf(((Integer) reply.getArgument(0)).intValue());
+        }
+    };
+
+    private static final PendingReply.Decoder<StartServiceReply> START_SERVICE = new PendingReply.Decoder<StartServiceReply>() {
+        @Override
+        public StartServiceReply decode(final Message reply) {
+            return StartServiceReply.valueOf(((Integer) reply.getArgument(0)).intValue());
+        }
+    };
+
+    private static final PendingReply.Decoder<Credentials> CREDENTIALS = new PendingReply.Decoder<Credentials>() {
+        @Override
+        public Credentials decode(final Message reply) {
+            return new Credentials(reply.getDictionaryArgument(0));
+        }
+    };
+
+    private final Connection connection;
+    private final int timeout;
+
+    /**
+     * Creates a new driver client that uses the default timeout for all method calls.
+     * @param connection
+     *         Connection to the bus.
+     */
+    public BusDriver(final Connection connection) {
+        this(connection, DBus.TIMEOUT_USE_DEFAULT);
+    }
+
+    /**
+     * Creates a new driver client.
+     * @param connection
+     *         Connection to the bus.
+     * @param timeout
+     *         Timeout in milliseconds for all method calls.
+     */
+    public BusDriver(final Connection connection, final int timeout) {
+        super();
+        this.connection = connection;
+        this.timeout = timeout;
+    }
+
+
+    /**
+     * Lists all names (unique and well-known) that are currently owned on the bus.
+     * @return
+     *         The names.
+     */
+    public PendingReply<List<String>> listNames() {
+        return this.call("ListNames", STRING_ARRAY);
+    }
+
+    /**
+     * Lists all names that can be activated on the bus.
+     * @return
+     *         The activatable names.
+     */
+    public PendingReply<List<String>> listActivatableNames() {
+        return this.call("ListActivatableNames", STRING_ARRAY);
+    }
+
+    /**
+     * Returns the unique name of the primary owner of the given name.
+     * <p>Fails with {@code org.freedesktop.DBus.Error.NameHasNoOwner} if the name is not owned.</p>
+     * @param name
+     *         A well-known or unique name.
+     * @return
+     *         The unique name of the owner.
+     */
+    public PendingReply<String> getNameOwner(final String name) {
+        return this.call("GetNameOwner", STRING, stringParam(name));
+    }
+
+    /**
+     * Checks whether the given name is currently owned on the bus.
+     * @param name
+     *         A well-known or unique name.
+     * @return
+     *         {@code true} if the name has an owner.
+     */
+    public PendingReply<Boolean> nameHasOwner(final String name) {
+        return this.call("NameHasOwner", BOOLEAN, stringParam(name));
+    }
+
+    /**
+     * Asks the bus to assign the given name to this connection.
+     * @see Connection#requestName(String, NameFlag...)
+     */
+    public PendingReply<RequestNameReply> requestName(final String name, final NameFlag... flags) {
+        int _flags = 0;
+        for (final NameFlag flag: flags) {
+            _flags |= flag.value();
+        }
+        return this.call("RequestName", REQUEST_NAME, stringParam(name), uint32Param(_flags));
+    }
+
+    /**
+     * Asks the bus to release the given name from this connection.
+     * @see Connection#releaseName(String)
+     */
+    public PendingReply<ReleaseNameReply> releaseName(final String name) {
+        return this.call("ReleaseName", RELEASE_NAME, stringParam(name));
+    }
+
+    /**
+     * Asks the bus to activate the service that provides the given name.
+     * @param name
+     *         The name of the service to be started.
+     * @return
+     *         Whether the service has been started or was already running.
+     */
+    public PendingReply<StartServiceReply> startServiceByName(final String name) {
+        return this.call("StartServiceByName", START_SERVICE, stringParam(name), uint32Param(0));
+    }
+
+    /**
+     * Returns the credentials of the connection that owns the given name.
+     * @param name
+     *         A well-known or unique name.
+     * @return
+     *         The credentials of the owning connection.
+     */
+    public PendingReply<Credentials> getConnectionCredentials(final String name) {
+        return this.call("GetConnectionCredentials", CREDENTIALS, stringParam(name));
+    }
+
+    @Internal
+    private <T> PendingReply<T> call(final String method, final PendingReply.Decoder<T> decoder,
+                                     final Message.MethodArgument<?>... arguments) {
+        final Message call = Message.newMethodCall(DBus.SERVICE_DBUS, DBus.PATH_DBUS, DBus.INTERFACE_DBUS, method);
+        call.addArguments(arguments);
+        return this.connection.sendWithReplyAsync(call, this.timeout, decoder);
+    }
+
+
+    /**
+     * Possible return codes of {@link BusDriver#startServiceByName(String)}.
+     */
+    public static enum StartServiceReply {
+
+        /**
+         * The service has been successfully started
+         */
+        SUCCESS(DBus.START_REPLY_SUCCESS),
+
+        /**
+         * The service was already running
+         */
+        ALREADY_RUNNING(DBus.START_REPLY_ALREADY_RUNNING);
+
+        private static final Map<Integer, StartServiceReply> INT_MAPPING = new HashMap<>();
+        static {
+            for (StartServiceReply ssr: StartServiceReply.values()) {
+                INT_MAPPING.put(Integer.valueOf(ssr.value()), ssr);
+            }
+        }
+        static StartServiceReply valueOf(int value) {
+            return INT_MAPPING.get(Integer.valueOf(value));
+        }
+
+        private final int value;
+        private int value() { return this.value; }
+        private StartServiceReply(final int value) {
+            this.value = value;
+        }
+
+    }
+
+}
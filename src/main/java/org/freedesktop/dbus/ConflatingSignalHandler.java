@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Signal handler that delivers only one signal per key to a slow consumer.
+ * <p>Signals are keyed by (sender, path, interface, member) and optionally by their first argument;
+ * {@code PropertiesChanged} signals are always kept apart by the name of their interface. Received signals are
+ * queued and delivered to the wrapped handler on the given executor; a signal that arrives while another signal
+ * of the same key is still queued is merged with the queued one (see {@link Merger}), and the result keeps the
+ * position of the queued signal. A consumer that falls behind thus never has more signals queued than there are
+ * keys.</p>
+ * <p>By default ({@link #PROPERTIES}) the changed and invalidated properties of {@code PropertiesChanged} signals
+ * are combined into a single signal, so no change is lost, while any other signal simply replaces the queued
+ * one; the latter is only sound for signals that carry a complete state. Pass a merger of your own for signals
+ * that describe increments.</p>
+ * @author Benjamin P. Jung
+ */
+public class ConflatingSignalHandler implements SignalHandler {
+
+    private static final String PROPERTIES_CHANGED = "PropertiesChanged";
+
+    /** Keeps the latest signal and drops the queued one. */
+    public static final Merger LATEST = new Merger() {
+        @Override
+        public Message merge(final Message queued, final Message latest) {
+            return latest;
+        }
+    };
+
+    /**
+     * Combines {@code PropertiesChanged} signals of the same interface: the result carries the latest value of
+     * every property that has changed in either signal, and every property that has been invalidated since its
+     * last change. Any other signal replaces the queued one (see {@link #LATEST}).
+     */
+    public static final Merger PROPERTIES = new Merger() {
+        @Override
+        public Message merge(final Message queued, final Message latest) {
+            if (!latest.isSignal(DBus.INTERFACE_PROPERTIES, PROPERTIES_CHANGED)) {
+                return latest;
+            }
+            final String _interface = latest.getStringArgument(0);
+            final Object queuedChanged = queued.getTypedArgument(1);
+            final Object latestChanged = latest.getTypedArgument(1);
+            final List<String> queuedInvalidated = queued.getStringArrayArgument(2);
+            final List<String> latestInvalidated = latest.getStringArrayArgument(2);
+            if (_interface == null || !_interface.equals(queued.getStringArgument(0))
+                    || !(queuedChanged instanceof Map) || !(latestChanged instanceof Map)
+                    || queuedInvalidated == null || latestInvalidated == null) {
+                return latest;
+            }
+            final Map<Object, Object> changed = new LinkedHashMap<>((Map<?, ?>) queuedChanged);
+            final Set<String> invalidated = new LinkedHashSet<>(queuedInvalidated);
+            for (final Map.Entry<?, ?> property: ((Map<?, ?>) latestChanged).entrySet()) {
+                changed.put(property.getKey(), property.getValue());
+                invalidated.remove(property.getKey());
+            }
+            for (final String name: latestInvalidated) {
+                changed.remove(name);
+                invalidated.add(name);
+            }
+            final Message merged = Message.newSignal(latest.getPath(), DBus.INTERFACE_PROPERTIES, PROPERTIES_CHANGED);
+            merged.setSender(latest.getSender());
+            merged.setDestination(latest.getDestination());
+            merged.addArgument("s", _interface);
+            merged.addArgument("a{sv}", changed);
+            merged.addArgument("as", invalidated);
+            return merged;
+        }
+    };
+
+    private final SignalHandler handler;
+    private final Executor executor;
+    private final boolean keyByFirstArgument;
+    private final Merger merger;
+
+    // Guarded by this.pending.
+    private final LinkedHashMap<Key, Message> pending = new LinkedHashMap<>();
+    private boolean draining;
+
+    private final AtomicLong conflated = new AtomicLong();
+
+
+    /**
+     * Creates a new conflating handler that merges {@code PropertiesChanged} signals (see {@link #PROPERTIES}).
+     * @param handler
+     *         The handler the merged signals are delivered to.
+     * @param executor
+     *         Executor the handler is invoked on.
+     * @param keyByFirstArgument
+     *         {@code true} if signals with different first (string) arguments shall be kept apart.
+     */
+    public ConflatingSignalHandler(final SignalHandler handler, final Executor executor, final boolean keyByFirstArgument) {
+        this(handler, executor, keyByFirstArgument, PROPERTIES);
+    }
+
+    /**
+     * Creates a new conflating handler.
+     * @param handler
+     *         The handler the merged signals are delivered to.
+     * @param executor
+     *         Executor the handler is invoked on.
+     * @param keyByFirstArgument
+     *         {@code true} if signals with different first (string) arguments shall be kept apart.
+     * @param merger
+     *         Merges a signal with the queued signal of the same key.
+     */
+    public ConflatingSignalHandler(final SignalHandler handler, final Executor executor, final boolean keyByFirstArgument,
+                                   final Merger merger) {
+        super();
+        this.handler = handler;
+        this.executor = executor;
+        this.keyByFirstArgument = keyByFirstArgument;
+        this.merger = merger;
+    }
+
+
+    @Override
+    public void handleSignal(final Message signal) {
+        final boolean byFirstArgument = this.keyByFirstArgument
+                || signal.isSignal(DBus.INTERFACE_PROPERTIES, PROPERTIES_CHANGED);
+        final Key key = new Key(signal.getSender(), signal.getPath(), signal.getInterface(), signal.getMember(),
+                byFirstArgument ? signal.getStringArgument(0) : null);
+        synchronized (this.pending) {
+            final Message queued = this.pending.get(key);
+            if (queued == null) {
+                this.pending.put(key, signal);
+            } else {
+                this.pending.put(key, this.merger.merge(queued, signal));
+                this.conflated.incrementAndGet();
+            }
+            if (this.draining) {
+                return;
+            }
+            this.draining = true;
+        }
+        try {
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            });
+        } catch (final RuntimeException e) {
+            synchronized (this.pending) {
+                this.draining = false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of signals waiting to be delivered.
+     * @return
+     *         The number of queued signals, at most one per key.
+     */
+    public int getPendingCount() {
+        synchronized (this.pending) {
+            return this.pending.size();
+        }
+    }
+
+    /**
+     * Returns the number of signals that have been merged with a later signal before being delivered.
+     * @return
+     *         The number of conflated signals.
+     */
+    public long getConflatedCount() {
+        return this.conflated.get();
+    }
+
+
+    @Internal
+    private void drain() {
+        while (true) {
+            final Message signal;
+            synchronized (this.pending) {
+                final Iterator<Map.Entry<Key, Message>> eldest = this.pending.entrySet().iterator();
+                if (!eldest.hasNext()) {
+                    this.draining = false;
+                    return;
+                }
+                signal = eldest.next().getValue();
+                eldest.remove();
+            }
+            try {
+                this.handler.handleSignal(signal);
+            } catch (final RuntimeException e) {
+                // A failing handler must not stall the delivery of other keys.
+                final Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+    }
+
+
+    /**
+     * Merges two signals of the same key into the one that is delivered in their place.
+     */
+    public static interface Merger {
+
+        /**
+         * Invoked on the thread that receives the later signal, while holding the lock of the queue.
+         * @param queued
+         *         The signal (or result of an earlier merge) that is still waiting to be delivered.
+         * @param latest
+         *         The signal that has just been received.
+         * @return
+         *         The signal to be delivered instead of both.
+         */
+        Message merge(Message queued, Message latest);
+
+    }
+
+    /**
+     * Identifies the signals that are merged with each other.
+     */
+    private static final class Key {
+
+        private final String sender;
+        private final String path;
+        private final String _interface;
+        private final String member;
+        private final String arg0;
+
+        private Key(final String sender, final String path, final String _interface, final String member, final String arg0) {
+            super();
+            this.sender = sender;
+            this.path = path;
+            this._interface = _interface;
+            this.member = member;
+            this.arg0 = arg0;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = hash(this.sender);
+            hash = hash * 31 + hash(this.path);
+            hash = hash * 31 + hash(this._interface);
+            hash = hash * 31 + hash(this.member);
+            return hash * 31 + hash(this.arg0);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return equal(this.sender, other.sender)
+                    && equal(this.path, other.path)
+                    && equal(this._interface, other._interface)
+                    && equal(this.member, other.member)
+                    && equal(this.arg0, other.arg0);
+        }
+
+        private static int hash(final String s) {
+            return s == null ? 0 : s.hashCode();
+        }
+
+        private static boolean equal(final String a, final String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+
+    }
+
+}
@@ -19,12 +19,21 @@ package org.freedesktop.dbus;
 import org.bridj.Pointer;
 import org.freedesktop.dbus.DBus._Connection;
 import org.freedesktop.dbus.DBus._Error;
+import org.freedesktop.dbus.DBus._HandleMessageFunction;
+import org.freedesktop.dbus.DBus._ObjectPathMessageFunction;
+import org.freedesktop.dbus.DBus._ObjectPathVTable;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static org.bridj.Pointer.pointerToCString;
-import static org.bridj.Pointer.pointerToPointer;
 import static org.freedesktop.dbus.DBus._Message;
 import static org.freedesktop.dbus.DBus._PendingCall;
 
@@ -33,9 +42,61 @@ import static org.freedesktop.dbus.DBus._PendingCall;
  */
 public class Connection implements AutoCloseable {
 
+    private static final String NAME_ACQUIRED = "NameAcquired";
+    private static final String NAME_LOST = "NameLost";
+
+    @Internal
+    private static final PendingReply.Decoder<Message> IDENTITY = new PendingReply.Decoder<Message>() {
+        @Override
+        public Message decode(final Message reply) {
+            return reply;
+        }
+    };
+
     @Internal
     final Pointer<_Connection> _peer;
 
+    /**
+     * Native callbacks of all message filters that have been added to this connection.
+     * <p>References to the callbacks must be held as long as they are registered, otherwise the native
+     * function pointers would become invalid as soon as the garbage collector kicks in.</p>
+     */
+    @Internal
+    private final Map<Object, _HandleMessageFunction> filters = new HashMap<>();
+
+    /** Native callbacks of all object paths that have been registered on this connection. */
+    @Internal
+    private final Map<String, _ObjectPathMessageFunction> objectPaths = new HashMap<>();
+
+    /** Native vtables of all registered object paths; freed once their path has been unregistered. */
+    @Internal
+    private final Map<String, Pointer<_ObjectPathVTable>> vtables = new HashMap<>();
+
+    /** Handlers of all registered object paths; fallback handlers are additionally listed in {@link #fallbacks}. */
+    @Internal
+    private final ConcurrentMap<String, MessageHandler> handlers = new ConcurrentHashMap<>();
+    @Internal
+    private final Set<String> fallbacks = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** Well-known names owned by this connection. */
+    @Internal
+    private final Set<String> names = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Filter that follows the {@code NameAcquired} and {@code NameLost} signals of the bus daemon in order to keep
+     * {@link #names} up to date; added with the first {@link #requestName(String, NameFlag...)}.
+     */
+    @Internal
+    private MessageHandler nameTracker;
+
+    /** Bus ID while short-circuiting is enabled, {@code null} otherwise. */
+    @Internal
+    private volatile String localBusId;
+
+    /** Asynchronous replies that are still in flight (their native callbacks must not be collected). */
+    @Internal
+    private final Set<PendingReply<?>> pendingReplies = Collections.synchronizedSet(new HashSet<PendingReply<?>>());
+
     @Internal
     private Connection(final _Connection _connection) {
         super();
@@ -130,6 +191,8 @@ public class Connection implements AutoCloseable {
      */
     public RequestNameReply requestName(final String name, final NameFlag... flags) {
 
+        this.trackNames();
+
         // Prepare parameters
         final Pointer<_Connection> _this = this._peer;
         final Pointer<Byte> _name = pointerToCString(name);
@@ -149,7 +212,11 @@ public class Connection implements AutoCloseable {
         }
 
         // Transform and return result
-        return RequestNameReply.valueOf(reply);
+        final RequestNameReply result = RequestNameReply.valueOf(reply);
+        if (result == RequestNameReply.PRIMARY_OWNER || result == RequestNameReply.ALREADY_OWNER) {
+            this.nameAcquired(name);
+        }
+        return result;
 
     }
 
@@ -170,10 +237,70 @@ public class Connection implements AutoCloseable {
         }
 
         // Transform and return result
+        this.nameLost(uniqueName);
         return ReleaseNameReply.valueOf(reply);
 
     }
 
+    /**
+     * Adds the filter that keeps track of the well-known names owned by this connection, unless it has already
+     * been added. Names the connection has been queued for are thus picked up as soon as it becomes their primary
+     * owner, and names that are taken over by another connection are dropped.
+     */
+    @Internal
+    private void trackNames() {
+        synchronized (this.names) {
+            if (this.nameTracker != null) {
+                return;
+            }
+            final MessageHandler tracker = new MessageHandler() {
+                @Override
+                public HandlerResult handleMessage(final Connection connection, final Message message) {
+                    if (message.getType() != Message.Type.SIGNAL || !DBus.SERVICE_DBUS.equals(message.getSender())) {
+                        return HandlerResult.NOT_YET_HANDLED;
+                    }
+                    final boolean acquired = message.isSignal(DBus.INTERFACE_DBUS, NAME_ACQUIRED);
+                    if (acquired || message.isSignal(DBus.INTERFACE_DBUS, NAME_LOST)) {
+                        final Object name = message.getArgument(0);
+                        // The unique name is acquired with the connection and not tracked here.
+                        if (name instanceof String && !((String) name).startsWith(":")) {
+                            if (acquired) {
+                                nameAcquired((String) name);
+                            } else {
+                                nameLost((String) name);
+                            }
+                        }
+                    }
+                    return HandlerResult.NOT_YET_HANDLED;
+                }
+            };
+            this.addFilter(tracker);
+            this.nameTracker = tracker;
+        }
+    }
+
+    @Internal
+    private void nameAcquired(final String name) {
+        synchronized (this.names) {
+            this.names.add(name);
+            final String busId = this.localBusId;
+            if (busId != null) {
+                LocalBus.register(this, busId, name);
+            }
+        }
+    }
+
+    @Internal
+    private void nameLost(final String name) {
+        synchronized (this.names) {
+            this.names.remove(name);
+            final String busId = this.localBusId;
+            if (busId != null) {
+                LocalBus.unregister(this, busId, name);
+            }
+        }
+    }
+
     public long getUnixUserId(final String name) {
         final Pointer<_Error> _error = DBus._new(_Error.class, 1);
         DBus._errorInit(_error);
@@ -187,7 +314,362 @@ public class Connection implements AutoCloseable {
         return unixUserId;
     }
 
+    /**
+     * Adds a match rule to match messages going through the message bus.
+     * <p>This call blocks until the bus daemon has acknowledged the rule.</p>
+     * @param rule
+     *         Textual form of the match rule, e.g. {@code type='signal',interface='org.example.Foo'}.
+     */
+    public void addMatch(final String rule) {
+        final Pointer<_Error> _error = DBus._new(_Error.class, 1);
+        DBus._errorInit(_error);
+        DBus._busAddMatch(this._peer, pointerToCString(rule), _error);
+        if (DBus._errorIsSet(_error)) {
+            final DBusException exception = new DBusException(_error.get());
+            DBus._errorFree(_error);
+            throw exception;
+        }
+    }
+
+    /**
+     * Removes a previously added match rule (see {@link #addMatch(String)}).
+     * <p>This call blocks until the bus daemon has acknowledged the removal.</p>
+     * @param rule
+     *         Textual form of the match rule. Must be identical to the one that has been added.
+     */
+    public void removeMatch(final String rule) {
+        final Pointer<_Error> _error = DBus._new(_Error.class, 1);
+        DBus._errorInit(_error);
+        DBus._busRemoveMatch(this._peer, pointerToCString(rule), _error);
+        if (DBus._errorIsSet(_error)) {
+            final DBusException exception = new DBusException(_error.get());
+            DBus._errorFree(_error);
+            throw exception;
+        }
+    }
+
+    /**
+     * Adds a message filter.
+     * <p>Filters are handlers that are run on all incoming messages, prior to the objects registered with
+     * {@link #registerObjectPath(String, MessageHandler)}. Filters are run in the order that they were added.</p>
+     * @param filter
+     *         The filter to be added.
+     */
+    public void addFilter(final MessageHandler filter) {
+        final _HandleMessageFunction _function = new _HandleMessageFunction() {
+            @Override
+            public HandlerResult run(final Pointer<_Connection> _connection,
+                                     final Pointer<_Message> _message,
+                                     final Pointer<?> _userData) {
+                return handleMessage(filter, _message);
+            }
+        };
+        this.installFilter(filter, _function);
+    }
+
+    /**
+     * Adds a message filter that receives immutable snapshots of the incoming messages.
+     * <p>The snapshot is copied from the message while it is being dispatched, and no reference to the native
+     * message is taken, so the native message is released as soon as it has been dispatched. Filters of both
+     * kinds are run in the order that they were added.</p>
+     * @param filter
+     *         The filter to be added.
+     */
+    public void addDetachedFilter(final DetachedMessageHandler filter) {
+        final _HandleMessageFunction _function = new _HandleMessageFunction() {
+            @Override
+            public HandlerResult run(final Pointer<_Connection> _connection,
+                                     final Pointer<_Message> _message,
+                                     final Pointer<?> _userData) {
+                return handleDetached(filter, _message);
+            }
+        };
+        this.installFilter(filter, _function);
+    }
+
+    /**
+     * Removes a previously added message filter (see {@link #addFilter(MessageHandler)}).
+     * @param filter
+     *         The filter to be removed.
+     */
+    public void removeFilter(final MessageHandler filter) {
+        this.uninstallFilter(filter);
+    }
+
+    /**
+     * Removes a previously added message filter (see {@link #addDetachedFilter(DetachedMessageHandler)}).
+     * @param filter
+     *         The filter to be removed.
+     */
+    public void removeDetachedFilter(final DetachedMessageHandler filter) {
+        this.uninstallFilter(filter);
+    }
+
+    @Internal
+    private void installFilter(final Object filter, final _HandleMessageFunction _function) {
+        synchronized (this.filters) {
+            if (this.filters.containsKey(filter)) {
+                throw new IllegalArgumentException("Message filter has already been added.");
+            }
+            if (!DBus._connectionAddFilter(this._peer, _function, Pointer.NULL, null)) {
+                throw new DBusException("Adding of message filter failed.");
+            }
+            this.filters.put(filter, _function);
+        }
+    }
+
+    @Internal
+    private void uninstallFilter(final Object filter) {
+        synchronized (this.filters) {
+            final _HandleMessageFunction _function = this.filters.remove(filter);
+            if (_function != null) {
+                DBus._connectionRemoveFilter(this._peer, _function, Pointer.NULL);
+            }
+        }
+    }
+
+    /**
+     * Registers a handler for a given object path.
+     * @param path
+     *         Object path to be handled.
+     * @param handler
+     *         Handler for all messages that are being sent to the given path.
+     */
+    public void registerObjectPath(final String path, final MessageHandler handler) {
+        this.registerObjectPath(path, handler, false);
+    }
+
+    /**
+     * Registers a fallback handler for a given subsection of the object hierarchy.
+     * <p>The given handler will be invoked for the given path and all of its sub-paths, unless a more specific
+     * handler has been registered for a sub-path.</p>
+     * @param path
+     *         Object path to be handled.
+     * @param handler
+     *         Handler for all messages that are being sent to the given path or any of its sub-paths.
+     */
+    public void registerFallback(final String path, final MessageHandler handler) {
+        this.registerObjectPath(path, handler, true);
+    }
+
+    @Internal
+    private void registerObjectPath(final String path, final MessageHandler handler, final boolean fallback) {
+
+        final _ObjectPathMessageFunction _function = new _ObjectPathMessageFunction() {
+            @Override
+            public HandlerResult run(final Pointer<_Connection> _connection,
+                                     final Pointer<_Message> _message,
+                                     final Pointer<?> _userData) {
+                return handleMessage(handler, _message);
+            }
+        };
+        final Pointer<_ObjectPathVTable> _vtable = DBus._new0(_ObjectPathVTable.class, 1);
+        _vtable.get().messageFunction(Pointer.pointerTo(_function));
+
+        final Pointer<_Error> _error = DBus._new(_Error.class, 1);
+        DBus._errorInit(_error);
+        synchronized (this.objectPaths) {
+            if (fallback) {
+                DBus._connectionTryRegisterFallback(this._peer, pointerToCString(path), _vtable, Pointer.NULL, _error);
+            } else {
+                DBus._connectionTryRegisterObjectPath(this._peer, pointerToCString(path), _vtable, Pointer.NULL, _error);
+            }
+            if (DBus._errorIsSet(_error)) {
+                final DBusException exception = new DBusException(_error.get());
+                DBus._errorFree(_error);
+                DBus._free(_vtable);
+                throw exception;
+            }
+            this.objectPaths.put(path, _function);
+            this.vtables.put(path, _vtable);
+            this.handlers.put(path, handler);
+            if (fallback) {
+                this.fallbacks.add(path);
+            } else {
+                this.fallbacks.remove(path);
+            }
+        }
+
+    }
+
+    /**
+     * Unregisters the handler of the given object path
+     * (see {@link #registerObjectPath(String, MessageHandler)} and {@link #registerFallback(String, MessageHandler)}).
+     * @param path
+     *         Object path whose handler shall be removed.
+     */
+    public void unregisterObjectPath(final String path) {
+        synchronized (this.objectPaths) {
+            if (!this.objectPaths.containsKey(path)) {
+                return;
+            }
+            if (!DBus._connectionUnregisterObjectPath(this._peer, pointerToCString(path))) {
+                throw new DBusException("Unregistering of object path failed: " + path);
+            }
+            this.objectPaths.remove(path);
+            this.handlers.remove(path);
+            this.fallbacks.remove(path);
+            DBus._free(this.vtables.remove(path));
+        }
+    }
+
+    /**
+     * Wraps a borrowed native message and hands it over to the given handler.
+     * Exceptions thrown by the handler must never travel back into the native library; they are reported to the
+     * uncaught exception handler of the dispatching thread instead.
+     */
+    @Internal
+    private HandlerResult handleMessage(final MessageHandler handler, final Pointer<_Message> _message) {
+        try {
+            final HandlerResult result = handler.handleMessage(this, new Message(DBus._messageRef(_message)));
+            return result == null ? HandlerResult.NOT_YET_HANDLED : result;
+        } catch (final RuntimeException e) {
+            final Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            return HandlerResult.NOT_YET_HANDLED;
+        }
+    }
+
+    /**
+     * Copies a borrowed native message into a snapshot and hands it over to the given handler.
+     */
+    @Internal
+    private HandlerResult handleDetached(final DetachedMessageHandler handler, final Pointer<_Message> _message) {
+        try {
+            final HandlerResult result = handler.handleMessage(this, new DetachedMessage(_message));
+            return result == null ? HandlerResult.NOT_YET_HANDLED : result;
+        } catch (final RuntimeException e) {
+            final Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            return HandlerResult.NOT_YET_HANDLED;
+        }
+    }
+
+    /**
+     * Enables or disables short-circuiting of calls among the connections of this process.
+     * <p>While enabled on both the caller and the callee (connected to the same bus), method calls that the caller
+     * sends with {@link #send(Message)} or {@link #sendWithReplyAsync(Message, int, PendingReply.Decoder)} to the
+     * unique name or a well-known name (requested via {@link #requestName(String, NameFlag...)}) of the callee do
+     * not travel over the bus: a copy of the call is handed over to the object path handler of the callee right
+     * away, on the calling thread, and its reply completes the pending reply directly.</p>
+     * <p>The semantics of the bus are kept as far as the caller can tell: the call carries the unique name of the
+     * caller and a serial of its own, unknown objects and unhandled methods are replied with
+     * {@code org.freedesktop.DBus.Error.UnknownMethod}, calls that are never replied fail with
+     * {@code org.freedesktop.DBus.Error.NoReply} after their timeout, and calls that do not expect a reply are
+     * never replied. Filters of the callee, bus policies and monitors however never see short-circuited calls.
+     * Well-known names follow the {@code NameAcquired} and {@code NameLost} signals of the bus daemon, so they are
+     * only up to date as far as the callee's connection has been dispatched. Blocking calls ({@link #sendWithReply(Message, int)}) always travel over the bus.</p>
+     * @param enabled
+     *         {@code true} to enable short-circuiting.
+     */
+    public void setShortCircuit(final boolean enabled) {
+        synchronized (this.names) {
+            if (enabled == (this.localBusId != null)) {
+                return;
+            }
+            final String busId = enabled ? this.getBusId() : this.localBusId;
+            final String uniqueName = this.getUniqueName();
+            if (enabled) {
+                LocalBus.register(this, busId, uniqueName);
+                for (final String name: this.names) {
+                    LocalBus.register(this, busId, name);
+                }
+                this.localBusId = busId;
+            } else {
+                this.localBusId = null;
+                LocalBus.unregister(this, busId, uniqueName);
+                for (final String name: this.names) {
+                    LocalBus.unregister(this, busId, name);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands a short-circuited method call over to the handler of its object path.
+     * <p>If the handler fails, the exception is reported to the uncaught exception handler and the call is
+     * replied with the error name of the exception (if it is a {@link DBusException}) or
+     * {@code org.freedesktop.DBus.Error.Failed}.</p>
+     * @return
+     *         {@code true} if the call has been handled.
+     */
+    @Internal
+    boolean handleLocally(final Message call) {
+        final String path = call.getPath();
+        MessageHandler handler = path == null ? null : this.handlers.get(path);
+        if (handler == null && path != null) {
+            // Fall back to the closest registered ancestor.
+            String parent = path;
+            while (handler == null && parent.length() > 1) {
+                parent = parent.substring(0, Math.max(parent.lastIndexOf('/'), 1));
+                if (this.fallbacks.contains(parent)) {
+                    handler = this.handlers.get(parent);
+                }
+            }
+        }
+        if (handler == null) {
+            return false;
+        }
+        try {
+            return handler.handleMessage(this, call) == HandlerResult.HANDLED;
+        } catch (final RuntimeException e) {
+            final Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            if (!call.isNoReply()) {
+                String errorName = e instanceof DBusException ? ((DBusException) e).getErrorName() : null;
+                if (errorName == null) {
+                    errorName = DBus.ERROR_FAILED;
+                }
+                LocalBus.reply(Message.newError(call, errorName, e.getMessage() != null ? e.getMessage() : e.toString()));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Blocks until the outgoing message queue is empty.
+     */
+    public void flush() {
+        DBus._connectionFlush(this._peer);
+    }
+
+    /**
+     * Reads and writes pending data and dispatches at most one incoming message to the registered
+     * filters and object path handlers.
+     * @param timeout
+     *         Timeout in milliseconds to block for I/O, or {@code -1} for no timeout.
+     * @return
+     *         {@code false} if the connection has been closed / disconnected and the disconnect message
+     *         has been processed, {@code true} otherwise.
+     */
+    public boolean readWriteDispatch(final int timeout) {
+        return DBus._connectionReadWriteDispatch(this._peer, timeout);
+    }
+
+    /**
+     * Sets whether {@code _exit()} should be called when the connection receives a disconnect signal.
+     * <p>Shared bus connections default to {@code true}, which is rarely what a long-living Java process wants.</p>
+     * @param exitOnDisconnect
+     *         {@code true} if the process shall exit when the connection gets lost.
+     */
+    public void setExitOnDisconnect(final boolean exitOnDisconnect) {
+        DBus._connectionSetExitOnDisconnect(this._peer, exitOnDisconnect);
+    }
+
     public long send(final Message message) {
+        if (this.localBusId != null) {
+            final Message.Type type = message.getType();
+            if ((type == Message.Type.METHOD_RETURN || type == Message.Type.ERROR) && LocalBus.reply(message)) {
+                // Consumed in process, so the reply never gets a serial.
+                return 0L;
+            }
+            if (type == Message.Type.METHOD_CALL) {
+                final Connection callee = LocalBus.resolve(this.localBusId, message.getDestination());
+                if (callee != null) {
+                    return LocalBus.send(this, callee, message);
+                }
+            }
+        }
         final Pointer<Long> _clientSerial = DBus._new0(long.class, 1);
         if (!DBus._connectionSend(this._peer, message._peer, _clientSerial)) {
             throw new DBusException("Sending of D-Bus message failed.");
@@ -201,7 +683,7 @@ public class Connection implements AutoCloseable {
 
         final Pointer<_Connection> _connection = this._peer;
         final Pointer<_Message> _message = message._peer;
-        Pointer<Pointer<_PendingCall>> _pending = pointerToPointer(Pointer.NULL);
+        Pointer<Pointer<_PendingCall>> _pending = Pointer.<_PendingCall>pointerToPointer(null);
 
         if (!DBus._connectionSendWithReply(_connection, _message, _pending, timeout)) {
             throw new DBusException("Sending of D-Bus message failed.");
@@ -218,6 +700,107 @@ public class Connection implements AutoCloseable {
         return sendWithReply(message, DBus.TIMEOUT_USE_DEFAULT);
     }
 
+    /**
+     * Sends a message without waiting for its reply.
+     * <p>The message is only being queued; it will be written with the next {@link #flush()}, while the
+     * connection is being dispatched or once {@link PendingReply#get()} is invoked. Thus any number of calls can
+     * be issued back to back and will be in flight concurrently.</p>
+     * @param message
+     *         The method call to be sent.
+     * @param timeout
+     *         Timeout in milliseconds, or {@link DBus#TIMEOUT_USE_DEFAULT}.
+     * @param decoder
+     *         Decoder that turns the method return into the value of the returned future.
+     * @return
+     *         The pending reply.
+     */
+    public <T> PendingReply<T> sendWithReplyAsync(final Message message, final int timeout,
+                                                  final PendingReply.Decoder<T> decoder) {
+        final String busId = this.localBusId;
+        if (busId != null) {
+            final Connection callee = LocalBus.resolve(busId, message.getDestination());
+            if (callee != null) {
+                return LocalBus.call(this, callee, message, timeout, decoder);
+            }
+        }
+        final Pointer<Pointer<_PendingCall>> _pending = Pointer.<_PendingCall>pointerToPointer(null);
+        if (!DBus._connectionSendWithReply(this._peer, message._peer, _pending, timeout)) {
+            throw new DBusException("Sending of D-Bus message failed.");
+        }
+        final PendingReply<T> reply = new PendingReply<>(this, _pending.get(), decoder);
+        this.pendingReplies.add(reply);
+        reply.start();
+        return reply;
+    }
+
+    /**
+     * Sends a message without waiting for its reply (see {@link #sendWithReplyAsync(Message, int, PendingReply.Decoder)}).
+     * @param message
+     *         The method call to be sent.
+     * @return
+     *         The pending reply, which yields the undecoded method return.
+     */
+    public PendingReply<Message> sendWithReplyAsync(final Message message) {
+        return this.sendWithReplyAsync(message, DBus.TIMEOUT_USE_DEFAULT, IDENTITY);
+    }
+
+    @Internal
+    void replyCompleted(final PendingReply<?> reply) {
+        this.pendingReplies.remove(reply);
+    }
+
+    /**
+     * Sends a batch of messages and waits for all of their replies.
+     * <p>In contrast to invoking {@link #sendWithReply(Message, int)} for every single message, all messages
+     * are queued first and the connection is flushed only once. Thus the whole batch costs a single round trip
+     * instead of one round trip per message.</p>
+     * @param messages
+     *         The messages to be sent.
+     * @param timeout
+     *         Timeout in milliseconds (applies to every single message).
+     * @return
+     *         The replies, in the same order as the messages that have been passed in.
+     */
+    public List<Message> sendAllWithReply(final List<Message> messages, final int timeout) {
+
+        final Pointer<_Connection> _connection = this._peer;
+        final List<Pointer<_PendingCall>> _pendingCalls = new ArrayList<>(messages.size());
+
+        try {
+            for (final Message message: messages) {
+                final Pointer<Pointer<_PendingCall>> _pending = Pointer.<_PendingCall>pointerToPointer(null);
+                if (!DBus._connectionSendWithReply(_connection, message._peer, _pending, timeout)) {
+                    throw new DBusException("Sending of D-Bus message failed.");
+                }
+                // libdbus hands out no pending call at all if the connection has been disconnected.
+                final Pointer<_PendingCall> _call = _pending.get();
+                if (_call == null) {
+                    throw new DBusException("Sending of D-Bus message failed: Connection is disconnected.");
+                }
+                _pendingCalls.add(_call);
+            }
+            DBus._connectionFlush(_connection);
+
+            final List<Message> replies = new ArrayList<>(_pendingCalls.size());
+            for (final Pointer<_PendingCall> _call: _pendingCalls) {
+                DBus._pendingCallBlock(_call);
+                final Pointer<_Message> _reply = DBus._pendingCallStealReply(_call);
+                if (_reply == null) {
+                    throw new DBusException(DBus.ERROR_NO_REPLY, "Did not receive a reply.");
+                }
+                replies.add(new Message(_reply));
+            }
+            return replies;
+        } finally {
+            // Calls that are still outstanding (because the batch has been aborted) must not linger.
+            for (final Pointer<_PendingCall> _call: _pendingCalls) {
+                DBus._pendingCallCancel(_call);
+                DBus._pendingCallUnref(_call);
+            }
+        }
+
+    }
+
 
     @Override
     public String toString() {
@@ -232,6 +815,15 @@ public class Connection implements AutoCloseable {
 
     @Override
     public void close() {
+        this.setShortCircuit(false);
+        final MessageHandler tracker;
+        synchronized (this.names) {
+            tracker = this.nameTracker;
+            this.nameTracker = null;
+        }
+        if (tracker != null) {
+            this.removeFilter(tracker);
+        }
         if (this._peer != Pointer.NULL) {
             DBus._connectionClose(this._peer);
         }
@@ -260,7 +852,7 @@ public class Connection implements AutoCloseable {
         DO_NOT_QUEUE(DBus.NAME_FLAG_DO_NOT_QUEUE);
 
         private final int value;
-        private int value() { return this.value; }
+        int value() { return this.value; }
         private NameFlag(final int value) {
             this.value = value;
         }
@@ -299,7 +891,7 @@ public class Connection implements AutoCloseable {
                 INT_MAPPING.put(Integer.valueOf(rnr.value()), rnr);
             }
         }
-        private static final RequestNameReply valueOf(int value) {
+        static RequestNameReply valueOf(int value) {
             return INT_MAPPING.get(Integer.valueOf(value));
         }
 
@@ -338,7 +930,7 @@ public class Connection implements AutoCloseable {
                 INT_MAPPING.put(Integer.valueOf(rnr.value()), rnr);
             }
         }
-        private static final ReleaseNameReply valueOf(int value) {
+        static ReleaseNameReply valueOf(int value) {
             return INT_MAPPING.get(Integer.valueOf(value));
         }
 
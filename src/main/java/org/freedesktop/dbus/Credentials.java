@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Credentials of a bus connection as reported by {@code org.freedesktop.DBus.GetConnectionCredentials}.
+ * <p>Every single credential is optional; the bus daemon only reports what it knows (and what is supported on
+ * the current platform).</p>
+ * @author Benjamin P. Jung
+ */
+public final class Credentials {
+
+    private static final String UNIX_USER_ID = "UnixUserID";
+    private static final String UNIX_GROUP_IDS = "UnixGroupIDs";
+    private static final String PROCESS_ID = "ProcessID";
+    private static final String WINDOWS_SID = "WindowsSID";
+    private static final String LINUX_SECURITY_LABEL = "LinuxSecurityLabel";
+
+    private final Map<String, Object> values;
+
+    /**
+     * @param values
+     *         The credentials dictionary ({@code a{sv}}) returned by the bus daemon.
+     */
+    Credentials(final Map<String, Object> values) {
+        super();
+        this.values = Collections.unmodifiableMap(new LinkedHashMap<>(values));
+    }
+
+
+    /**
+     * Returns the numeric Unix user ID.
+     * @return
+     *         The user ID or {@code -1} if unknown.
+     */
+    public long getUnixUserId() {
+        return unsigned(this.values.get(UNIX_USER_ID));
+    }
+
+    /**
+     * Returns the numeric process ID.
+     * @return
+     *         The process ID or {@code -1} if unknown.
+     */
+    public long getProcessId() {
+        return unsigned(this.values.get(PROCESS_ID));
+    }
+
+    /**
+     * Returns the numeric Unix group IDs (including the primary group).
+     * @return
+     *         The group IDs, which is empty if unknown.
+     */
+    public List<Long> getUnixGroupIds() {
+        final Object groupIds = this.values.get(UNIX_GROUP_IDS);
+        if (!(groupIds instanceof List)) {
+            return Collections.emptyList();
+        }
+        final List<Long> result = new ArrayList<>(((List<?>) groupIds).size());
+        for (final Object groupId: (List<?>) groupIds) {
+            result.add(Long.valueOf(unsigned(groupId)));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Returns the Windows security identifier in its string form.
+     * @return
+     *         The security identifier or {@code null} if unknown.
+     */
+    public String getWindowsSid() {
+        final Object sid = this.values.get(WINDOWS_SID);
+        return sid instanceof String ? (String) sid : null;
+    }
+
+    /**
+     * Returns the security label as understood by the Linux security module (LSM) in use.
+     * @return
+     *         The security label (without trailing NUL byte) or {@code null} if unknown.
+     */
+    public byte[] getLinuxSecurityLabel() {
+        final Object label = this.values.get(LINUX_SECURITY_LABEL);
+        if (!(label instanceof List)) {
+            return null;
+        }
+        final List<?> bytes = (List<?>) label;
+        int length = bytes.size();
+        if (length > 0 && ((Byte) bytes.get(length - 1)).byteValue() == 0) {
+            length--;
+        }
+        final byte[] result = new byte[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = ((Byte) bytes.get(i)).byteValue();
+        }
+        return result;
+    }
+
+    /**
+     * Returns all credentials as reported by the bus daemon, including those unknown to this class.
+     * @return
+     *         Unmodifiable map of all credentials.
+     */
+    public Map<String, Object> asMap() {
+        return this.values;
+    }
+
+    @Internal
+    private static long unsigned(final Object value) {
+        return value instanceof Integer ? ((Integer) value).intValue() & 0xffffffffL : -1L;
+    }
+
+    @Override
+    public String toString() {
+        return "Credentials " + this.values;
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Cache for the credentials of peer connections, keyed by their unique names.
+ * <p>A unique name is never reused during the lifetime of a bus, so the credentials of a connection cannot
+ * change as long as its unique name exists. Credentials are fetched asynchronously via
+ * {@code GetConnectionCredentials} and kept until the {@link NameOwnerCache} reports that the unique name has
+ * vanished from the bus.</p>
+ * <p>Services that authorize incoming calls should {@link #prefetch(String) prefetch} the credentials of the
+ * sender as soon as a call arrives; authorization checks of all following calls of the same peer then cost a
+ * hash lookup instead of a round trip to the bus daemon.</p>
+ * @author Benjamin P. Jung
+ */
+public class CredentialsCache implements NameOwnerCache.Listener, AutoCloseable {
+
+    private final BusDriver driver;
+    private final NameOwnerCache nameOwners;
+
+    private final ConcurrentMap<String, Credentials> credentials = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, PendingReply<Credentials>> pending = new ConcurrentHashMap<>();
+
+
+    /**
+     * Creates a new cache.
+     * @param driver
+     *         Client for the bus daemon.
+     * @param nameOwners
+     *         Name-owner cache of the same connection, used to evict credentials of vanished connections.
+     */
+    public CredentialsCache(final BusDriver driver, final NameOwnerCache nameOwners) {
+        super();
+        this.driver = driver;
+        this.nameOwners = nameOwners;
+        this.nameOwners.addListener(this);
+    }
+
+
+    /**
+     * Returns the cached credentials of the given connection without blocking. If the credentials are not
+     * cached yet, they will be fetched in the background.
+     * @param uniqueName
+     *         Unique name of the connection, e.g. the sender of an incoming method call.
+     * @return
+     *         The credentials or {@code null} if they are not available yet.
+     */
+    public Credentials get(final String uniqueName) {
+        final Credentials cached = this.credentials.get(uniqueName);
+        if (cached == null) {
+            this.prefetch(uniqueName);
+        }
+        return cached;
+    }
+
+    /**
+     * Returns the credentials of the given connection, waiting for them to be fetched if necessary.
+     * @param uniqueName
+     *         Unique name of the connection, e.g. the sender of an incoming method call.
+     * @return
+     *         The credentials.
+     * @throws DBusException
+     *         If the credentials could not be retrieved, e.g. because the connection has already vanished.
+     */
+    public Credentials await(final String uniqueName) {
+        try {
+            while (true) {
+                final Credentials cached = this.credentials.get(uniqueName);
+                if (cached != null) {
+                    return cached;
+                }
+                final PendingReply<Credentials> reply = this.prefetch(uniqueName);
+                if (reply != null) {
+                    return reply.get();
+                }
+                // The credentials have been stored in the meantime.
+            }
+        } catch (final ExecutionException e) {
+            throw e.getCause() instanceof DBusException
+                    ? (DBusException) e.getCause()
+                    : new DBusException("Fetching of credentials failed.", e.getCause());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DBusException("Interrupted while fetching credentials.", e);
+        }
+    }
+
+    /**
+     * Starts fetching the credentials of the given connection unless they are cached or being fetched already.
+     * @param uniqueName
+     *         Unique name of the connection.
+     * @return
+     *         The pending reply of the fetch that is in flight or {@code null} if the credentials are cached.
+     */
+    public PendingReply<Credentials> prefetch(final String uniqueName) {
+        if (!uniqueName.startsWith(":")) {
+            throw new IllegalArgumentException("Not a unique name: " + uniqueName);
+        }
+        if (this.credentials.containsKey(uniqueName)) {
+            return null;
+        }
+        synchronized (this.pending) {
+            final PendingReply<Credentials> inFlight = this.pending.get(uniqueName);
+            if (inFlight != null) {
+                return inFlight;
+            }
+            final PendingReply<Credentials> reply = this.driver.getConnectionCredentials(uniqueName);
+            this.pending.put(uniqueName, reply);
+            reply.addListener(new PendingReply.Listener<Credentials>() {
+                @Override
+                public void completed(final PendingReply<Credentials> reply) {
+                    fetched(uniqueName, reply);
+                }
+            });
+            return reply;
+        }
+    }
+
+    /**
+     * Drops the credentials of the given connection.
+     * @param uniqueName
+     *         Unique name of the connection.
+     */
+    public void evict(final String uniqueName) {
+        this.pending.remove(uniqueName);
+        this.credentials.remove(uniqueName);
+    }
+
+    /**
+     * Returns the number of cached credentials.
+     * @return
+     *         The number of cached credentials.
+     */
+    public int size() {
+        return this.credentials.size();
+    }
+
+    @Override
+    public void ownerChanged(final String name, final String oldOwner, final String newOwner) {
+        if (newOwner == null && name.startsWith(":")) {
+            this.evict(name);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.nameOwners.removeListener(this);
+        this.pending.clear();
+        this.credentials.clear();
+    }
+
+
+    /**
+     * Stores the fetched credentials, unless the connection has vanished while they were in flight.
+     */
+    @Internal
+    private void fetched(final String uniqueName, final PendingReply<Credentials> reply) {
+        if (!this.pending.remove(uniqueName, reply)) {
+            return;
+        }
+        try {
+            this.credentials.put(uniqueName, reply.get());
+        } catch (final InterruptedException | ExecutionException e) {
+            // Not cached; the next lookup will try again.
+        }
+    }
+
+}
@@ -127,6 +127,110 @@ public class DBus {
     @Name("DBUS_INTERFACE_LOCAL")
     public static final String INTERFACE_LOCAL = "org.freedesktop.DBus.Local";
 
+    /**
+     * <pre>[dbus/dbus-protocol.h]
+     * #define DBUS_ERROR_FAILED "org.freedesktop.DBus.Error.Failed"</pre>
+     * A generic error; "something went wrong" - see the error message for more.
+     */
+    @Name("DBUS_ERROR_FAILED")
+    public static final String ERROR_FAILED = "org.freedesktop.DBus.Error.Failed";
+
+    /**
+     * <pre>[dbus/dbus-protocol.h]
+     * #define DBUS_ERROR_NO_MEMORY "org.freedesktop.DBus.Error.NoMemory"</pre>
+     * There was not enough memory to complete an operation.
+     */
+    @Name("DBUS_ERROR_NO_MEMORY")
+    public static final String ERROR_NO_MEMORY = "org.freedesktop.DBus.Error.NoMemory";
+
+    /**
+     * <pre>[dbus/dbus-protocol.h]
+     * #define DBUS_ERROR_SERVICE_UNKNOWN "org.freedesktop.DBus.Error.ServiceUnknown"</pre>
+     * The bus doesn't know how to launch a service to supply the bus name you wanted.
+     */
+    @Name("DBUS_ERROR_SERVICE_UNKNOWN")
+    public static final String ERROR_SERVICE_UNKNOWN = "org.freedesktop.DBus.Error.ServiceUnknown";
+
+    /**
+     * <pre>[dbus/dbus-protocol.h]
+     * #define DBUS_ERROR_NAME_HAS_NO_OWNER "org.freedesktop.DBus.Error.NameHasNoOwner"</pre>
+     * The bus name you referenced doesn't exist (i.e. no application owns it).
+     */
+    @Name("DBUS_ERROR_NAME_HAS_NO_OWNER")
+    public static final String ERROR_NAME_HAS_NO_OWNER = "org.freedesktop.DBus.Error.NameHasNoOwner";
+
+    /**
+     * <pre>[dbus/dbus-protocol.h]
+     * #define DBUS_ERROR_NO_REPLY "org.freedesktop.DBus.Error.NoReply"</pre>
+     * No reply to a message expecting one, usually means a timeout occurred.
+     */
+    @Name("DBUS_ERROR_NO_REPLY")
+    public static final String ERROR_NO_REPLY = "org.freedesktop.DBus.Error.NoReply";
+
+    /**
+     * <pre>[dbus/dbus-protocol.h]
+     * #define DBUS_ERROR_LIMITS_EXCEEDED "org.freedesktop.DBus.Error.LimitsExceeded"</pre>
+     * Some limited resource is exhausted.
+     */
+    @Name("DBUS_ERROR_LIMITS_EXCEEDED")
+    public static final String ERROR_LIMITS_EXCEEDED = "org.freedesktop.DBus.Error.LimitsExceeded";
+
+    /**
+     * <pre>[dbus/dbus-protocol.h]
+     * #define DBUS_ERROR_ACCESS_DENIED "org.freedesktop.DBus.Error.AccessDenied"</pre>
+     * Security restrictions don't allow doing what you're trying to do.
+     */
+    @Name("DBUS_ERROR_ACCESS_DENIED")
+    public static final String ERROR_ACCESS_DENIED = "org.freedesktop.DBus.Error.AccessDenied";
+
+    /**
+     * <pre>[dbus/dbus-protocol.h]
+     * #define DBUS_ERROR_INVALID_ARGS "org.freedesktop.DBus.Error.InvalidArgs"</pre>
+     * Invalid arguments passed to a method call.
+     */
+    @Name("DBUS_ERROR_INVALID_ARGS")
+    public static final String ERROR_INVALID_ARGS = "org.freedesktop.DBus.Error.InvalidArgs";
+
+    /**
+     * <pre>[dbus/dbus-protocol.h]
+     * #define DBUS_ERROR_UNKNOWN_METHOD "org.freedesktop.DBus.Error.UnknownMethod"</pre>
+     * Method name you invoked isn't known by the object you invoked it on.
+     */
+    @Name("DBUS_ERROR_UNKNOWN_METHOD")
+    public static final String ERROR_UNKNOWN_METHOD = "org.freedesktop.DBus.Error.UnknownMethod";
+
+    /**
+     * <pre>[dbus/dbus-protocol.h]
+     * #define DBUS_ERROR_UNKNOWN_OBJECT "org.freedesktop.DBus.Error.UnknownObject"</pre>
+     * Object you invoked a method on isn't known.
+     */
+    @Name("DBUS_ERROR_UNKNOWN_OBJECT")
+    public static final String ERROR_UNKNOWN_OBJECT = "org.freedesktop.DBus.Error.UnknownObject";
+
+    /**
+     * <pre>[dbus/dbus-protocol.h]
+     * #define DBUS_ERROR_UNKNOWN_INTERFACE "org.freedesktop.DBus.Error.UnknownInterface"</pre>
+     * Interface you invoked a method on isn't known by the object.
+     */
+    @Name("DBUS_ERROR_UNKNOWN_INTERFACE")
+    public static final String ERROR_UNKNOWN_INTERFACE = "org.freedesktop.DBus.Error.UnknownInterface";
+
+    /**
+     * <pre>[dbus/dbus-protocol.h]
+     * #define DBUS_ERROR_UNKNOWN_PROPERTY "org.freedesktop.DBus.Error.UnknownProperty"</pre>
+     * Property you tried to access isn't known by the object.
+     */
+    @Name("DBUS_ERROR_UNKNOWN_PROPERTY")
+    public static final String ERROR_UNKNOWN_PROPERTY = "org.freedesktop.DBus.Error.UnknownProperty";
+
+    /**
+     * <pre>[dbus/dbus-protocol.h]
+     * #define DBUS_ERROR_PROPERTY_READ_ONLY "org.freedesktop.DBus.Error.PropertyReadOnly"</pre>
+     * Property you tried to set is read-only.
+     */
+    @Name("DBUS_ERROR_PROPERTY_READ_ONLY")
+    public static final String ERROR_PROPERTY_READ_ONLY = "org.freedesktop.DBus.Error.PropertyReadOnly";
+
     /**
      * <pre>[dbus/dbus-shared.h]
      * #define DBUS_NAME_FLAG_ALLOW_REPLACEMENT 0x1</pre>
@@ -481,6 +585,38 @@ public class DBus {
     @Name("DBUS_TYPE_UNIX_FD_AS_STRING")
     public static final String TYPE_UNIX_FD_AS_STRING = "h";
 
+    /**
+     * Type code marking an array
+     * <pre>[dbus/dbus-types-h]
+     * #define DBUS_TYPE_ARRAY   ((int) 'a')</pre>
+     */
+    @Name("DBUS_TYPE_ARRAY")
+    public static final int TYPE_ARRAY = ((int) 'a');
+
+    /**
+     * Type code marking a variant
+     * <pre>[dbus/dbus-types-h]
+     * #define DBUS_TYPE_VARIANT ((int) 'v')</pre>
+     */
+    @Name("DBUS_TYPE_VARIANT")
+    public static final int TYPE_VARIANT = ((int) 'v');
+
+    /**
+     * Type code marking a struct
+     * <pre>[dbus/dbus-types-h]
+     * #define DBUS_TYPE_STRUCT  ((int) 'r')</pre>
+     */
+    @Name("DBUS_TYPE_STRUCT")
+    public static final int TYPE_STRUCT = ((int) 'r');
+
+    /**
+     * Type code marking a dict entry
+     * <pre>[dbus/dbus-types-h]
+     * #define DBUS_TYPE_DICT_ENTRY ((int) 'e')</pre>
+     */
+    @Name("DBUS_TYPE_DICT_ENTRY")
+    public static final int TYPE_DICT_ENTRY = ((int) 'e');
+
 
     // =================================================================================================================
     // ---- Functions that need to be wrapped to make up for a nice Java API -------------------------------------------
@@ -915,6 +1051,69 @@ public class DBus {
                                                                    Pointer<?> data,
                                                                    _FreeFunction freeDataFunction);
 
+    /**
+     * <pre>[dbus/dbus-connection.h]
+     * dbus_bool_t        dbus_connection_add_filter                   (DBusConnection             *connection,
+     *                                                                  DBusHandleMessageFunction   function,
+     *                                                                  void                       *user_data,
+     *                                                                  DBusFreeFunction            free_data_function);</pre>
+     */
+    @Name("dbus_connection_add_filter")
+    protected static native boolean _connectionAddFilter(Pointer<_Connection> connection,
+                                                         _HandleMessageFunction function,
+                                                         Pointer<?> userData,
+                                                         _FreeFunction freeDataFunction);
+
+    /**
+     * <pre>[dbus/dbus-connection.h]
+     * void               dbus_connection_remove_filter                (DBusConnection             *connection,
+     *                                                                  DBusHandleMessageFunction   function,
+     *                                                                  void                       *user_data);</pre>
+     */
+    @Name("dbus_connection_remove_filter")
+    protected static native void _connectionRemoveFilter(Pointer<_Connection> connection,
+                                                         _HandleMessageFunction function,
+                                                         Pointer<?> userData);
+
+    /**
+     * <pre>[dbus/dbus-connection.h]
+     * dbus_bool_t        dbus_connection_try_register_object_path     (DBusConnection             *connection,
+     *                                                                  const char                 *path,
+     *                                                                  const DBusObjectPathVTable *vtable,
+     *                                                                  void                       *user_data,
+     *                                                                  DBusError                  *error);</pre>
+     */
+    @Name("dbus_connection_try_register_object_path")
+    protected static native boolean _connectionTryRegisterObjectPath(Pointer<_Connection> connection,
+                                                                     Pointer<Byte> path,
+                                                                     Pointer<_ObjectPathVTable> vtable,
+                                                                     Pointer<?> userData,
+                                                                     Pointer<_Error> error);
+
+    /**
+     * <pre>[dbus/dbus-connection.h]
+     * dbus_bool_t        dbus_connection_try_register_fallback        (DBusConnection             *connection,
+     *                                                                  const char                 *path,
+     *                                                                  const DBusObjectPathVTable *vtable,
+     *                                                                  void                       *user_data,
+     *                                                                  DBusError                  *error);</pre>
+     */
+    @Name("dbus_connection_try_register_fallback")
+    protected static native boolean _connectionTryRegisterFallback(Pointer<_Connection> connection,
+                                                                   Pointer<Byte> path,
+                                                                   Pointer<_ObjectPathVTable> vtable,
+                                                                   Pointer<?> userData,
+                                                                   Pointer<_Error> error);
+
+    /**
+     * <pre>[dbus/dbus-connection.h]
+     * dbus_bool_t        dbus_connection_unregister_object_path       (DBusConnection             *connection,
+     *                                                                  const char                 *path);</pre>
+     */
+    @Name("dbus_connection_unregister_object_path")
+    protected static native boolean _connectionUnregisterObjectPath(Pointer<_Connection> connection,
+                                                                    Pointer<Byte> path);
+
     // ---- dbus/dbus-error.h ------------------------------------------------------------------------------------------
 
     /**
@@ -1567,6 +1766,37 @@ public class DBus {
                                                                  Pointer<?> value,
                                                                  int nElements);
 
+    /**
+     * <pre>[dbus/dbus-message.h]
+     * dbus_bool_t dbus_message_iter_open_container   (DBusMessageIter *iter,
+     *                                                 int              type,
+     *                                                 const char      *contained_signature,
+     *                                                 DBusMessageIter *sub);</pre>
+     */
+    @Name("dbus_message_iter_open_container")
+    protected static native boolean _messageIterOpenContainer(Pointer<_MessageIter> iter,
+                                                              int type,
+                                                              Pointer<Byte> containedSignature,
+                                                              Pointer<_MessageIter> sub);
+
+    /**
+     * <pre>[dbus/dbus-message.h]
+     * dbus_bool_t dbus_message_iter_close_container  (DBusMessageIter *iter,
+     *                                                 DBusMessageIter *sub);</pre>
+     */
+    @Name("dbus_message_iter_close_container")
+    protected static native boolean _messageIterCloseContainer(Pointer<_MessageIter> iter,
+                                                               Pointer<_MessageIter> sub);
+
+    /**
+     * <pre>[dbus/dbus-message.h]
+     * void        dbus_message_iter_abandon_container (DBusMessageIter *iter,
+     *                                                  DBusMessageIter *sub);</pre>
+     */
+    @Name("dbus_message_iter_abandon_container")
+    protected static native void _messageIterAbandonContainer(Pointer<_MessageIter> iter,
+                                                              Pointer<_MessageIter> sub);
+
     // ---- dbus/dbus-misc.h -------------------------------------------------------------------------------------------
 
     /**
@@ -1632,15 +1862,14 @@ public class DBus {
      * void         dbus_pending_call_cancel        (DBusPendingCall               *pending);</pre>
      */
     @Name("dbus_pending_call_cancel")
-    protected static native void _pendingCallCancel(_PendingCall pending);
+    protected static native void _pendingCallCancel(Pointer<_PendingCall> pending);
 
     /**
      * <pre>[dbus/dbus-pending-call.h]
      * dbus_bool_t  dbus_pending_call_get_completed (DBusPendingCall               *pending);</pre>
-     * @return
      */
     @Name("dbus_pending_call_get_completed")
-    protected static native void _pendingCallGetCompleted(Pointer<_PendingCall> pending);
+    protected static native boolean _pendingCallGetCompleted(Pointer<_PendingCall> pending);
 
     /**
      * <pre>[dbus/dbus-pending-call.h]
@@ -2074,9 +2303,9 @@ public class DBus {
      */
     @Name("DBusObjectPathMessageFunction")
     public static abstract class _ObjectPathMessageFunction extends Callback<_ObjectPathMessageFunction> {
-        public abstract Pointer<HandlerResult> run(Pointer<_Connection> connection,
-                                                   Pointer<_Message> message,
-                                                   Pointer<?> userData);
+        public abstract HandlerResult run(Pointer<_Connection> connection,
+                                          Pointer<_Message> message,
+                                          Pointer<?> userData);
     }
 
 
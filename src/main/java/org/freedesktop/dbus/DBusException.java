@@ -23,20 +23,58 @@ import org.freedesktop.dbus.DBus._Error;
  */
 public class DBusException extends RuntimeException {
 
+    private final String errorName;
+
     DBusException(final Error error) {
         super(String.format("%s: %s", error.getName(), error.getMessage()));
+        this.errorName = error.getName();
     }
 
     DBusException(final _Error _error) {
         super(String.format("%s: %s", _error._name().getCString(), _error._message().getCString()));
+        this.errorName = _error._name().getCString();
+    }
+
+    /**
+     * Creates an exception from an error reply.
+     * @param errorReply
+     *         Message of type {@link Message.Type#ERROR}.
+     */
+    DBusException(final Message errorReply) {
+        super(String.format("%s: %s", errorReply.getErrorName(), errorReply.getStringArgument(0)));
+        this.errorName = errorReply.getErrorName();
+    }
+
+    /**
+     * Creates an exception that is replied as a D-Bus error of the given name, e.g. by an
+     * {@link AnnotatedHandler}.
+     * @param errorName
+     *         The D-Bus name of the error, e.g. {@code org.freedesktop.DBus.Error.InvalidArgs}.
+     * @param message
+     *         Human readable description of the error.
+     */
+    public DBusException(final String errorName, final String message) {
+        super(message);
+        this.errorName = errorName;
     }
 
     DBusException(final String message) {
         super(message);
+        this.errorName = null;
     }
 
     DBusException(final String message, Throwable cause) {
         super(message, cause);
+        this.errorName = null;
+    }
+
+    /**
+     * Returns the D-Bus name of the error, e.g. {@code org.freedesktop.DBus.Error.NameHasNoOwner}.
+     * @return
+     *         The error name or {@code null} if the exception has not been caused by a D-Bus error.
+     */
+    public String getErrorName() {
+        return this.errorName;
     }
 
 }
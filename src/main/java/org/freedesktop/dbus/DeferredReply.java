@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.bridj.Pointer.pointerToCString;
+
+/**
+ * Token for replying to a method call after the handler has returned.
+ * <p>An {@link AnnotatedHandler} passes a token to every {@link org.freedesktop.dbus.annotation.DBusMethod}
+ * that declares a parameter of this type; such a method may return right away and complete the token later from
+ * any thread, e.g. once a call to another service has returned. No thread is held while the reply is deferred.
+ * The reply is correlated with the call (reply serial and destination) automatically and is sent and flushed as
+ * soon as the token is completed. Only the first completion counts; calls that do not expect a reply are
+ * completed without sending anything.</p>
+ * <p>A token can be completed with the reply of a downstream call (a {@link Message}), whose arguments are then
+ * forwarded as they are. Any other result is encoded according to the output signature of the method, which
+ * must thus be declared (see {@link org.freedesktop.dbus.annotation.DBusMethod#out()}).</p>
+ * @author Benjamin P. Jung
+ */
+public final class DeferredReply {
+
+    private final Connection connection;
+    private final Message call;
+    private final String[] outTypes;
+    private final AtomicBoolean done = new AtomicBoolean();
+
+    @Internal
+    DeferredReply(final Connection connection, final Message call, final String[] outTypes) {
+        super();
+        this.connection = connection;
+        this.call = call;
+        this.outTypes = outTypes;
+    }
+
+
+    /**
+     * Returns the method call this token replies to.
+     * @return
+     *         The method call.
+     */
+    public Message getCall() {
+        return this.call;
+    }
+
+    /**
+     * Returns whether the call has been replied already.
+     * @return
+     *         {@code true} once the token has been completed.
+     */
+    public boolean isDone() {
+        return this.done.get();
+    }
+
+    /**
+     * Replies the result of the method call.
+     * @param result
+     *         The single output argument, an {@code Object[]} holding all output arguments if the method has
+     *         more than one, {@code null} if it has none, or a method return whose arguments are forwarded.
+     * @return
+     *         {@code false} if the token had been completed already.
+     * @throws IllegalArgumentException
+     *         If the result does not fit the output signature of the method, e.g. because the method does not
+     *         declare any output arguments. The token is not completed in this case.
+     */
+    public boolean complete(final Object result) {
+        this.check(result);
+        if (!this.done.compareAndSet(false, true)) {
+            return false;
+        }
+        if (this.call.isNoReply()) {
+            return true;
+        }
+        final Message reply;
+        try {
+            reply = this.encode(result);
+        } catch (final RuntimeException e) {
+            this.send(Message.newError(this.call, DBus.ERROR_FAILED, "Unable to encode reply: " + e));
+            return true;
+        }
+        this.send(reply);
+        return true;
+    }
+
+    /**
+     * Replies an error.
+     * @param errorName
+     *         The D-Bus name of the error.
+     * @param errorMessage
+     *         Human readable description of the error.
+     * @return
+     *         {@code false} if the token had been completed already.
+     */
+    public boolean fail(final String errorName, final String errorMessage) {
+        if (!this.done.compareAndSet(false, true)) {
+            return false;
+        }
+        if (!this.call.isNoReply()) {
+            this.send(Message.newError(this.call, errorName, errorMessage));
+        }
+        return true;
+    }
+
+    /**
+     * Replies an exception as error: a {@link DBusException} with an error name (e.g. the error reply of a
+     * downstream call) as error of that name, everything else as {@code org.freedesktop.DBus.Error.Failed}.
+     * @param cause
+     *         The exception; {@link ExecutionException}s are unwrapped.
+     * @return
+     *         {@code false} if the token had been completed already.
+     */
+    public boolean fail(final Throwable cause) {
+        Throwable t = cause;
+        while (t instanceof ExecutionException && t.getCause() != null) {
+            t = t.getCause();
+        }
+        if (t instanceof DBusException && ((DBusException) t).getErrorName() != null) {
+            return this.fail(((DBusException) t).getErrorName(), t.getMessage());
+        }
+        return this.fail(DBus.ERROR_FAILED, String.valueOf(t));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DeferredReply (%s %s)", this.call.getMember(), this.done.get() ? "done" : "pending");
+    }
+
+
+    @Internal
+    private void check(final Object result) {
+        if (result instanceof Message) {
+            final Message downstream = (Message) result;
+            if (downstream.getType() != Message.Type.METHOD_RETURN) {
+                throw new IllegalArgumentException("Not a method return: " + downstream.getType());
+            }
+            if (this.outTypes.length > 0 && !downstream.getSignature().equals(this.outSignature())) {
+                throw new IllegalArgumentException("Signature " + downstream.getSignature()
+                        + " of the forwarded reply does not match " + this.outSignature());
+            }
+        } else if (result != null && this.outTypes.length == 0) {
+            throw new IllegalArgumentException("Method " + this.call.getMember()
+                    + " declares no output arguments, unable to reply " + result.getClass().getName());
+        }
+    }
+
+    @Internal
+    private String outSignature() {
+        final StringBuilder signature = new StringBuilder();
+        for (final String type: this.outTypes) {
+            signature.append(type);
+        }
+        return signature.toString();
+    }
+
+    @Internal
+    private Message encode(final Object result) {
+        if (result instanceof Message) {
+            return this.forward((Message) result);
+        }
+        final Message reply = Message.newMethodReturn(this.call);
+        if (this.outTypes.length == 1) {
+            reply.addArgument(this.outTypes[0], result);
+        } else if (this.outTypes.length > 1) {
+            final Object[] results = (Object[]) result;
+            for (int i = 0; i < this.outTypes.length; i++) {
+                reply.addArgument(this.outTypes[i], results[i]);
+            }
+        }
+        return reply;
+    }
+
+    /**
+     * Turns a copy of a downstream reply into the reply to the call, so its arguments are forwarded without
+     * being decoded and encoded again.
+     */
+    @Internal
+    private Message forward(final Message downstream) {
+        final Message reply = new Message(DBus._messageCopy(downstream._peer));
+        final String caller = this.call.getSender();
+        if (!DBus._messageSetReplySerial(reply._peer, this.call.getSerial())
+                || !DBus._messageSetDestination(reply._peer, caller == null ? null : pointerToCString(caller))
+                || !DBus._messageSetSender(reply._peer, null)) {
+            throw new DBusException("Forwarding of reply failed.");
+        }
+        return reply;
+    }
+
+    @Internal
+    private void send(final Message reply) {
+        this.connection.send(reply);
+        this.connection.flush();
+    }
+
+}
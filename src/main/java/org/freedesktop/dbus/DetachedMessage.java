@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import org.bridj.Pointer;
+import org.freedesktop.dbus.DBus._Message;
+
+import java.util.List;
+
+/**
+ * Immutable on-heap snapshot of a {@link Message}, created by {@link Message#detach()} or received by a
+ * {@link DetachedMessageHandler}.
+ * <p>Holds the header fields and the decoded arguments (see {@link Message#getArguments()}) but no native memory,
+ * so it may be kept, queued and shared among threads at no cost beyond its heap footprint.</p>
+ * @author Benjamin P. Jung
+ */
+public final class DetachedMessage {
+
+    private final Message.Type type;
+    private final long serial;
+    private final long replySerial;
+    private final String sender;
+    private final String destination;
+    private final String path;
+    private final String _interface;
+    private final String member;
+    private final String errorName;
+    private final String signature;
+    private final boolean noReply;
+    private final List<Object> arguments;
+
+    /**
+     * Copies all headers and arguments of a native message in a single pass over the message.
+     * @param _message
+     *         The native message, which is neither referenced nor released.
+     */
+    @Internal
+    DetachedMessage(final Pointer<_Message> _message) {
+        this(_message, Message._arguments(_message));
+    }
+
+    /**
+     * Copies all headers of a native message.
+     * @param arguments
+     *         The already decoded arguments of the message.
+     */
+    @Internal
+    DetachedMessage(final Pointer<_Message> _message, final List<Object> arguments) {
+        super();
+        this.type = Message.Type.fromValue(DBus._messageGetType(_message));
+        this.serial = DBus._messageGetSerial(_message);
+        this.replySerial = DBus._messageGetReplySerial(_message);
+        this.sender = string(DBus._messageGetSender(_message));
+        this.destination = string(DBus._messageGetDestination(_message));
+        this.path = string(DBus._messageGetPath(_message));
+        this._interface = string(DBus._messageGetInterface(_message));
+        this.member = string(DBus._messageGetMember(_message));
+        this.errorName = string(DBus._messageGetErrorName(_message));
+        this.signature = string(DBus._messageGetSignature(_message));
+        this.noReply = DBus._messageGetNoReply(_message);
+        this.arguments = arguments;
+    }
+
+
+    public Message.Type getType() {
+        return this.type;
+    }
+
+    public boolean isError() {
+        return this.type == Message.Type.ERROR;
+    }
+
+    public long getSerial() {
+        return this.serial;
+    }
+
+    public long getReplySerial() {
+        return this.replySerial;
+    }
+
+    public String getSender() {
+        return this.sender;
+    }
+
+    public String getDestination() {
+        return this.destination;
+    }
+
+    public String getPath() {
+        return this.path;
+    }
+
+    public String getInterface() {
+        return this._interface;
+    }
+
+    public String getMember() {
+        return this.member;
+    }
+
+    public String getErrorName() {
+        return this.errorName;
+    }
+
+    public String getSignature() {
+        return this.signature;
+    }
+
+    public boolean isNoReply() {
+        return this.noReply;
+    }
+
+    /**
+     * Returns the decoded arguments.
+     * @return
+     *         Deeply immutable list of the arguments.
+     */
+    public List<Object> getArguments() {
+        return this.arguments;
+    }
+
+    /**
+     * Returns a single decoded argument.
+     * @param index
+     *         Zero-based index of the argument.
+     * @return
+     *         The argument or {@code null} if the message has no argument at the given position.
+     */
+    public Object getArgument(final int index) {
+        return index < this.arguments.size() ? this.arguments.get(index) : null;
+    }
+
+    /**
+     * Returns a string-like argument (string, object path or signature).
+     * @param index
+     *         Zero-based index of the argument.
+     * @return
+     *         The argument or {@code null} if the message has no string-like argument at the given position.
+     */
+    public String getStringArgument(final int index) {
+        final Object value = this.getArgument(index);
+        return value instanceof String ? (String) value : null;
+    }
+
+    @Internal
+    private static String string(final Pointer<Byte> _string) {
+        return _string == Pointer.NULL ? null : _string.getCString();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DetachedMessage (%s %s %s.%s %s)", this.type, this.path, this._interface, this.member, this.arguments);
+    }
+
+}
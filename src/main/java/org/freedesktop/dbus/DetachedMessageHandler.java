@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+/**
+ * Message filter that receives incoming messages as immutable on-heap snapshots
+ * (see {@link Connection#addDetachedFilter(DetachedMessageHandler)}).
+ * <p>The snapshot is copied straight from the native message the connection is dispatching, without taking a
+ * reference to it: the native message is released by libdbus as soon as it has been dispatched, no matter how
+ * long the snapshot is being kept. Meant for consumers that queue or cache messages.</p>
+ * @author Benjamin P. Jung
+ */
+public interface DetachedMessageHandler {
+
+    /**
+     * Handles an incoming message.
+     * @param connection
+     *         Connection the message has been received on.
+     * @param message
+     *         Snapshot of the message to be handled.
+     * @return
+     *         {@link HandlerResult#HANDLED} if no further handlers shall be invoked,
+     *         {@link HandlerResult#NOT_YET_HANDLED} otherwise.
+     */
+    HandlerResult handleMessage(Connection connection, DetachedMessage message);
+
+}
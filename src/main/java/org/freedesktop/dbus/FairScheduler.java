@@ -0,0 +1,503 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Worker pool that serves incoming method calls fairly across their senders.
+ * <p>Calls are queued per sender (the unique name of the calling connection) and the queues are served by
+ * deficit round-robin: every sender with pending calls gets a turn of as many calls as its weight (default
+ * {@code 1}) before the next sender is served. A client that floods the service with calls thus only delays its
+ * own calls, not those of everybody else.</p>
+ * <p>Pass the scheduler as executor to an {@link AnnotatedHandler}, which queues every call under its sender.
+ * Tasks submitted by {@link #execute(Runnable)} share a single anonymous queue.</p>
+ * <p>When the service is saturated, calls are shed rather than queued until their callers time out:</p>
+ * <ul>
+ *     <li>Calls are refused right away if the total number of queued calls or the number of queued calls of
+ *     their sender has reached its limit (see {@link #setMaxQueueDepth(int)} and
+ *     {@link #setMaxSenderQueueDepth(int)}).</li>
+ *     <li>With a latency target (see {@link #setLatencyTarget(long, long)}) the time calls spend in the queue is
+ *     tracked CoDel-style: once even the shortest wait within an interval has exceeded the target, the queue
+ *     is considered standing, and {@link Sheddable} calls that have waited longer than the target are shed
+ *     when they are dequeued instead of being executed. The state is left as soon as a call is dequeued
+ *     within the target.</li>
+ * </ul>
+ * <p>Shed calls are meant to be answered with a pre-built error such as
+ * {@code org.freedesktop.DBus.Error.LimitsExceeded}, which is much cheaper than executing them.</p>
+ * @author Benjamin P. Jung
+ */
+public class FairScheduler implements Executor, AutoCloseable {
+
+    private static final String ANONYMOUS = "";
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = this.lock.newCondition();
+    // Guarded by this.lock.
+    private final Map<String, SenderQueue> queues = new HashMap<>();
+    private final ArrayDeque<SenderQueue> active = new ArrayDeque<>();
+    private int size;
+    private boolean closed;
+
+    // Load shedding; the CoDel state is guarded by this.lock as well.
+    private volatile int maxQueueDepth = Integer.MAX_VALUE;
+    private volatile int maxSenderQueueDepth = Integer.MAX_VALUE;
+    private long target;
+    private long interval;
+    private long intervalEnd;
+    private long minSojourn = Long.MAX_VALUE;
+    private boolean standing;
+    private final AtomicInteger shed = new AtomicInteger();
+
+    private final ConcurrentMap<String, Integer> weights = new ConcurrentHashMap<>();
+    private final List<Thread> workers;
+
+
+    /**
+     * Creates a new scheduler with daemon worker threads.
+     * @param threads
+     *         Number of worker threads.
+     */
+    public FairScheduler(final int threads) {
+        this(threads, new ThreadFactory() {
+            private final int pool = POOL_NUMBER.incrementAndGet();
+            private final AtomicInteger number = new AtomicInteger();
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "D-Bus worker " + this.pool + "-" + this.number.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Creates a new scheduler.
+     * @param threads
+     *         Number of worker threads.
+     * @param threadFactory
+     *         Factory for the worker threads.
+     */
+    public FairScheduler(final int threads, final ThreadFactory threadFactory) {
+        super();
+        if (threads <= 0) {
+            throw new IllegalArgumentException("At least one worker thread is required.");
+        }
+        this.workers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            final Thread worker = threadFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            });
+            this.workers.add(worker);
+            worker.start();
+        }
+    }
+
+
+    /**
+     * Queues a task in the anonymous queue.
+     */
+    @Override
+    public void execute(final Runnable task) {
+        this.execute(ANONYMOUS, task);
+    }
+
+    /**
+     * Queues a task on behalf of a sender.
+     * @param sender
+     *         Unique name of the sender; {@code null} for the anonymous queue.
+     * @param task
+     *         The task.
+     * @throws RejectedExecutionException
+     *         If the scheduler has been closed or a queue limit has been reached.
+     */
+    public void execute(final String sender, final Runnable task) {
+        if (!this.offer(sender, task)) {
+            throw new RejectedExecutionException(this.closed ? "Scheduler has been closed." : "Queue limit reached.");
+        }
+    }
+
+    /**
+     * Queues a task on behalf of a sender unless the scheduler is closed or a queue limit has been reached.
+     * Unlike {@link #execute(String, Runnable)} a refusal costs no exception.
+     * @param sender
+     *         Unique name of the sender; {@code null} for the anonymous queue.
+     * @param task
+     *         The task.
+     * @return
+     *         {@code false} if the task has been refused.
+     */
+    public boolean offer(final String sender, final Runnable task) {
+        final String key = sender == null ? ANONYMOUS : sender;
+        this.lock.lock();
+        try {
+            if (this.closed) {
+                return false;
+            }
+            SenderQueue queue = this.queues.get(key);
+            if (this.size >= this.maxQueueDepth
+                    || queue != null && queue.tasks.size() >= this.maxSenderQueueDepth) {
+                this.shed.incrementAndGet();
+                return false;
+            }
+            if (queue == null) {
+                queue = new SenderQueue(key, this.getWeight(key));
+                this.queues.put(key, queue);
+            }
+            queue.tasks.addLast(new Entry(task, this.target > 0 ? System.nanoTime() : 0L));
+            if (queue.tasks.size() == 1) {
+                this.active.addLast(queue);
+            }
+            this.size++;
+            this.notEmpty.signal();
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Limits the total number of queued calls.
+     * @param maxQueueDepth
+     *         Number of queued calls beyond which calls are refused.
+     */
+    public void setMaxQueueDepth(final int maxQueueDepth) {
+        if (maxQueueDepth <= 0) {
+            throw new IllegalArgumentException("Queue depth must be positive.");
+        }
+        this.maxQueueDepth = maxQueueDepth;
+    }
+
+    /**
+     * Limits the number of queued calls per sender.
+     * @param maxSenderQueueDepth
+     *         Number of queued calls of a single sender beyond which its calls are refused.
+     */
+    public void setMaxSenderQueueDepth(final int maxSenderQueueDepth) {
+        if (maxSenderQueueDepth <= 0) {
+            throw new IllegalArgumentException("Queue depth must be positive.");
+        }
+        this.maxSenderQueueDepth = maxSenderQueueDepth;
+    }
+
+    /**
+     * Enables latency based shedding.
+     * @param target
+     *         Acceptable time (in milliseconds) a call may wait in the queue, or {@code 0} to disable
+     *         latency based shedding.
+     * @param interval
+     *         Time (in milliseconds) the wait must exceed the target before calls are shed, typically a
+     *         multiple of the target.
+     */
+    public void setLatencyTarget(final long target, final long interval) {
+        if (target < 0 || interval <= 0 && target > 0) {
+            throw new IllegalArgumentException("Invalid latency target.");
+        }
+        this.lock.lock();
+        try {
+            this.target = TimeUnit.MILLISECONDS.toNanos(target);
+            this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+            this.intervalEnd = 0L;
+            this.minSojourn = Long.MAX_VALUE;
+            this.standing = false;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns whether a standing queue has been detected, i.e. whether calls are currently being shed because
+     * of their latency.
+     * @return
+     *         {@code true} while calls are shed.
+     */
+    public boolean isOverloaded() {
+        this.lock.lock();
+        try {
+            return this.standing;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of calls that have been refused or shed so far.
+     * @return
+     *         The number of shed calls.
+     */
+    public int getShedCount() {
+        return this.shed.get();
+    }
+
+    /**
+     * Sets the share of a sender: a sender of weight {@code n} is served {@code n} calls per round, while
+     * everybody else is served one. Takes effect once the sender has no more pending calls.
+     * @param sender
+     *         Unique name of the sender.
+     * @param weight
+     *         Number of calls per round.
+     */
+    public void setWeight(final String sender, final int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight must be positive.");
+        }
+        if (weight == 1) {
+            this.weights.remove(sender);
+        } else {
+            this.weights.put(sender, weight);
+        }
+    }
+
+    /**
+     * Returns the share of a sender.
+     * @return
+     *         Number of calls per round.
+     */
+    public int getWeight(final String sender) {
+        final Integer weight = this.weights.get(sender);
+        return weight == null ? 1 : weight;
+    }
+
+    /**
+     * Returns the number of queued calls of a sender.
+     * @param sender
+     *         Unique name of the sender.
+     * @return
+     *         Number of calls that have not been started yet.
+     */
+    public int getQueueDepth(final String sender) {
+        this.lock.lock();
+        try {
+            final SenderQueue queue = this.queues.get(sender == null ? ANONYMOUS : sender);
+            return queue == null ? 0 : queue.tasks.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of queued calls of every sender with pending calls.
+     * @return
+     *         sender &rarr; number of calls that have not been started yet
+     */
+    public Map<String, Integer> getQueueDepths() {
+        this.lock.lock();
+        try {
+            final Map<String, Integer> depths = new HashMap<>(this.active.size());
+            for (final SenderQueue queue: this.active) {
+                depths.put(queue.sender, queue.tasks.size());
+            }
+            return depths;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of queued calls of all senders.
+     * @return
+     *         Number of calls that have not been started yet.
+     */
+    public int size() {
+        this.lock.lock();
+        try {
+            return this.size;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting calls. Queued calls are still executed, afterwards the worker threads terminate.
+     */
+    @Override
+    public void close() {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.notEmpty.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FairScheduler (%d workers, %d queued)", this.workers.size(), this.size());
+    }
+
+
+    @Internal
+    private void work() {
+        while (true) {
+            final Entry entry;
+            try {
+                entry = this.take();
+            } catch (final InterruptedException e) {
+                return;
+            }
+            if (entry == null) {
+                return;
+            }
+            try {
+                if (entry.shed) {
+                    ((Sheddable) entry.task).shed();
+                } else {
+                    entry.task.run();
+                }
+            } catch (final RuntimeException e) {
+                // A failing task must not kill the worker.
+                final Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+    }
+
+    /**
+     * Takes the next task in deficit round-robin order and decides whether it is to be shed.
+     * @return
+     *         The task or {@code null} once the scheduler has been closed and drained.
+     */
+    @Internal
+    private Entry take() throws InterruptedException {
+        this.lock.lock();
+        try {
+            while (this.active.isEmpty()) {
+                if (this.closed) {
+                    return null;
+                }
+                this.notEmpty.await();
+            }
+            final SenderQueue queue = this.active.peekFirst();
+            if (queue.deficit <= 0) {
+                queue.deficit += queue.weight;
+            }
+            final Entry entry = queue.tasks.pollFirst();
+            this.size--;
+            queue.deficit--;
+            if (queue.tasks.isEmpty()) {
+                // Idle senders neither keep their deficit nor their queue.
+                this.active.pollFirst();
+                this.queues.remove(queue.sender);
+            } else if (queue.deficit <= 0) {
+                this.active.addLast(this.active.pollFirst());
+            }
+            if (this.target > 0 && entry.enqueued != 0L && this.sojourn(System.nanoTime() - entry.enqueued) && entry.task instanceof Sheddable) {
+                entry.shed = true;
+                this.shed.incrementAndGet();
+            }
+            return entry;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Tracks the minimum time calls waited within the current interval. Must be invoked while holding the lock.
+     * @param sojourn
+     *         Time (in nanoseconds) the call that is being dequeued has waited.
+     * @return
+     *         {@code true} if the call is to be shed.
+     */
+    @Internal
+    private boolean sojourn(final long sojourn) {
+        if (sojourn <= this.target) {
+            // The queue drains in time: no standing queue. The next interval starts with the next late call.
+            this.standing = false;
+            this.minSojourn = Long.MAX_VALUE;
+            this.intervalEnd = 0L;
+            return false;
+        }
+        final long now = System.nanoTime();
+        this.minSojourn = Math.min(this.minSojourn, sojourn);
+        if (this.intervalEnd == 0L) {
+            this.intervalEnd = now + this.interval;
+        } else if (now - this.intervalEnd >= 0) {
+            this.standing = this.minSojourn > this.target;
+            this.minSojourn = Long.MAX_VALUE;
+            this.intervalEnd = now + this.interval;
+        }
+        return this.standing;
+    }
+
+
+    /**
+     * A task that can be shed, i.e. answered cheaply instead of being executed.
+     */
+    public static interface Sheddable extends Runnable {
+
+        /**
+         * Invoked on a worker thread instead of {@link #run()} if the task is being shed.
+         */
+        void shed();
+
+    }
+
+    /**
+     * A queued task.
+     */
+    private static final class Entry {
+
+        private final Runnable task;
+        /** {@link System#nanoTime()} when the task was queued; only tracked with a latency target. */
+        private final long enqueued;
+        private boolean shed;
+
+        private Entry(final Runnable task, final long enqueued) {
+            super();
+            this.task = task;
+            this.enqueued = enqueued;
+        }
+
+    }
+
+    /**
+     * The pending calls of one sender.
+     */
+    private static final class SenderQueue {
+
+        private final String sender;
+        private final int weight;
+        private final ArrayDeque<Entry> tasks = new ArrayDeque<>();
+        private int deficit;
+
+        private SenderQueue(final String sender, final int weight) {
+            super();
+            this.sender = sender;
+            this.weight = weight;
+        }
+
+    }
+
+}
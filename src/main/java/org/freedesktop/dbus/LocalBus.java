@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of the connections of this process that short-circuit calls among each other
+ * (see {@link Connection#setShortCircuit(boolean)}).
+ * <p>A short-circuited call is copied (so the caller may keep using its message), stamped with the unique name of
+ * the caller and a serial of its own, and handed over to the object path handler of the callee on the calling
+ * thread. Replies the callee sends to such a call are intercepted by {@link #reply(Message)} and complete the
+ * pending reply of the caller directly. Serials are counted down from the largest possible serial, so they never
+ * collide with the serials libdbus assigns to messages that actually travel over the bus.</p>
+ * @author Benjamin P. Jung
+ */
+final class LocalBus {
+
+    /** Timeout applied for {@link DBus#TIMEOUT_USE_DEFAULT}, the same as the one of libdbus. */
+    private static final int DEFAULT_TIMEOUT = 25000;
+
+    /** bus ID + name &rarr; connection owning the name */
+    private static final ConcurrentMap<String, Connection> NAMES = new ConcurrentHashMap<>();
+    /** caller unique name + serial &rarr; call awaiting its reply */
+    private static final ConcurrentMap<String, LocalCall> CALLS = new ConcurrentHashMap<>();
+    private static final AtomicLong SERIALS = new AtomicLong(0xffffffffL);
+
+    private LocalBus() {
+        // Utility class
+    }
+
+
+    static void register(final Connection connection, final String busId, final String name) {
+        NAMES.put(key(busId, name), connection);
+    }
+
+    static void unregister(final Connection connection, final String busId, final String name) {
+        NAMES.remove(key(busId, name), connection);
+    }
+
+    /**
+     * Looks up the connection of this process that owns the given name on the bus of the caller.
+     * @return
+     *         The connection or {@code null} if the name is not owned in process.
+     */
+    static Connection resolve(final String busId, final String destination) {
+        return destination == null ? null : NAMES.get(key(busId, destination));
+    }
+
+    /**
+     * Hands a method call over to a connection of this process and returns its pending reply.
+     */
+    static <T> PendingReply<T> call(final Connection caller, final Connection callee, final Message message,
+                                    final int timeout, final PendingReply.Decoder<T> decoder) {
+        final Message call = stamp(caller, message);
+        final PendingReply<T> reply = new PendingReply<>(caller, decoder);
+        final String key = key(caller.getUniqueName(), Long.toString(call.getSerial()));
+        final LocalCall local = new LocalCall(reply);
+        CALLS.put(key, local);
+        local.timeout = Timer.INSTANCE.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (CALLS.remove(key, local)) {
+                    local.reply.fail(new DBusException(DBus.ERROR_NO_REPLY, "Did not receive a reply."));
+                }
+            }
+        }, timeout < 0 ? DEFAULT_TIMEOUT : timeout, TimeUnit.MILLISECONDS);
+
+        if (!callee.handleLocally(call) && !call.isNoReply()) {
+            reply(Message.newError(call, DBus.ERROR_UNKNOWN_METHOD,
+                    "Method " + call.getMember() + " does not exist at " + call.getPath()));
+        }
+        return reply;
+    }
+
+    /**
+     * Hands a method call over to a connection of this process without tracking its reply.
+     * @return
+     *         The serial of the call.
+     */
+    static long send(final Connection caller, final Connection callee, final Message message) {
+        final Message call = stamp(caller, message);
+        callee.handleLocally(call);
+        return call.getSerial();
+    }
+
+    /**
+     * Completes the pending reply of a short-circuited call.
+     * @param reply
+     *         Method return or error that is being sent.
+     * @return
+     *         {@code true} if the reply belonged to a short-circuited call and has been consumed.
+     */
+    static boolean reply(final Message reply) {
+        final String destination = reply.getDestination();
+        if (destination == null) {
+            return false;
+        }
+        final LocalCall local = CALLS.remove(key(destination, Long.toString(reply.getReplySerial())));
+        if (local == null) {
+            return false;
+        }
+        local.timeout.cancel(false);
+        local.reply.complete(reply);
+        return true;
+    }
+
+
+    /**
+     * Copies a call and stamps it as the bus would.
+     */
+    @Internal
+    private static Message stamp(final Connection caller, final Message message) {
+        final Message call = new Message(DBus._messageCopy(message._peer));
+        call.setSender(caller.getUniqueName());
+        DBus._messageSetSerial(call._peer, SERIALS.getAndDecrement());
+        return call;
+    }
+
+    @Internal
+    private static String key(final String scope, final String name) {
+        return scope + '\n' + name;
+    }
+
+
+    /**
+     * A short-circuited call awaiting its reply.
+     */
+    private static final class LocalCall {
+
+        private final PendingReply<?> reply;
+        private volatile ScheduledFuture<?> timeout;
+
+        private LocalCall(final PendingReply<?> reply) {
+            super();
+            this.reply = reply;
+        }
+
+    }
+
+    /**
+     * Lazily created timer for the timeouts of short-circuited calls.
+     */
+    private static final class Timer {
+
+        private static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "D-Bus local call timeouts");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    }
+
+}
@@ -0,0 +1,554 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Immutable representation of a D-Bus match rule.
+ * <p>Match rules describe which messages shall be routed to a connection by the bus daemon (see
+ * {@link Connection#addMatch(String)}). This class parses the textual representation of rules, renders
+ * them in a canonical form (so that semantically identical rules can be detected) and allows to evaluate
+ * rules on the client side (see {@link #matches(Message)}).</p>
+ * @author Benjamin P. Jung
+ */
+public final class MatchRule {
+
+    /** Highest argument index that may be referenced by a match rule, as defined by the D-Bus specification. */
+    public static final int MAX_ARG_INDEX = 63;
+
+    private final Message.Type type;
+    private final String sender;
+    private final String _interface;
+    private final String member;
+    private final String path;
+    private final String pathNamespace;
+    private final String destination;
+    private final String arg0Namespace;
+    private final SortedMap<Integer, String> args;
+    private final SortedMap<Integer, String> argPaths;
+
+    /** Lazily created canonical textual form. */
+    private String text;
+
+
+    @Internal
+    private MatchRule(final Builder builder) {
+        super();
+        if (builder.path != null && builder.pathNamespace != null) {
+            throw new IllegalArgumentException("'path' and 'path_namespace' must not be used together.");
+        }
+        if (builder.arg0Namespace != null && (builder.args.containsKey(0) || builder.argPaths.containsKey(0))) {
+            throw new IllegalArgumentException("'arg0namespace' must not be combined with other arg0 matches.");
+        }
+        this.type = builder.type;
+        this.sender = builder.sender;
+        this._interface = builder._interface;
+        this.member = builder.member;
+        this.path = builder.path;
+        this.pathNamespace = builder.pathNamespace;
+        this.destination = builder.destination;
+        this.arg0Namespace = builder.arg0Namespace;
+        this.args = Collections.unmodifiableSortedMap(new TreeMap<>(builder.args));
+        this.argPaths = Collections.unmodifiableSortedMap(new TreeMap<>(builder.argPaths));
+    }
+
+
+    /**
+     * Creates a new, empty builder.
+     * @return
+     *         A new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Creates a new builder for a rule that matches the given signal.
+     * <p>Further restrictions (e.g. on sender, path or arguments) can be added to the returned builder.
+     * Argument restrictions are evaluated by the bus daemon, so non-matching signals will not even be
+     * sent to this process:</p>
+     * <pre>
+     * MatchRule.signal(DBus.INTERFACE_DBUS, "NameOwnerChanged").arg(0, "org.example.Service").build();
+     * MatchRule.signal(DBus.INTERFACE_PROPERTIES, "PropertiesChanged").arg(0, "org.example.Iface").build();
+     * </pre>
+     * @param _interface
+     *         Interface that emits the signal or {@code null} to match any interface.
+     * @param member
+     *         Name of the signal or {@code null} to match any signal.
+     * @return
+     *         A new builder.
+     */
+    public static Builder signal(final String _interface, final String member) {
+        return new Builder().type(Message.Type.SIGNAL)._interface(_interface).member(member);
+    }
+
+    /**
+     * Parses the textual form of a match rule, e.g. {@code type='signal',interface='org.example.Foo'}.
+     * @param rule
+     *         The rule to be parsed.
+     * @return
+     *         The parsed rule.
+     * @throws IllegalArgumentException
+     *         If the rule is malformed.
+     */
+    public static MatchRule parse(final String rule) {
+
+        final Builder builder = new Builder();
+        final int length = rule.length();
+        int i = 0;
+
+        while (i < length) {
+
+            // Key
+            final int eq = rule.indexOf('=', i);
+            if (eq < 0) {
+                throw new IllegalArgumentException("Malformed match rule: " + rule);
+            }
+            final String key = rule.substring(i, eq).trim();
+            i = eq + 1;
+
+            // Value: quoted sections are taken literally, outside of quotes only \' is an escape sequence.
+            final StringBuilder value = new StringBuilder();
+            boolean quoted = false;
+            while (i < length) {
+                final char c = rule.charAt(i);
+                if (quoted) {
+                    if (c == '\'') {
+                        quoted = false;
+                    } else {
+                        value.append(c);
+                    }
+                } else if (c == '\'') {
+                    quoted = true;
+                } else if (c == '\\' && i + 1 < length && rule.charAt(i + 1) == '\'') {
+                    value.append('\'');
+                    i++;
+                } else if (c == ',') {
+                    break;
+                } else {
+                    value.append(c);
+                }
+                i++;
+            }
+            if (quoted) {
+                throw new IllegalArgumentException("Unterminated quote in match rule: " + rule);
+            }
+            i++; // Skip the separating comma
+
+            builder.set(key, value.toString());
+
+        }
+
+        return builder.build();
+
+    }
+
+
+    public Message.Type getType() { return this.type; }
+
+    public String getSender() { return this.sender; }
+
+    public String getInterface() { return this._interface; }
+
+    public String getMember() { return this.member; }
+
+    public String getPath() { return this.path; }
+
+    public String getPathNamespace() { return this.pathNamespace; }
+
+    public String getDestination() { return this.destination; }
+
+    public String getArg0Namespace() { return this.arg0Namespace; }
+
+    /**
+     * Returns all {@code argN} string matches of this rule, keyed by argument index.
+     * @return
+     *         An immutable map of argument indices to expected values.
+     */
+    public SortedMap<Integer, String> getArgs() { return this.args; }
+
+    /**
+     * Returns all {@code argNpath} matches of this rule, keyed by argument index.
+     * @return
+     *         An immutable map of argument indices to expected object paths.
+     */
+    public SortedMap<Integer, String> getArgPaths() { return this.argPaths; }
+
+    /**
+     * Returns a builder that has been initialized with all settings of this rule.
+     * @return
+     *         A new builder.
+     */
+    public Builder toBuilder() {
+        final Builder builder = new Builder();
+        builder.type = this.type;
+        builder.sender = this.sender;
+        builder._interface = this._interface;
+        builder.member = this.member;
+        builder.path = this.path;
+        builder.pathNamespace = this.pathNamespace;
+        builder.destination = this.destination;
+        builder.arg0Namespace = this.arg0Namespace;
+        builder.args.putAll(this.args);
+        builder.argPaths.putAll(this.argPaths);
+        return builder;
+    }
+
+    /**
+     * Evaluates this rule on the client side.
+     * <p>Without a name owner cache a rule that matches on a well-known name only matches messages whose sender
+     * is that very name, i.e. messages of the bus daemon itself; use {@link #matches(Message, NameOwnerCache)}
+     * to match messages of the current owner of the name.</p>
+     * @param message
+     *         The message to be checked.
+     * @return
+     *         {@code true} if the given message matches this rule.
+     */
+    public boolean matches(final Message message) {
+        return this.matches(message, null);
+    }
+
+    /**
+     * Evaluates this rule on the client side, resolving a well-known sender name to its current owner.
+     * <p>Messages never match a rule on a well-known name whose owner is unknown.</p>
+     * @param message
+     *         The message to be checked.
+     * @param owners
+     *         Cache the owner of a well-known sender name is looked up in, may be {@code null}.
+     * @return
+     *         {@code true} if the given message matches this rule.
+     */
+    public boolean matches(final Message message, final NameOwnerCache owners) {
+        if (this.sender != null && !isSender(message.getSender(), this.sender, owners)) {
+            return false;
+        }
+        return this.matchesIgnoringSender(message);
+    }
+
+    /**
+     * Evaluates all predicates of this rule except the one on the sender.
+     */
+    @Internal
+    boolean matchesIgnoringSender(final Message message) {
+
+        if (this.type != null && message.getType() != this.type) {
+            return false;
+        }
+        if (this._interface != null && !message.hasInterface(this._interface)) {
+            return false;
+        }
+        if (this.member != null && !message.hasMember(this.member)) {
+            return false;
+        }
+        if (this.path != null && !message.hasPath(this.path)) {
+            return false;
+        }
+        if (this.pathNamespace != null && !isInPathNamespace(message.getPath(), this.pathNamespace)) {
+            return false;
+        }
+        if (this.destination != null && !message.hasDestination(this.destination)) {
+            return false;
+        }
+        if (this.arg0Namespace != null && !isInNameNamespace(message.getStringArgument(0), this.arg0Namespace)) {
+            return false;
+        }
+        for (final Map.Entry<Integer, String> arg: this.args.entrySet()) {
+            if (!arg.getValue().equals(message.getStringArgument(arg.getKey().intValue()))) {
+                return false;
+            }
+        }
+        for (final Map.Entry<Integer, String> argPath: this.argPaths.entrySet()) {
+            if (!isPathMatch(message.getStringArgument(argPath.getKey().intValue()), argPath.getValue())) {
+                return false;
+            }
+        }
+        return true;
+
+    }
+
+    /**
+     * Checks whether a message has been sent by the given sender.
+     * @param actual
+     *         Sender of the message (a unique name, or the name of the bus daemon), may be {@code null}.
+     * @param sender
+     *         Unique or well-known name the message is expected from.
+     * @param owners
+     *         Cache the owner of a well-known name is looked up in, may be {@code null}.
+     * @return
+     *         {@code true} if the message has been sent by the sender or by the current owner of the name.
+     */
+    static boolean isSender(final String actual, final String sender, final NameOwnerCache owners) {
+        if (sender.equals(actual)) {
+            return true;
+        }
+        if (actual == null || sender.startsWith(":") || owners == null) {
+            return false;
+        }
+        return actual.equals(owners.getOwner(sender));
+    }
+
+    /**
+     * Checks whether an object path lies within the given path namespace.
+     * @param path
+     *         Object path to be checked (may be {@code null}).
+     * @param namespace
+     *         The path namespace, e.g. {@code /org/example}.
+     * @return
+     *         {@code true} if the path equals the namespace or is a descendant of it.
+     */
+    static boolean isInPathNamespace(final String path, final String namespace) {
+        if (path == null) {
+            return false;
+        }
+        if ("/".equals(namespace) || path.equals(namespace)) {
+            return true;
+        }
+        return path.length() > namespace.length() && path.startsWith(namespace) && path.charAt(namespace.length()) == '/';
+    }
+
+    /**
+     * Checks whether a bus or interface name lies within the given (dot separated) namespace.
+     * @param name
+     *         Name to be checked (may be {@code null}).
+     * @param namespace
+     *         The namespace, e.g. {@code org.example}.
+     * @return
+     *         {@code true} if the name equals the namespace or is a descendant of it.
+     */
+    static boolean isInNameNamespace(final String name, final String namespace) {
+        if (name == null) {
+            return false;
+        }
+        if (name.equals(namespace)) {
+            return true;
+        }
+        return name.length() > namespace.length() && name.startsWith(namespace) && name.charAt(namespace.length()) == '.';
+    }
+
+    /**
+     * Implements the {@code argNpath} semantics of the D-Bus specification: both values match if they are equal
+     * or if one of them ends with a slash and is a prefix of the other one.
+     */
+    static boolean isPathMatch(final String value, final String expected) {
+        if (value == null) {
+            return false;
+        }
+        if (value.equals(expected)) {
+            return true;
+        }
+        return (expected.endsWith("/") && value.startsWith(expected))
+            || (value.endsWith("/") && expected.startsWith(value));
+    }
+
+    @Override
+    public int hashCode() {
+        return this.toString().hashCode();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (o == this) { return true; }
+        if (o == null || !(o instanceof MatchRule)) { return false; }
+        return this.toString().equals(o.toString());
+    }
+
+    /**
+     * Returns the canonical textual form of this rule, as it can be passed to {@link Connection#addMatch(String)}.
+     * @return
+     *         The canonical textual form of this rule.
+     */
+    @Override
+    public String toString() {
+        if (this.text == null) {
+            final StringBuilder sb = new StringBuilder();
+            if (this.type != null) {
+                append(sb, "type", typeName(this.type));
+            }
+            append(sb, "sender", this.sender);
+            append(sb, "interface", this._interface);
+            append(sb, "member", this.member);
+            append(sb, "path", this.path);
+            append(sb, "path_namespace", this.pathNamespace);
+            append(sb, "destination", this.destination);
+            append(sb, "arg0namespace", this.arg0Namespace);
+            for (final Map.Entry<Integer, String> arg: this.args.entrySet()) {
+                append(sb, "arg" + arg.getKey(), arg.getValue());
+            }
+            for (final Map.Entry<Integer, String> argPath: this.argPaths.entrySet()) {
+                append(sb, "arg" + argPath.getKey() + "path", argPath.getValue());
+            }
+            this.text = sb.toString();
+        }
+        return this.text;
+    }
+
+    @Internal
+    private static void append(final StringBuilder sb, final String key, final String value) {
+        if (value == null) {
+            return;
+        }
+        if (sb.length() > 0) {
+            sb.append(',');
+        }
+        sb.append(key).append("='").append(value.replace("'", "'\\''")).append('\'');
+    }
+
+    @Internal
+    private static String typeName(final Message.Type type) {
+        switch (type) {
+            case METHOD_CALL: return "method_call";
+            case METHOD_RETURN: return "method_return";
+            case ERROR: return "error";
+            case SIGNAL: return "signal";
+            default: throw new IllegalArgumentException("Message type can't be used in match rules: " + type);
+        }
+    }
+
+
+    /**
+     * Builder for {@link MatchRule} instances.
+     */
+    public static final class Builder {
+
+        private Message.Type type;
+        private String sender;
+        private String _interface;
+        private String member;
+        private String path;
+        private String pathNamespace;
+        private String destination;
+        private String arg0Namespace;
+        private final SortedMap<Integer, String> args = new TreeMap<>();
+        private final SortedMap<Integer, String> argPaths = new TreeMap<>();
+
+        private Builder() {
+            super();
+        }
+
+        public Builder type(final Message.Type type) { typeName(type); this.type = type; return this; }
+
+        public Builder sender(final String sender) { this.sender = sender; return this; }
+
+        public Builder _interface(final String _interface) { this._interface = _interface; return this; }
+
+        public Builder member(final String member) { this.member = member; return this; }
+
+        public Builder path(final String path) { this.path = path; return this; }
+
+        public Builder pathNamespace(final String pathNamespace) { this.pathNamespace = pathNamespace; return this; }
+
+        public Builder destination(final String destination) { this.destination = destination; return this; }
+
+        public Builder arg0Namespace(final String arg0Namespace) { this.arg0Namespace = arg0Namespace; return this; }
+
+        /**
+         * Adds (or removes) an {@code argN} match, which matches messages whose N-th argument is a string
+         * equal to the given value.
+         * @param index
+         *         Zero-based argument index.
+         * @param value
+         *         The expected value or {@code null} to remove the match.
+         * @return
+         *         This builder.
+         */
+        public Builder arg(final int index, final String value) {
+            return this.put(this.args, index, value);
+        }
+
+        /**
+         * Adds (or removes) an {@code argNpath} match, which matches messages whose N-th argument is a string or
+         * object path that is equal to the given value, or where one of both ends with a slash and is a prefix of
+         * the other one.
+         * @param index
+         *         Zero-based argument index.
+         * @param path
+         *         The expected path or {@code null} to remove the match.
+         * @return
+         *         This builder.
+         */
+        public Builder argPath(final int index, final String path) {
+            return this.put(this.argPaths, index, path);
+        }
+
+        @Internal
+        private Builder put(final SortedMap<Integer, String> map, final int index, final String value) {
+            if (index < 0 || index > MAX_ARG_INDEX) {
+                throw new IllegalArgumentException("Argument index out of range: " + index);
+            }
+            if (value == null) {
+                map.remove(Integer.valueOf(index));
+            } else {
+                map.put(Integer.valueOf(index), value);
+            }
+            return this;
+        }
+
+        /**
+         * Builds the rule.
+         * @return
+         *         A new, immutable match rule.
+         */
+        public MatchRule build() {
+            return new MatchRule(this);
+        }
+
+        @Internal
+        private void set(final String key, final String value) {
+            switch (key) {
+                case "type":
+                    switch (value) {
+                        case "method_call": this.type = Message.Type.METHOD_CALL; break;
+                        case "method_return": this.type = Message.Type.METHOD_RETURN; break;
+                        case "error": this.type = Message.Type.ERROR; break;
+                        case "signal": this.type = Message.Type.SIGNAL; break;
+                        default: throw new IllegalArgumentException("Unknown message type in match rule: " + value);
+                    }
+                    break;
+                case "sender": this.sender = value; break;
+                case "interface": this._interface = value; break;
+                case "member": this.member = value; break;
+                case "path": this.path = value; break;
+                case "path_namespace": this.pathNamespace = value; break;
+                case "destination": this.destination = value; break;
+                case "arg0namespace": this.arg0Namespace = value; break;
+                default:
+                    if (key.startsWith("arg")) {
+                        final boolean isPath = key.endsWith("path");
+                        final String index = key.substring(3, isPath ? key.length() - 4 : key.length());
+                        final int n;
+                        try {
+                            n = Integer.parseInt(index);
+                        } catch (final NumberFormatException e) {
+                            throw new IllegalArgumentException("Unknown key in match rule: " + key, e);
+                        }
+                        if (n < 0 || n > MAX_ARG_INDEX) {
+                            throw new IllegalArgumentException("Argument index out of range in match rule: " + key);
+                        }
+                        (isPath ? this.argPaths : this.args).put(Integer.valueOf(n), value);
+                    } else {
+                        throw new IllegalArgumentException("Unknown key in match rule: " + key);
+                    }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,615 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.freedesktop.dbus.Message.MethodArgument.stringParam;
+
+/**
+ * Reference-counted registry of the match rules of a {@link Connection}.
+ * <p>Identical rules that are being requested by different components are only added once on the bus daemon
+ * and are only removed after the last component has released them.</p>
+ * <p>In contrast to {@link Connection#addMatch(String)} no round trip to the bus daemon is being performed:
+ * {@code AddMatch} and {@code RemoveMatch} calls are sent with the no-reply flag set and are merely queued
+ * on the connection, so any number of rule changes can be pipelined and written out with one single
+ * {@link #flush()}. As a consequence, malformed rules are silently dropped by the bus daemon instead of
+ * being reported back to the caller.</p>
+ * <p><strong>Consolidation</strong><br/>
+ * Rules that only differ in their {@code path} (or only in their {@code arg0}) form a group. As soon as a
+ * group contains more rules than the consolidation threshold, the group is installed on the bus daemon as one
+ * single rule using {@code path_namespace} (or {@code arg0namespace}) with the longest common prefix of all
+ * members. If the {@code arg0} values do not share a prefix that is a valid bus name namespace, the group is
+ * installed without any {@code arg0} condition instead. A rule that is requested on its own as well as being the
+ * consolidated rule of a group stays installed until both have released it. This keeps the connection below the
+ * daemon's limit of match rules and reduces the number of rules the daemon has to evaluate for every message. Messages that are delivered because of such a wider rule
+ * without matching any of the original rules can be detected with {@link #accepts(Message)}, which performs
+ * the exact filtering on the client side using one hash lookup per consolidated group.</p>
+ * @author Benjamin P. Jung
+ */
+public class MatchRuleRegistry {
+
+    /** Default number of rules per group above which the group will be consolidated. */
+    public static final int DEFAULT_CONSOLIDATION_THRESHOLD = 64;
+
+    private static final String ADD_MATCH = "AddMatch";
+    private static final String REMOVE_MATCH = "RemoveMatch";
+
+    private Connection connection;
+
+    /** Number of rules per group above which the group will be consolidated ({@code 0} disables consolidation). */
+    private final int consolidationThreshold;
+
+    /** Reference counts of all rules that have been requested. */
+    private final Map<MatchRule, Integer> references = new HashMap<>();
+
+    /** Groups of rules that only differ in their path, keyed by the rule without path. */
+    private final Map<MatchRule, Group> pathGroups = new HashMap<>();
+
+    /** Groups of rules that only differ in their first argument, keyed by the rule without arg0. */
+    private final Map<MatchRule, Group> arg0Groups = new HashMap<>();
+
+    /**
+     * Rules that are currently active on the bus daemon, along with the number of their users: a requested rule
+     * that is installed on its own, and every group that is consolidated into it.
+     */
+    private final Map<MatchRule, Integer> installed = new LinkedHashMap<>();
+
+    /** Client-side matcher; {@code null} if it has to be recompiled. */
+    private volatile Matcher matcher;
+
+
+    public MatchRuleRegistry(final Connection connection) {
+        this(connection, DEFAULT_CONSOLIDATION_THRESHOLD);
+    }
+
+    /**
+     * Creates a new registry.
+     * @param connection
+     *         The connection whose match rules shall be managed.
+     * @param consolidationThreshold
+     *         Number of rules per group above which the group will be consolidated, or {@code 0} to disable
+     *         consolidation completely.
+     */
+    public MatchRuleRegistry(final Connection connection, final int consolidationThreshold) {
+        super();
+        if (consolidationThreshold < 0) {
+            throw new IllegalArgumentException("Consolidation threshold must not be negative.");
+        }
+        this.connection = connection;
+        this.consolidationThreshold = consolidationThreshold;
+    }
+
+
+    /**
+     * Acquires a reference to the given rule.
+     * @see #addMatch(MatchRule)
+     * @param rule
+     *         Textual form of the match rule.
+     * @return
+     *         {@code true} if the rule had not been requested before.
+     */
+    public boolean addMatch(final String rule) {
+        return this.addMatch(MatchRule.parse(rule));
+    }
+
+    /**
+     * Acquires a reference to the given rule.
+     * <p>Only the first reference causes an {@code AddMatch} call to be queued.</p>
+     * @param rule
+     *         The match rule.
+     * @return
+     *         {@code true} if the rule had not been requested before.
+     */
+    public synchronized boolean addMatch(final MatchRule rule) {
+
+        final Integer count = this.references.get(rule);
+        if (count != null) {
+            this.references.put(rule, Integer.valueOf(count.intValue() + 1));
+            return false;
+        }
+        this.references.put(rule, Integer.valueOf(1));
+
+        final Group group = this.groupOf(rule, true);
+        if (group == null) {
+            this.install(rule);
+        } else {
+            group.add(rule);
+        }
+        this.matcher = null;
+        return true;
+
+    }
+
+    /**
+     * Acquires references to all given rules and flushes the connection once.
+     * @param rules
+     *         Textual forms of the match rules.
+     */
+    public synchronized void addMatches(final Collection<String> rules) {
+        for (final String rule: rules) {
+            this.addMatch(rule);
+        }
+        this.flush();
+    }
+
+    /**
+     * Releases a reference to the given rule.
+     * @see #removeMatch(MatchRule)
+     * @param rule
+     *         Textual form of the match rule.
+     * @return
+     *         {@code true} if the rule is not requested anymore.
+     */
+    public boolean removeMatch(final String rule) {
+        return this.removeMatch(MatchRule.parse(rule));
+    }
+
+    /**
+     * Releases a reference to the given rule.
+     * <p>Only the release of the last reference causes a {@code RemoveMatch} call to be queued.</p>
+     * @param rule
+     *         The match rule.
+     * @return
+     *         {@code true} if the rule is not requested anymore.
+     */
+    public synchronized boolean removeMatch(final MatchRule rule) {
+
+        final Integer count = this.references.get(rule);
+        if (count == null) {
+            throw new IllegalArgumentException("Match rule has not been added: " + rule);
+        }
+        if (count.intValue() > 1) {
+            this.references.put(rule, Integer.valueOf(count.intValue() - 1));
+            return false;
+        }
+        this.references.remove(rule);
+
+        final Group group = this.groupOf(rule, false);
+        if (group == null) {
+            this.uninstall(rule);
+        } else {
+            group.remove(rule);
+        }
+        this.matcher = null;
+        return true;
+
+    }
+
+    /**
+     * Releases references to all given rules and flushes the connection once.
+     * @param rules
+     *         Textual forms of the match rules.
+     */
+    public synchronized void removeMatches(final Collection<String> rules) {
+        for (final String rule: rules) {
+            this.removeMatch(rule);
+        }
+        this.flush();
+    }
+
+    /**
+     * Returns the number of references that are currently being held for the given rule.
+     * @param rule
+     *         Textual form of the match rule.
+     * @return
+     *         The reference count or {@code 0} if the rule is not active.
+     */
+    public synchronized int getReferenceCount(final String rule) {
+        final Integer count = this.references.get(MatchRule.parse(rule));
+        return count == null ? 0 : count.intValue();
+    }
+
+    /**
+     * Returns all rules that have been requested.
+     * @return
+     *         An immutable snapshot of all requested rules in their canonical form.
+     */
+    public synchronized Set<String> getRules() {
+        final Set<String> rules = new LinkedHashSet<>(this.references.size());
+        for (final MatchRule rule: this.references.keySet()) {
+            rules.add(rule.toString());
+        }
+        return Collections.unmodifiableSet(rules);
+    }
+
+    /**
+     * Returns all rules that are currently active on the bus daemon.
+     * <p>Due to consolidation this set may be considerably smaller than the one returned by {@link #getRules()}.</p>
+     * @return
+     *         An immutable snapshot of all installed rules in their canonical form.
+     */
+    public synchronized Set<String> getInstalledRules() {
+        final Set<String> rules = new LinkedHashSet<>(this.installed.size());
+        for (final MatchRule rule: this.installed.keySet()) {
+            rules.add(rule.toString());
+        }
+        return Collections.unmodifiableSet(rules);
+    }
+
+    /**
+     * Checks whether a broadcast message matches at least one of the requested rules.
+     * <p>Messages with a destination (i.e. unicast messages) are always accepted, because they are not subject
+     * to match rules at all. Broadcast messages are only rejected if they have been delivered solely because
+     * of a consolidated rule without matching any of the rules that have been consolidated.</p>
+     * @param message
+     *         The received message.
+     * @return
+     *         {@code true} if the message should be processed, {@code false} if it should be dropped.
+     */
+    public boolean accepts(final Message message) {
+        Matcher matcher = this.matcher;
+        if (matcher == null) {
+            synchronized (this) {
+                if (this.matcher == null) {
+                    this.matcher = new Matcher(this);
+                }
+                matcher = this.matcher;
+            }
+        }
+        return matcher.accepts(message);
+    }
+
+    /**
+     * Binds this registry to another connection and re-adds all active rules on it as one pipelined batch,
+     * e.g. after the bus connection has been re-established.
+     * @param connection
+     *         The connection to replay the rules on.
+     */
+    public synchronized void rebind(final Connection connection) {
+        this.connection = connection;
+        for (final MatchRule rule: this.installed.keySet()) {
+            this.send(ADD_MATCH, rule);
+        }
+        this.flush();
+    }
+
+    /**
+     * Writes all queued rule changes to the bus daemon.
+     */
+    public synchronized void flush() {
+        this.connection.flush();
+    }
+
+
+    /**
+     * Determines the group a rule belongs to.
+     * @param create
+     *         Whether a missing group shall be created.
+     * @return
+     *         The group or {@code null} if the rule can't be consolidated.
+     */
+    @Internal
+    private Group groupOf(final MatchRule rule, final boolean create) {
+        if (this.consolidationThreshold == 0) {
+            return null;
+        }
+        final boolean byPath;
+        final MatchRule shape;
+        if (rule.getPath() != null) {
+            byPath = true;
+            shape = rule.toBuilder().path(null).build();
+        } else if (rule.getArgs().containsKey(0)) {
+            byPath = false;
+            shape = rule.toBuilder().arg(0, null).build();
+        } else {
+            return null;
+        }
+        final Map<MatchRule, Group> groups = byPath ? this.pathGroups : this.arg0Groups;
+        Group group = groups.get(shape);
+        if (group == null && create) {
+            group = new Group(shape, byPath);
+            groups.put(shape, group);
+        }
+        return group;
+    }
+
+    /**
+     * Acquires a reference to a rule on the bus daemon; only the first one causes an {@code AddMatch} call.
+     */
+    @Internal
+    private void install(final MatchRule rule) {
+        final Integer count = this.installed.get(rule);
+        if (count == null) {
+            this.installed.put(rule, Integer.valueOf(1));
+            this.send(ADD_MATCH, rule);
+        } else {
+            this.installed.put(rule, Integer.valueOf(count.intValue() + 1));
+        }
+    }
+
+    /**
+     * Releases a reference to a rule on the bus daemon; only the last one causes a {@code RemoveMatch} call.
+     */
+    @Internal
+    private void uninstall(final MatchRule rule) {
+        final Integer count = this.installed.get(rule);
+        if (count == null) {
+            return;
+        }
+        if (count.intValue() > 1) {
+            this.installed.put(rule, Integer.valueOf(count.intValue() - 1));
+        } else {
+            this.installed.remove(rule);
+            this.send(REMOVE_MATCH, rule);
+        }
+    }
+
+    @Internal
+    private void send(final String method, final MatchRule rule) {
+        final Message message = Message.newMethodCall(DBus.SERVICE_DBUS, DBus.PATH_DBUS, DBus.INTERFACE_DBUS, method);
+        message.addArguments(stringParam(rule.toString()));
+        message.setNoReply(true);
+        this.connection.send(message);
+    }
+
+    /**
+     * Returns the longest common prefix of two object paths that ends at a path element boundary.
+     */
+    static String commonPathPrefix(final String a, final String b) {
+        final String[] as = a.split("/");
+        final String[] bs = b.split("/");
+        final StringBuilder prefix = new StringBuilder();
+        for (int i = 1; i < Math.min(as.length, bs.length) && as[i].equals(bs[i]); i++) {
+            prefix.append('/').append(as[i]);
+        }
+        return prefix.length() == 0 ? "/" : prefix.toString();
+    }
+
+    /**
+     * Returns the longest common prefix of two dot separated names that ends at an element boundary.
+     * @return
+     *         The prefix or {@code null} if both names do not share a common first element, or if the prefix is not
+     *         a valid bus name namespace (see {@link #isNameNamespace(String)}).
+     */
+    static String commonNamePrefix(final String a, final String b) {
+        final String[] as = a.split("\\.");
+        final String[] bs = b.split("\\.");
+        final StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < Math.min(as.length, bs.length) && as[i].equals(bs[i]); i++) {
+            if (i > 0) {
+                prefix.append('.');
+            }
+            prefix.append(as[i]);
+        }
+        return isNameNamespace(prefix.toString()) ? prefix.toString() : null;
+    }
+
+    /**
+     * Checks whether the bus daemon accepts a value as {@code arg0namespace}, i.e. whether it is a bus name or the
+     * leading elements of one: elements of ASCII letters, digits, underscores and hyphens, separated by single
+     * dots, that do not start with a digit unless the name is a unique one (starting with a colon).
+     */
+    static boolean isNameNamespace(final String namespace) {
+        final int length = namespace.length();
+        if (length == 0 || length > 255) {
+            return false;
+        }
+        final boolean unique = namespace.charAt(0) == ':';
+        boolean elementStart = true;
+        for (int i = unique ? 1 : 0; i < length; i++) {
+            final char c = namespace.charAt(i);
+            if (c == '.') {
+                if (elementStart) {
+                    return false;
+                }
+                elementStart = true;
+                continue;
+            }
+            final boolean digit = c >= '0' && c <= '9';
+            if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || digit || c == '_' || c == '-')
+                    || digit && elementStart && !unique) {
+                return false;
+            }
+            elementStart = false;
+        }
+        return !elementStart;
+    }
+
+
+    /**
+     * A set of requested rules that only differ in one single dimension (path or arg0).
+     */
+    private final class Group {
+
+        private final MatchRule shape;
+        private final boolean byPath;
+
+        /** Values of the varying dimension of all member rules. */
+        private final Set<String> values = new HashSet<>();
+
+        /** Common prefix of all values, only maintained while the group is consolidated. */
+        private String namespace;
+
+        /** The consolidated rule, {@code null} if the member rules are installed individually. */
+        private MatchRule consolidated;
+
+        private Group(final MatchRule shape, final boolean byPath) {
+            super();
+            this.shape = shape;
+            this.byPath = byPath;
+        }
+
+        private String valueOf(final MatchRule rule) {
+            return this.byPath ? rule.getPath() : rule.getArgs().get(0);
+        }
+
+        private MatchRule member(final String value) {
+            return this.byPath
+                    ? this.shape.toBuilder().path(value).build()
+                    : this.shape.toBuilder().arg(0, value).build();
+        }
+
+        private boolean contains(final String namespace, final String value) {
+            return namespace == null
+                    || (this.byPath ? MatchRule.isInPathNamespace(value, namespace) : MatchRule.isInNameNamespace(value, namespace));
+        }
+
+        private String commonPrefix(final String namespace, final String value) {
+            if (namespace == null) {
+                return null;
+            }
+            return this.byPath ? commonPathPrefix(namespace, value) : commonNamePrefix(namespace, value);
+        }
+
+        private MatchRule consolidate(final String namespace) {
+            if (this.byPath) {
+                return this.shape.toBuilder().pathNamespace(namespace).build();
+            }
+            return namespace == null ? this.shape : this.shape.toBuilder().arg0Namespace(namespace).build();
+        }
+
+        private void add(final MatchRule rule) {
+
+            final String value = this.valueOf(rule);
+            this.values.add(value);
+
+            if (this.consolidated == null) {
+                if (this.values.size() <= MatchRuleRegistry.this.consolidationThreshold) {
+                    MatchRuleRegistry.this.install(rule);
+                    return;
+                }
+                // Threshold has been crossed: install the consolidated rule first, so that no message gets lost.
+                String namespace = value;
+                for (final String v: this.values) {
+                    namespace = this.commonPrefix(namespace, v);
+                }
+                this.namespace = namespace;
+                this.consolidated = this.consolidate(namespace);
+                MatchRuleRegistry.this.install(this.consolidated);
+                for (final String v: this.values) {
+                    if (!v.equals(value)) {
+                        MatchRuleRegistry.this.uninstall(this.member(v));
+                    }
+                }
+            } else if (!this.contains(this.namespace, value)) {
+                // Value lies outside of the current namespace: widen it.
+                final MatchRule previous = this.consolidated;
+                this.namespace = this.commonPrefix(this.namespace, value);
+                this.consolidated = this.consolidate(this.namespace);
+                MatchRuleRegistry.this.install(this.consolidated);
+                MatchRuleRegistry.this.uninstall(previous);
+            }
+
+        }
+
+        private void remove(final MatchRule rule) {
+
+            this.values.remove(this.valueOf(rule));
+
+            if (this.consolidated == null) {
+                MatchRuleRegistry.this.uninstall(rule);
+            } else if (this.values.size() <= MatchRuleRegistry.this.consolidationThreshold / 2) {
+                // Hysteresis: only expand the group again once it has shrunk considerably.
+                for (final String v: this.values) {
+                    MatchRuleRegistry.this.install(this.member(v));
+                }
+                MatchRuleRegistry.this.uninstall(this.consolidated);
+                this.consolidated = null;
+                this.namespace = null;
+            }
+
+            if (this.values.isEmpty()) {
+                (this.byPath ? MatchRuleRegistry.this.pathGroups : MatchRuleRegistry.this.arg0Groups).remove(this.shape);
+            }
+
+        }
+
+    }
+
+    /**
+     * Immutable, compiled snapshot of all consolidated groups that is used for client-side filtering.
+     */
+    private static final class Matcher {
+
+        private final List<MatchRule> consolidated = new ArrayList<>();
+        private final List<Boolean> byPath = new ArrayList<>();
+        private final List<Set<String>> values = new ArrayList<>();
+        private final List<MatchRule> exact = new ArrayList<>();
+
+        private Matcher(final MatchRuleRegistry registry) {
+            super();
+            this.compile(registry.pathGroups.values());
+            this.compile(registry.arg0Groups.values());
+            if (!this.consolidated.isEmpty()) {
+                // Rules that are also requested on their own, not only as the consolidated rule of a group.
+                final Map<MatchRule, Integer> groups = new HashMap<>();
+                for (final MatchRule rule: this.consolidated) {
+                    final Integer count = groups.get(rule);
+                    groups.put(rule, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+                }
+                for (final Map.Entry<MatchRule, Integer> rule: registry.installed.entrySet()) {
+                    final Integer count = groups.get(rule.getKey());
+                    if (count == null || rule.getValue().intValue() > count.intValue()) {
+                        this.exact.add(rule.getKey());
+                    }
+                }
+            }
+        }
+
+        private void compile(final Collection<Group> groups) {
+            for (final Group group: groups) {
+                if (group.consolidated != null) {
+                    this.consolidated.add(group.consolidated);
+                    this.byPath.add(Boolean.valueOf(group.byPath));
+                    this.values.add(new HashSet<>(group.values));
+                }
+            }
+        }
+
+        /**
+         * Senders are not verified here: well-known names cannot be resolved by the registry, and the routing
+         * index of the dispatcher checks the sender of every subscription anyway.
+         */
+        private boolean accepts(final Message message) {
+            if (this.consolidated.isEmpty() || message.getDestination() != null) {
+                return true;
+            }
+            boolean hit = false;
+            for (int i = 0; i < this.consolidated.size(); i++) {
+                if (!this.consolidated.get(i).matchesIgnoringSender(message)) {
+                    continue;
+                }
+                hit = true;
+                final String value = this.byPath.get(i).booleanValue() ? message.getPath() : message.getStringArgument(0);
+                if (this.values.get(i).contains(value)) {
+                    return true;
+                }
+            }
+            if (!hit) {
+                return true;
+            }
+            for (final MatchRule rule: this.exact) {
+                if (rule.matchesIgnoringSender(message)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+}
@@ -32,6 +32,24 @@ public final class Message implements Iterable<Message.MethodArgument<?>> {
     @Internal
     final Pointer<_Message> _peer;
 
+    /** Decoded arguments, once they have been requested by {@link #getArguments()}. */
+    @Internal
+    private volatile List<Object> arguments;
+
+    /** Marks a header field that has not been read from the native message yet. */
+    @Internal
+    private static final String UNREAD = new String();
+
+    // Header fields that are needed to route a message, read at most once (unless they are being changed).
+    @Internal
+    private volatile String path = UNREAD;
+    @Internal
+    private volatile String _interface = UNREAD;
+    @Internal
+    private volatile String member = UNREAD;
+    @Internal
+    private volatile String sender = UNREAD;
+
     @Internal
     Message(final Pointer<_Message> _message) {
         super();
@@ -119,6 +137,15 @@ public final class Message implements Iterable<Message.MethodArgument<?>> {
         return message;
     }
 
+    /**
+     * Creates an error reply from names and messages that have been encoded in advance, e.g. to refuse calls
+     * at the lowest possible cost.
+     */
+    @Internal
+    static Message _newError(final Message replyTo, final Pointer<Byte> _errorName, final Pointer<Byte> _errorMessage) {
+        return new Message(DBus._messageNewError(replyTo._peer, _errorName, _errorMessage).as(_Message.class).get());
+    }
+
     /**
      * Gets the type of a message.
      * <p>Types include {@link Type#METHOD_CALL}, {@link Type#METHOD_RETURN}, {@link Type#ERROR},
@@ -138,6 +165,32 @@ public final class Message implements Iterable<Message.MethodArgument<?>> {
         return DBus._messageGetType(this._peer) == Type.ERROR.value();
     }
 
+    /**
+     * Checks whether the message is a method call with the given interface and member fields.
+     * @param _interface
+     *         The interface name.
+     * @param method
+     *         The method name.
+     * @return
+     *         {@code true} if the message is a matching method call, {@code false} otherwise.
+     */
+    public boolean isMethodCall(final String _interface, final String method) {
+        return DBus._messageIsMethodCall(this._peer, pointerToCString(_interface), pointerToCString(method));
+    }
+
+    /**
+     * Checks whether the message is a signal with the given interface and member fields.
+     * @param _interface
+     *         The interface name.
+     * @param signalName
+     *         The signal name.
+     * @return
+     *         {@code true} if the message is a matching signal, {@code false} otherwise.
+     */
+    public boolean isSignal(final String _interface, final String signalName) {
+        return DBus._messageIsSignal(this._peer, pointerToCString(_interface), pointerToCString(signalName));
+    }
+
     /**
      * Sets the object path this message is being sent to (for {@link Type#METHOD_CALL}) or the one a signal is being
      * emitted from (for {@link Type#SIGNAL}).
@@ -149,7 +202,9 @@ public final class Message implements Iterable<Message.MethodArgument<?>> {
      *         {@code false} if not enough memory.
      */
     public boolean setPath(final String path) {
-        return DBus._messageSetPath(this._peer, pointerToCString(path));
+        final boolean set = DBus._messageSetPath(this._peer, pointerToCString(path));
+        this.path = UNREAD;
+        return set;
     }
 
     /**
@@ -162,7 +217,13 @@ public final class Message implements Iterable<Message.MethodArgument<?>> {
      * @return
      */
     public String getPath() {
-        return DBus._messageGetPath(this._peer).getCString();
+        String path = this.path;
+        if (path == UNREAD) {
+            final Pointer<Byte> _path = DBus._messageGetPath(this._peer);
+            path = _path == Pointer.NULL ? null : _path.getCString();
+            this.path = path;
+        }
+        return path;
     }
 
     /**
@@ -179,23 +240,39 @@ public final class Message implements Iterable<Message.MethodArgument<?>> {
     }
 
     public boolean setInterface(final String _interface) {
-        return DBus._messageSetInterface(this._peer, pointerToCString(_interface));
+        final boolean set = DBus._messageSetInterface(this._peer, pointerToCString(_interface));
+        this._interface = UNREAD;
+        return set;
     }
 
     public String getInterface() {
-        return DBus._messageGetInterface(this._peer).getCString();
+        String _interface = this._interface;
+        if (_interface == UNREAD) {
+            final Pointer<Byte> _value = DBus._messageGetInterface(this._peer);
+            _interface = _value == Pointer.NULL ? null : _value.getCString();
+            this._interface = _interface;
+        }
+        return _interface;
     }
+
     public boolean hasInterface(final String _interface) {
         return DBus._messageHasInterface(this._peer, pointerToCString(_interface));
     }
 
     public boolean setMember(final String member) {
-        return DBus._messageSetMember(this._peer, pointerToCString(member));
+        final boolean set = DBus._messageSetMember(this._peer, pointerToCString(member));
+        this.member = UNREAD;
+        return set;
     }
 
     public String getMember() {
-        final Pointer<Byte> _member = DBus._messageGetMember(this._peer);
-        return _member == Pointer.NULL ? null: _member.getCString();
+        String member = this.member;
+        if (member == UNREAD) {
+            final Pointer<Byte> _member = DBus._messageGetMember(this._peer);
+            member = _member == Pointer.NULL ? null: _member.getCString();
+            this.member = member;
+        }
+        return member;
     }
 
     public boolean hasMember(final String member) {
@@ -216,15 +293,32 @@ public final class Message implements Iterable<Message.MethodArgument<?>> {
     }
 
     public String getDestination() {
-        return DBus._messageGetDestination(this._peer).getCString();
+        final Pointer<Byte> _destination = DBus._messageGetDestination(this._peer);
+        return _destination == Pointer.NULL ? null : _destination.getCString();
+    }
+
+    public boolean hasDestination(final String destination) {
+        return DBus._messageHasDestination(this._peer, pointerToCString(destination));
     }
 
     public boolean setSender(final String sender) {
-        return DBus._messageSetSender(this._peer, pointerToCString(sender));
+        final boolean set = DBus._messageSetSender(this._peer, pointerToCString(sender));
+        this.sender = UNREAD;
+        return set;
     }
 
     public String getSender() {
-        return DBus._messageGetSender(this._peer).getCString();
+        String sender = this.sender;
+        if (sender == UNREAD) {
+            final Pointer<Byte> _sender = DBus._messageGetSender(this._peer);
+            sender = _sender == Pointer.NULL ? null : _sender.getCString();
+            this.sender = sender;
+        }
+        return sender;
+    }
+
+    public boolean hasSender(final String sender) {
+        return DBus._messageHasSender(this._peer, pointerToCString(sender));
     }
 
     public String getSignature() {
@@ -260,6 +354,7 @@ public final class Message implements Iterable<Message.MethodArgument<?>> {
     }
 
     public void addArguments(final MethodArgument... arguments) {
+        this.arguments = null;
         final Pointer<_MessageIter> _iter = DBus._new(_MessageIter.class, 1);
         DBus._messageIterInitAppend(this._peer, _iter);
         for (MethodArgument arg: arguments) {
@@ -275,6 +370,511 @@ public final class Message implements Iterable<Message.MethodArgument<?>> {
         }
     }
 
+    /**
+     * Appends a single argument of any type.
+     * <p>Basic types are taken from their boxed Java counterparts (any {@link Number} for numeric types),
+     * arrays from collections, dictionaries from maps, structs from lists and variants from {@link Variant}s
+     * (other values are wrapped using {@link Variant#of(Object)}).</p>
+     * <p>If the value does not fit the signature, all containers that have been opened are abandoned and the
+     * exception is rethrown; the message is incomplete afterwards and must not be sent.</p>
+     * @param signature
+     *         Signature of a single complete type, e.g. {@code s}, {@code ao} or {@code a{sa{sv}}}.
+     * @param value
+     *         The value to be appended.
+     */
+    public void addArgument(final String signature, final Object value) {
+        if (_completeTypeEnd(signature, 0) != signature.length()) {
+            throw new IllegalArgumentException("Not a single complete type: " + signature);
+        }
+        this.arguments = null;
+        final Pointer<_MessageIter> _iter = DBus._new(_MessageIter.class, 1);
+        try {
+            DBus._messageIterInitAppend(this._peer, _iter);
+            _append(_iter, signature, value);
+        } finally {
+            DBus._free(_iter);
+        }
+    }
+
+    /**
+     * Appends a string argument that has been encoded in advance, so the only work left is libdbus copying the
+     * buffer into the message.
+     * @param _string
+     *         Native, NUL terminated UTF-8 string. Must stay valid until this method returns.
+     */
+    @Internal
+    void _addStringArgument(final Pointer<Byte> _string) {
+        this.arguments = null;
+        final Pointer<_MessageIter> _iter = DBus._new(_MessageIter.class, 1);
+        try {
+            DBus._messageIterInitAppend(this._peer, _iter);
+            if (!DBus._messageIterAppendBasic(_iter, DBus.TYPE_STRING, pointerToPointer(_string))) {
+                throw new DBusException("Appending of argument failed.");
+            }
+        } finally {
+            DBus._free(_iter);
+        }
+    }
+
+    /**
+     * Returns the end index (exclusive) of the complete type that starts at the given index of a signature.
+     */
+    @Internal
+    static int _completeTypeEnd(final String signature, final int start) {
+        if (start >= signature.length()) {
+            throw new IllegalArgumentException("Incomplete signature: " + signature);
+        }
+        final char c = signature.charAt(start);
+        if (c == 'a') {
+            return _completeTypeEnd(signature, start + 1);
+        }
+        if (c != '(' && c != '{') {
+            return start + 1;
+        }
+        int depth = 0;
+        for (int i = start; i < signature.length(); i++) {
+            final char x = signature.charAt(i);
+            if (x == '(' || x == '{') {
+                depth++;
+            } else if ((x == ')' || x == '}') && --depth == 0) {
+                return i + 1;
+            }
+        }
+        throw new IllegalArgumentException("Unbalanced signature: " + signature);
+    }
+
+    @Internal
+    static void _append(final Pointer<_MessageIter> _iter, final String signature, final Object value) {
+
+        final char c = signature.charAt(0);
+        final boolean appended;
+        switch (c) {
+            case 's':
+            case 'o':
+            case 'g':
+                appended = DBus._messageIterAppendBasic(_iter, c, pointerToPointer(pointerToCString((String) value)));
+                break;
+            case 'b':
+                appended = DBus._messageIterAppendBasic(_iter, c, pointerToInt(((Boolean) value).booleanValue() ? 1 : 0));
+                break;
+            case 'y':
+                appended = DBus._messageIterAppendBasic(_iter, c, pointerToByte(((Number) value).byteValue()));
+                break;
+            case 'n':
+            case 'q':
+                appended = DBus._messageIterAppendBasic(_iter, c, pointerToShort(((Number) value).shortValue()));
+                break;
+            case 'i':
+            case 'u':
+            case 'h':
+                appended = DBus._messageIterAppendBasic(_iter, c, pointerToInt(((Number) value).intValue()));
+                break;
+            case 'x':
+            case 't':
+                appended = DBus._messageIterAppendBasic(_iter, c, pointerToLong(((Number) value).longValue()));
+                break;
+            case 'd':
+                appended = DBus._messageIterAppendBasic(_iter, c, pointerToDouble(((Number) value).doubleValue()));
+                break;
+            case 'v':
+                final Variant variant = Variant.of(value);
+                final Pointer<_MessageIter> _variant = _open(_iter, DBus.TYPE_VARIANT, variant.getSignature());
+                boolean completed = false;
+                try {
+                    _append(_variant, variant.getSignature(), variant.getValue());
+                    completed = true;
+                } finally {
+                    _close(_iter, _variant, completed);
+                }
+                return;
+            case 'a':
+                _appendArray(_iter, signature.substring(1), value);
+                return;
+            case '(':
+                final Pointer<_MessageIter> _struct = _open(_iter, DBus.TYPE_STRUCT, null);
+                boolean structCompleted = false;
+                try {
+                    final Iterator<?> members = ((List<?>) value).iterator();
+                    for (int i = 1; signature.charAt(i) != ')'; i = _completeTypeEnd(signature, i)) {
+                        _append(_struct, signature.substring(i, _completeTypeEnd(signature, i)), members.next());
+                    }
+                    structCompleted = true;
+                } finally {
+                    _close(_iter, _struct, structCompleted);
+                }
+                return;
+            default:
+                throw new IllegalArgumentException("Unsupported signature: " + signature);
+        }
+        if (!appended) {
+            throw new DBusException("Appending of argument failed.");
+        }
+
+    }
+
+    @Internal
+    private static void _appendArray(final Pointer<_MessageIter> _iter, final String elementSignature, final Object value) {
+        final Pointer<_MessageIter> _array = _open(_iter, DBus.TYPE_ARRAY, elementSignature);
+        boolean completed = false;
+        try {
+            if (elementSignature.charAt(0) == '{') {
+                final int keyEnd = _completeTypeEnd(elementSignature, 1);
+                final String keySignature = elementSignature.substring(1, keyEnd);
+                final String valueSignature = elementSignature.substring(keyEnd, elementSignature.length() - 1);
+                for (final Map.Entry<?, ?> entry: ((Map<?, ?>) value).entrySet()) {
+                    final Pointer<_MessageIter> _entry = _open(_array, DBus.TYPE_DICT_ENTRY, null);
+                    boolean entryCompleted = false;
+                    try {
+                        _append(_entry, keySignature, entry.getKey());
+                        _append(_entry, valueSignature, entry.getValue());
+                        entryCompleted = true;
+                    } finally {
+                        _close(_array, _entry, entryCompleted);
+                    }
+                }
+            } else {
+                for (final Object element: (Collection<?>) value) {
+                    _append(_array, elementSignature, element);
+                }
+            }
+            completed = true;
+        } finally {
+            _close(_iter, _array, completed);
+        }
+    }
+
+    @Internal
+    private static Pointer<_MessageIter> _open(final Pointer<_MessageIter> _iter, final int type, final String containedSignature) {
+        final Pointer<_MessageIter> _sub = DBus._new(_MessageIter.class, 1);
+        final Pointer<Byte> _signature = containedSignature == null ? null : pointerToCString(containedSignature);
+        if (!DBus._messageIterOpenContainer(_iter, type, _signature, _sub)) {
+            DBus._free(_sub);
+            throw new DBusException("Opening of container failed.");
+        }
+        return _sub;
+    }
+
+    /**
+     * Closes a container that has been opened by {@link #_open(Pointer, int, String)}, or abandons it if its
+     * contents could not be appended completely. The sub-iterator is freed in any case.
+     */
+    @Internal
+    private static void _close(final Pointer<_MessageIter> _iter, final Pointer<_MessageIter> _sub,
+                               final boolean completed) {
+        try {
+            if (!completed) {
+                DBus._messageIterAbandonContainer(_iter, _sub);
+            } else if (!DBus._messageIterCloseContainer(_iter, _sub)) {
+                throw new DBusException("Closing of container failed.");
+            }
+        } finally {
+            DBus._free(_sub);
+        }
+    }
+
+    /**
+     * Reads a single string-like argument (string, object path or signature) without decoding any of the
+     * other arguments of this message.
+     * @param index
+     *         Zero-based index of the argument.
+     * @return
+     *         The value of the argument or {@code null} if the message does not contain a string-like argument
+     *         at the given position.
+     */
+    public String getStringArgument(final int index) {
+        final List<Object> arguments = this.arguments;
+        if (arguments != null) {
+            final Object value = index < arguments.size() ? arguments.get(index) : null;
+            return value instanceof String ? (String) value : null;
+        }
+        final Pointer<_MessageIter> _iter = DBus._new(_MessageIter.class, 1);
+        try {
+            if (!DBus._messageIterInit(this._peer, _iter)) {
+                return null;
+            }
+            for (int i = 0; i < index; i++) {
+                if (!DBus._messageIterNext(_iter)) {
+                    return null;
+                }
+            }
+            final int _type = DBus._messageIterGetArgType(_iter);
+            if (_type != DBus.TYPE_STRING && _type != DBus.TYPE_OBJECT_PATH && _type != DBus.TYPE_SIGNATURE) {
+                return null;
+            }
+            final Pointer<Pointer<Byte>> _value = DBus._new(Pointer.class, 1);
+            DBus._messageIterGetBasic(_iter, _value);
+            final String value = _value.get().getCString();
+            DBus._free(_value);
+            return value;
+        } finally {
+            DBus._free(_iter);
+        }
+    }
+
+    /**
+     * Reads and decodes a single argument of any type.
+     * <p>Basic types are returned as their boxed Java counterparts (unsigned types are returned as the signed
+     * Java type of the same size), arrays and structs as lists, dictionaries as maps (preserving the order of
+     * the entries) and variants as their contained value.</p>
+     * @param index
+     *         Zero-based index of the argument.
+     * @return
+     *         The decoded argument or {@code null} if the message does not contain an argument at the given position.
+     */
+    public Object getArgument(final int index) {
+        final List<Object> arguments = this.arguments;
+        if (arguments != null) {
+            return index < arguments.size() ? arguments.get(index) : null;
+        }
+        return this._argument(index, false);
+    }
+
+    /**
+     * Decodes a single argument like {@link #getArgument(int)}, but returns variants (at any depth) as
+     * {@link Variant}s carrying their original signature, so the value can be appended to another message without
+     * changing its D-Bus types. Never answered from the snapshot.
+     * @param index
+     *         Zero-based index of the argument.
+     * @return
+     *         The decoded argument or {@code null} if the message does not contain an argument at the given position.
+     */
+    @Internal
+    Object getTypedArgument(final int index) {
+        return this._argument(index, true);
+    }
+
+    @Internal
+    private Object _argument(final int index, final boolean variants) {
+        final Pointer<_MessageIter> _iter = DBus._new(_MessageIter.class, 1);
+        try {
+            if (!DBus._messageIterInit(this._peer, _iter)) {
+                return null;
+            }
+            for (int i = 0; i < index; i++) {
+                if (!DBus._messageIterNext(_iter)) {
+                    return null;
+                }
+            }
+            return _value(_iter, variants);
+        } finally {
+            DBus._free(_iter);
+        }
+    }
+
+    /**
+     * Decodes all arguments at once.
+     * <p>The arguments are decoded only once per message: the result is a deeply immutable snapshot (including
+     * all nested lists and maps) that is returned to every subsequent caller and may be shared among threads.
+     * Once the snapshot exists, {@link #getArgument(int)} and its typed variants are answered from it as well.
+     * Appending arguments discards the snapshot.</p>
+     * @return
+     *         Unmodifiable list of the decoded arguments, in the same representation as {@link #getArgument(int)}.
+     */
+    public List<Object> getArguments() {
+        List<Object> arguments = this.arguments;
+        if (arguments != null) {
+            return arguments;
+        }
+        arguments = _arguments(this._peer);
+        this.arguments = arguments;
+        return arguments;
+    }
+
+    /**
+     * Decodes all arguments of a native message into a deeply immutable list (see {@link #getArguments()}).
+     */
+    @Internal
+    static List<Object> _arguments(final Pointer<_Message> _message) {
+        final List<Object> decoded = new ArrayList<>();
+        final Pointer<_MessageIter> _iter = DBus._new(_MessageIter.class, 1);
+        try {
+            if (DBus._messageIterInit(_message, _iter)) {
+                do {
+                    decoded.add(_freeze(_value(_iter, false)));
+                } while (DBus._messageIterNext(_iter));
+            }
+        } finally {
+            DBus._free(_iter);
+        }
+        return Collections.unmodifiableList(decoded);
+    }
+
+    /**
+     * Reads an array of strings (signature {@code as}, {@code ao} or {@code ag}).
+     * @param index
+     *         Zero-based index of the argument.
+     * @return
+     *         The strings or {@code null} if the message does not contain an array of strings at the given position.
+     */
+    public List<String> getStringArrayArgument(final int index) {
+        final Object value = this.getArgument(index);
+        if (!(value instanceof List)) {
+            return null;
+        }
+        final List<String> strings = new ArrayList<>(((List<?>) value).size());
+        for (final Object element: (List<?>) value) {
+            if (!(element instanceof String)) {
+                return null;
+            }
+            strings.add((String) element);
+        }
+        return strings;
+    }
+
+    /**
+     * Reads a dictionary with string keys, e.g. a property map with the signature {@code a{sv}}.
+     * @param index
+     *         Zero-based index of the argument.
+     * @return
+     *         The dictionary or {@code null} if the message does not contain a dictionary with string keys
+     *         at the given position.
+     */
+    public Map<String, Object> getDictionaryArgument(final int index) {
+        final Object value = this.getArgument(index);
+        if (!(value instanceof Map)) {
+            return null;
+        }
+        final Map<String, Object> dictionary = new LinkedHashMap<>();
+        for (final Map.Entry<?, ?> entry: ((Map<?, ?>) value).entrySet()) {
+            if (!(entry.getKey() instanceof String)) {
+                return null;
+            }
+            dictionary.put((String) entry.getKey(), entry.getValue());
+        }
+        return dictionary;
+    }
+
+    /**
+     * Decodes the value the given iterator currently points to.
+     * @param variants
+     *         {@code true} to return variants as {@link Variant}s instead of their contained value.
+     */
+    @Internal
+    static Object _value(final Pointer<_MessageIter> _iter, final boolean variants) {
+
+        final int _type = DBus._messageIterGetArgType(_iter);
+        switch (_type) {
+            case DBus.TYPE_INVALID:
+                return null;
+            case DBus.TYPE_STRING:
+            case DBus.TYPE_OBJECT_PATH:
+            case DBus.TYPE_SIGNATURE:
+                final Pointer<Pointer<Byte>> _string = DBus._new(Pointer.class, 1);
+                DBus._messageIterGetBasic(_iter, _string);
+                final String string = _string.get().getCString();
+                DBus._free(_string);
+                return string;
+            case DBus.TYPE_VARIANT:
+            case DBus.TYPE_ARRAY:
+            case DBus.TYPE_STRUCT:
+                return _container(_type, _iter, variants);
+            default:
+                break;
+        }
+
+        // Fixed types: the value is written to the beginning of a sufficiently large buffer.
+        final Pointer<Long> _fixed = DBus._new0(long.class, 1);
+        try {
+            DBus._messageIterGetBasic(_iter, _fixed);
+            switch (_type) {
+                case DBus.TYPE_BOOLEAN:
+                    return _fixed.getInt() != 0 ? Boolean.TRUE : Boolean.FALSE;
+                case DBus.TYPE_BYTE:
+                    return Byte.valueOf(_fixed.getByte());
+                case DBus.TYPE_INT16:
+                case DBus.TYPE_UINT16:
+                    return Short.valueOf(_fixed.getShort());
+                case DBus.TYPE_INT32:
+                case DBus.TYPE_UINT32:
+                case DBus.TYPE_UNIX_FD:
+                    return Integer.valueOf(_fixed.getInt());
+                case DBus.TYPE_INT64:
+                case DBus.TYPE_UINT64:
+                    return Long.valueOf(_fixed.getLong());
+                case DBus.TYPE_DOUBLE:
+                    return Double.valueOf(_fixed.getDouble());
+                default:
+                    throw new IllegalStateException("Unknown argument type: " + _type);
+            }
+        } finally {
+            DBus._free(_fixed);
+        }
+
+    }
+
+    /**
+     * Makes the lists and maps of a decoded value unmodifiable.
+     */
+    @Internal
+    private static Object _freeze(final Object value) {
+        if (value instanceof List) {
+            final List<?> list = (List<?>) value;
+            final List<Object> frozen = new ArrayList<>(list.size());
+            for (final Object element: list) {
+                frozen.add(_freeze(element));
+            }
+            return Collections.unmodifiableList(frozen);
+        }
+        if (value instanceof Map) {
+            final Map<Object, Object> frozen = new LinkedHashMap<>();
+            for (final Map.Entry<?, ?> entry: ((Map<?, ?>) value).entrySet()) {
+                frozen.put(entry.getKey(), _freeze(entry.getValue()));
+            }
+            return Collections.unmodifiableMap(frozen);
+        }
+        return value;
+    }
+
+    @Internal
+    private static Object _container(final int _type, final Pointer<_MessageIter> _iter, final boolean variants) {
+        final Pointer<_MessageIter> _sub = DBus._new(_MessageIter.class, 1);
+        try {
+            DBus._messageIterRecurse(_iter, _sub);
+            if (_type == DBus.TYPE_VARIANT) {
+                if (!variants) {
+                    return _value(_sub, false);
+                }
+                final Pointer<Byte> _signature = DBus._messageIterGetSignature(_sub);
+                try {
+                    return new Variant(_signature.getCString(), _value(_sub, true));
+                } finally {
+                    DBus._free(_signature);
+                }
+            }
+            if (_type == DBus.TYPE_ARRAY && DBus._messageIterGetElementType(_iter) == DBus.TYPE_DICT_ENTRY) {
+                final Map<Object, Object> map = new LinkedHashMap<>();
+                final Pointer<_MessageIter> _entry = DBus._new(_MessageIter.class, 1);
+                try {
+                    while (DBus._messageIterGetArgType(_sub) != DBus.TYPE_INVALID) {
+                        DBus._messageIterRecurse(_sub, _entry);
+                        final Object key = _value(_entry, variants);
+                        DBus._messageIterNext(_entry);
+                        map.put(key, _value(_entry, variants));
+                        DBus._messageIterNext(_sub);
+                    }
+                } finally {
+                    DBus._free(_entry);
+                }
+                return map;
+            }
+            final List<Object> list = new ArrayList<>();
+            while (DBus._messageIterGetArgType(_sub) != DBus.TYPE_INVALID) {
+                list.add(_value(_sub, variants));
+                DBus._messageIterNext(_sub);
+            }
+            return list;
+        } finally {
+            DBus._free(_sub);
+        }
+    }
+
+    /**
+     * Iterates over the arguments of this message along with their D-Bus types.
+     * <p>Unlike {@link #getArguments()} the arguments are read from the native message on every iteration; the
+     * decoded snapshot does not retain their D-Bus types and is therefore never used here.</p>
+     * @return
+     *         Iterator over the arguments.
+     */
     @Override
     public Iterator<MethodArgument<?>> iterator() {
 
@@ -336,6 +936,20 @@ public final class Message implements Iterable<Message.MethodArgument<?>> {
 
     }
 
+    /**
+     * Copies headers and arguments of this message into an immutable on-heap snapshot.
+     * <p>This message is left untouched and remains usable, so signals that are shared among several subscribers
+     * may be detached by any of them. Its native memory is still only released once this object has been
+     * finalized. Messages that are to be queued or cached should rather be received as snapshots right away
+     * (see {@link Connection#addDetachedFilter(DetachedMessageHandler)}), which never keeps the native message
+     * alive.</p>
+     * @return
+     *         The snapshot.
+     */
+    public DetachedMessage detach() {
+        return new DetachedMessage(this._peer, this.getArguments());
+    }
+
     @Override
     public void finalize() throws Throwable {
         DBus._messageUnref(_peer);
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+/**
+ * Callback that is being invoked for incoming messages, either as a message filter
+ * (see {@link Connection#addFilter(MessageHandler)}) or as the handler of an exported object path
+ * (see {@link Connection#registerObjectPath(String, MessageHandler)}).
+ * <p>The message passed to the handler holds its own reference to the underlying native message and
+ * thus may safely be retained after the handler has returned.</p>
+ * @author Benjamin P. Jung
+ */
+public interface MessageHandler {
+
+    /**
+     * Handles an incoming message.
+     * @param connection
+     *         Connection the message has been received on.
+     * @param message
+     *         The message to be handled.
+     * @return
+     *         {@link HandlerResult#HANDLED} if no further handlers shall be invoked,
+     *         {@link HandlerResult#NOT_YET_HANDLED} otherwise.
+     */
+    HandlerResult handleMessage(Connection connection, Message message);
+
+}
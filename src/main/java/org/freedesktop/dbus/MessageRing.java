@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import org.bridj.Pointer;
+import org.freedesktop.dbus.DBus._Connection;
+import org.freedesktop.dbus.DBus._Message;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands the incoming messages of a connection from a single I/O thread to a pool of workers.
+ * <p>The I/O thread (the pump) reads from the connection and pops the received messages straight into a
+ * preallocated ring of slots; the workers take them out of the ring and pass them to a {@link MessageHandler}.
+ * Producer and workers only coordinate through a few sequence counters, each on a cache line of its own, so the
+ * hand-off takes no locks, and the ring itself allocates nothing once it has been created; every message still
+ * costs the Java objects that wrap it (its native pointer and the {@link Message} passed to the handler). Both
+ * sides move messages in batches: the pump publishes all messages it could pop with a single write, and a worker
+ * claims up to a batch of published messages at once.</p>
+ * <p>A side that has to wait (the pump for free slots or incoming data, a worker for new messages) does so
+ * according to the configured {@link WaitStrategy}. The pump polls the connection without ever blocking in a read:
+ * libdbus lets only one thread at a time do I/O on a connection, so a blocking read would hold up the replies
+ * the workers send meanwhile.</p>
+ * <p>Method calls the handler does not handle are answered with {@code org.freedesktop.DBus.Error.UnknownMethod}.
+ * Workers claim batches concurrently, so messages are processed in no particular order, not even those of a
+ * single sender; use a single worker if order matters.</p>
+ * <p>The ring takes over reading from the connection and pops messages without dispatching them, so the
+ * connection must not be dispatched by anybody else, and everything that relies on dispatching stops working
+ * while the ring is running:</p>
+ * <ul>
+ *     <li>filters (see {@link Connection#addFilter(MessageHandler)}, e.g. a {@link SignalDispatcher}) and object
+ *     path handlers (see {@link Connection#registerObjectPath(String, MessageHandler)}) registered on the
+ *     connection are never invoked;</li>
+ *     <li>replies to asynchronous calls never reach their pending calls, and blocking calls
+ *     ({@link Connection#sendWithReply(Message, int)}) may time out, as the pump may pop their reply first.</li>
+ * </ul>
+ * @author Benjamin P. Jung
+ */
+public class MessageRing implements AutoCloseable {
+
+    /** Default number of slots. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    /** Default maximum number of messages that are published or claimed at once. */
+    public static final int DEFAULT_BATCH_SIZE = 32;
+
+    private static final int SPIN_TRIES = 100;
+    private static final long PARK_NANOS = 50000L;
+    private static final AtomicInteger RING_NUMBER = new AtomicInteger();
+
+    private final Connection connection;
+    private final MessageHandler handler;
+    private final WaitStrategy waitStrategy;
+    private final int batchSize;
+    private final int mask;
+    private final Object[] slots;
+
+    /** Last sequence published by the pump. */
+    private final Sequence cursor = new Sequence();
+    /** Last sequence claimed by any worker. */
+    private final Sequence claimed = new Sequence();
+    /** Per worker: last sequence below which the worker does not access any slot anymore. */
+    private final Sequence[] processed;
+
+    private final Thread[] workers;
+    private volatile boolean closed;
+    private volatile boolean stopped;
+
+
+    /**
+     * Creates a new ring with the default size and batch size and starts pumping.
+     * @param connection
+     *         The connection whose messages shall be processed.
+     * @param handler
+     *         Handler all messages are passed to.
+     * @param workers
+     *         Number of worker threads.
+     * @param waitStrategy
+     *         How to wait for free slots and new messages.
+     */
+    public MessageRing(final Connection connection, final MessageHandler handler, final int workers,
+                       final WaitStrategy waitStrategy) {
+        this(connection, handler, workers, waitStrategy, DEFAULT_SIZE, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a new ring and starts pumping.
+     * @param connection
+     *         The connection whose messages shall be processed.
+     * @param handler
+     *         Handler all messages are passed to.
+     * @param workers
+     *         Number of worker threads.
+     * @param waitStrategy
+     *         How to wait for free slots and new messages.
+     * @param size
+     *         Number of slots, a power of two.
+     * @param batchSize
+     *         Maximum number of messages that are published or claimed at once.
+     */
+    public MessageRing(final Connection connection, final MessageHandler handler, final int workers,
+                       final WaitStrategy waitStrategy, final int size, final int batchSize) {
+        super();
+        if (workers <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("At least one worker thread and a positive batch size are required.");
+        }
+        if (size <= 0 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("The size must be a power of two.");
+        }
+        this.connection = connection;
+        this.handler = handler;
+        this.waitStrategy = waitStrategy;
+        this.batchSize = batchSize;
+        this.mask = size - 1;
+        this.slots = new Object[size];
+        this.processed = new Sequence[workers];
+        this.workers = new Thread[workers];
+
+        final int ring = RING_NUMBER.incrementAndGet();
+        for (int i = 0; i < workers; i++) {
+            final Sequence sequence = new Sequence();
+            this.processed[i] = sequence;
+            this.workers[i] = this.daemon("D-Bus ring " + ring + "-" + (i + 1), new Runnable() {
+                @Override
+                public void run() {
+                    work(sequence);
+                }
+            });
+        }
+        final Thread pump = this.daemon("D-Bus ring " + ring + " pump", new Runnable() {
+            @Override
+            public void run() {
+                pump();
+            }
+        });
+        for (final Thread worker: this.workers) {
+            worker.start();
+        }
+        pump.start();
+    }
+
+
+    /**
+     * Returns the number of messages that have been received but not been claimed by a worker yet.
+     * @return
+     *         The number of waiting messages.
+     */
+    public int getBacklog() {
+        return (int) (this.cursor.get() - this.claimed.get());
+    }
+
+    /**
+     * Returns whether the pump has stopped, because the ring has been closed or the connection has been lost.
+     * @return
+     *         {@code true} if no more messages are being received.
+     */
+    public boolean isStopped() {
+        return this.stopped;
+    }
+
+    /**
+     * Stops receiving messages; messages that have been received already are still processed.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MessageRing (%d slots, %d workers, %s)",
+                this.slots.length, this.workers.length, this.waitStrategy);
+    }
+
+
+    @Internal
+    private Thread daemon(final String name, final Runnable task) {
+        final Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    @Internal
+    private void pump() {
+        final Pointer<_Connection> _connection = this.connection._peer;
+        final int size = this.slots.length;
+        long next = 0L;
+        long gate = -1L;
+        int idle = 0;
+        boolean polled = false;
+        try {
+            while (!this.closed) {
+                if (next - size > gate) {
+                    gate = this.gate();
+                    if (next - size > gate) {
+                        idle = this.waitStrategy.idle(idle);
+                        continue;
+                    }
+                }
+                final long limit = Math.min(next + this.batchSize, gate + size + 1);
+                long sequence = next;
+                while (sequence < limit) {
+                    final Pointer<_Message> _message = DBus._connectionPopMessage(_connection);
+                    if (_message == null) {
+                        break;
+                    }
+                    this.slots[(int) sequence & this.mask] = _message;
+                    sequence++;
+                }
+                if (sequence > next) {
+                    next = sequence;
+                    this.cursor.publish(next - 1);
+                    idle = 0;
+                    polled = false;
+                } else if (!polled) {
+                    // Reads and writes whatever is possible right now, without waiting for the socket.
+                    if (!DBus._connectionReadWrite(_connection, 0)) {
+                        // Disconnected and the disconnect message has been popped already.
+                        return;
+                    }
+                    polled = true;
+                } else {
+                    // Nothing has arrived since the last poll.
+                    idle = this.waitStrategy.idle(idle);
+                    polled = false;
+                }
+            }
+        } finally {
+            this.stopped = true;
+        }
+    }
+
+    /**
+     * Returns the highest sequence all workers are done with, i.e. whose slot may be reused.
+     */
+    @Internal
+    private long gate() {
+        long gate = this.claimed.get();
+        for (final Sequence sequence: this.processed) {
+            gate = Math.min(gate, sequence.get());
+        }
+        return gate;
+    }
+
+    @Internal
+    @SuppressWarnings("unchecked")
+    private void work(final Sequence processed) {
+        int idle = 0;
+        while (true) {
+            final long current = this.claimed.get();
+            // Everything this worker has claimed before has been processed.
+            processed.publish(current);
+            final boolean stopped = this.stopped;
+            final long available = this.cursor.get();
+            if (available <= current) {
+                if (stopped) {
+                    return;
+                }
+                idle = this.waitStrategy.idle(idle);
+                continue;
+            }
+            final long end = Math.min(available, current + this.batchSize);
+            if (!this.claimed.compareAndSet(current, end)) {
+                continue;
+            }
+            idle = 0;
+            for (long sequence = current + 1; sequence <= end; sequence++) {
+                final int index = (int) sequence & this.mask;
+                final Pointer<_Message> _message = (Pointer<_Message>) this.slots[index];
+                this.slots[index] = null;
+                this.dispatch(new Message(_message));
+            }
+        }
+    }
+
+    @Internal
+    private void dispatch(final Message message) {
+        try {
+            final HandlerResult result = this.handler.handleMessage(this.connection, message);
+            if (result != HandlerResult.HANDLED && message.getType() == Message.Type.METHOD_CALL
+                    && !message.isNoReply()) {
+                this.connection.send(Message.newError(message, DBus.ERROR_UNKNOWN_METHOD,
+                        "Unknown method: " + message.getMember()));
+            }
+        } catch (final RuntimeException e) {
+            // A failing handler must not kill the worker.
+            final Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+
+
+    /**
+     * How the pump waits for free slots and incoming data, and the workers wait for new messages.
+     */
+    public static enum WaitStrategy {
+
+        /** Spins; lowest latency, but keeps a core busy per waiting thread. */
+        BUSY_SPIN {
+            @Override
+            int idle(final int counter) {
+                return counter + 1;
+            }
+        },
+
+        /** Spins for a while and yields the processor afterwards. */
+        YIELD {
+            @Override
+            int idle(final int counter) {
+                if (counter < SPIN_TRIES) {
+                    return counter + 1;
+                }
+                Thread.yield();
+                return counter;
+            }
+        },
+
+        /** Spins, yields and eventually parks for short periods; the least CPU while idle. */
+        PARK {
+            @Override
+            int idle(final int counter) {
+                if (counter < SPIN_TRIES) {
+                    return counter + 1;
+                }
+                if (counter < 2 * SPIN_TRIES) {
+                    Thread.yield();
+                    return counter + 1;
+                }
+                LockSupport.parkNanos(PARK_NANOS);
+                return counter;
+            }
+        };
+
+        /**
+         * Waits once.
+         * @param counter
+         *         Number of times the caller has been waiting in a row.
+         * @return
+         *         The counter to pass on the next call.
+         */
+        abstract int idle(int counter);
+
+    }
+
+    /**
+     * A sequence counter that is padded to occupy a cache line of its own.
+     */
+    @Internal
+    @SuppressWarnings("unused")
+    static final class Sequence {
+
+        private static final AtomicLongFieldUpdater<Sequence> VALUE =
+                AtomicLongFieldUpdater.newUpdater(Sequence.class, "value");
+
+        private long p1, p2, p3, p4, p5, p6, p7;
+        private volatile long value = -1L;
+        private long p9, p10, p11, p12, p13, p14, p15;
+
+        long get() {
+            return this.value;
+        }
+
+        /**
+         * Sets the value without a full fence; stores before are visible to whoever reads the new value.
+         */
+        void publish(final long value) {
+            VALUE.lazySet(this, value);
+        }
+
+        boolean compareAndSet(final long expected, final long value) {
+            return VALUE.compareAndSet(this, expected, value);
+        }
+
+    }
+
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-memory mirror of the name ownership on the bus.
+ * <p>The cache is seeded by a single {@code ListNames} call followed by one pipelined {@code GetNameOwner} call
+ * per well-known name, and is afterwards kept up to date by the {@code NameOwnerChanged} signal. Thus questions
+ * like "does this name have an owner" or "which unique name owns this well-known name" are answered by a single
+ * hash lookup instead of a round trip to the bus daemon.</p>
+ * <p>The subscription to {@code NameOwnerChanged} is made before the sweep is issued, and names that change
+ * while the sweep is in flight keep the value reported by the signal. Like all signals, the updates are only
+ * being applied while the connection is being dispatched.</p>
+ * @author Benjamin P. Jung
+ */
+public class NameOwnerCache implements SignalHandler, AutoCloseable {
+
+    private static final String NAME_OWNER_CHANGED = "NameOwnerChanged";
+
+    /** Rule that matches all {@code NameOwnerChanged} signals of the bus daemon. */
+    public static final MatchRule NAME_OWNER_CHANGED_RULE = MatchRule.signal(DBus.INTERFACE_DBUS, NAME_OWNER_CHANGED)
+            .sender(DBus.SERVICE_DBUS)
+            .path(DBus.PATH_DBUS)
+            .build();
+
+    private final BusDriver driver;
+    private final SignalDispatcher.Subscription subscription;
+
+    /** name &rarr; unique name of the primary owner */
+    private final ConcurrentMap<String, String> owners = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /** Names that have been changed by a signal while a sweep was in flight. Guarded by {@code this}. */
+    private Set<String> changedDuringSweep;
+    private int pendingSweepReplies;
+    private volatile boolean seeded;
+
+
+    /**
+     * Creates a new cache and starts seeding it.
+     * @param driver
+     *         Client for the bus daemon.
+     * @param dispatcher
+     *         Dispatcher that delivers signals of the same connection.
+     */
+    public NameOwnerCache(final BusDriver driver, final SignalDispatcher dispatcher) {
+        super();
+        this.driver = driver;
+        this.subscription = dispatcher.subscribe(NAME_OWNER_CHANGED_RULE, this);
+        this.refresh();
+    }
+
+
+    /**
+     * Returns the unique name of the primary owner of the given name.
+     * @param name
+     *         A well-known or unique name.
+     * @return
+     *         The unique name of the owner or {@code null} if the name is not owned (or not known yet).
+     */
+    public String getOwner(final String name) {
+        return this.owners.get(name);
+    }
+
+    /**
+     * Checks whether the given name currently has an owner.
+     * @param name
+     *         A well-known or unique name.
+     * @return
+     *         {@code true} if the name has an owner.
+     */
+    public boolean hasOwner(final String name) {
+        return this.owners.containsKey(name);
+    }
+
+    /**
+     * Returns whether the initial sweep has completed.
+     * @return
+     *         {@code true} once all replies of the sweep have been applied.
+     */
+    public boolean isSeeded() {
+        return this.seeded;
+    }
+
+    public void addListener(final Listener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(final Listener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Re-reads the complete name ownership from the bus daemon (asynchronously); cached names that the bus does
+     * not list anymore are dropped. Not necessary during normal operation, but useful e.g. after a reconnect.
+     * Has no effect while a sweep is still in flight.
+     */
+    public synchronized void refresh() {
+        if (this.changedDuringSweep != null) {
+            return;
+        }
+        this.seeded = false;
+        this.changedDuringSweep = new HashSet<>();
+        this.pendingSweepReplies = 1;
+        this.driver.listNames().addListener(new PendingReply.Listener<List<String>>() {
+            @Override
+            public void completed(final PendingReply<List<String>> reply) {
+                namesListed(reply);
+            }
+        });
+    }
+
+    @Override
+    public void handleSignal(final Message signal) {
+        final String name = signal.getStringArgument(0);
+        final String oldOwner = signal.getStringArgument(1);
+        final String newOwner = signal.getStringArgument(2);
+        if (name == null || oldOwner == null || newOwner == null) {
+            return;
+        }
+        synchronized (this) {
+            if (this.changedDuringSweep != null) {
+                this.changedDuringSweep.add(name);
+            }
+            this.update(name, newOwner.isEmpty() ? null : newOwner);
+        }
+        for (final Listener listener: this.listeners) {
+            listener.ownerChanged(name, oldOwner.isEmpty() ? null : oldOwner, newOwner.isEmpty() ? null : newOwner);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.subscription.close();
+        this.owners.clear();
+    }
+
+
+    @Internal
+    private void namesListed(final PendingReply<List<String>> reply) {
+        final List<String> names;
+        try {
+            names = reply.get();
+        } catch (final Exception e) {
+            this.sweepReplyApplied();
+            return;
+        }
+        final Map<String, String> vanished = new HashMap<>();
+        synchronized (this) {
+            // Names that are not listed anymore (e.g. those of a previous bus after a reconnect) are dropped.
+            final Set<String> listed = new HashSet<>(names);
+            for (final Map.Entry<String, String> owner: this.owners.entrySet()) {
+                if (!listed.contains(owner.getKey()) && !this.changedDuringSweep.contains(owner.getKey())) {
+                    vanished.put(owner.getKey(), owner.getValue());
+                }
+            }
+            this.owners.keySet().removeAll(vanished.keySet());
+            for (final String name: names) {
+                if (this.changedDuringSweep.contains(name)) {
+                    continue;
+                }
+                if (name.startsWith(":")) {
+                    this.owners.put(name, name);
+                } else {
+                    this.pendingSweepReplies++;
+                    this.driver.getNameOwner(name).addListener(new PendingReply.Listener<String>() {
+                        @Override
+                        public void completed(final PendingReply<String> reply) {
+                            ownerReceived(name, reply);
+                        }
+                    });
+                }
+            }
+        }
+        for (final Map.Entry<String, String> owner: vanished.entrySet()) {
+            for (final Listener listener: this.listeners) {
+                listener.ownerChanged(owner.getKey(), owner.getValue(), null);
+            }
+        }
+        this.sweepReplyApplied();
+    }
+
+    @Internal
+    private void ownerReceived(final String name, final PendingReply<String> reply) {
+        String owner;
+        try {
+            owner = reply.get();
+        } catch (final Exception e) {
+            // Most likely the name has been released in the meantime (NameHasNoOwner).
+            owner = null;
+        }
+        final String previous;
+        synchronized (this) {
+            if (this.changedDuringSweep == null || this.changedDuringSweep.contains(name)) {
+                this.sweepReplyApplied();
+                return;
+            }
+            previous = this.owners.get(name);
+            this.update(name, owner);
+        }
+        if (owner == null ? previous != null : !owner.equals(previous)) {
+            for (final Listener listener: this.listeners) {
+                listener.ownerChanged(name, previous, owner);
+            }
+        }
+        this.sweepReplyApplied();
+    }
+
+    @Internal
+    private synchronized void sweepReplyApplied() {
+        if (--this.pendingSweepReplies == 0) {
+            this.changedDuringSweep = null;
+            this.seeded = true;
+        }
+    }
+
+    @Internal
+    private void update(final String name, final String owner) {
+        if (owner == null) {
+            this.owners.remove(name);
+        } else {
+            this.owners.put(name, owner);
+        }
+    }
+
+
+    /**
+     * Listener that gets notified whenever the owner of a name changes.
+     * <p>Listeners are invoked on the thread that dispatches the connection.</p>
+     */
+    public static interface Listener {
+
+        /**
+         * Invoked for every {@code NameOwnerChanged} signal, whenever a sweep finds the cached owner of a
+         * well-known name to be different, and for every cached name a sweep no longer finds on the bus.
+         * @param name
+         *         The affected name.
+         * @param oldOwner
+         *         Unique name of the previous owner or {@code null} if the name has not been owned before.
+         * @param newOwner
+         *         Unique name of the new owner or {@code null} if the name has been released.
+         */
+        void ownerChanged(String name, String oldOwner, String newOwner);
+
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import org.bridj.Pointer;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Immutable perfect hash table that looks up names (members, interfaces, signatures) directly from the native,
+ * NUL terminated UTF-8 strings of a message header, so routing a message does not create a single
+ * {@link String}.
+ * <p>When the table is built a seed is searched for which no two names share a slot. A lookup thus hashes the
+ * native bytes once and compares them with the single candidate of their slot.</p>
+ * @param <T>
+ *         Type of the values.
+ * @author Benjamin P. Jung
+ */
+final class NameTable<T> {
+
+    @Internal
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int FNV_OFFSET = 0x811c9dc5;
+    private static final int FNV_PRIME = 0x01000193;
+    private static final int MAX_SEEDS_PER_SIZE = 256;
+
+    private final byte[][] keys;
+    private final Object[] values;
+    private final int mask;
+    private final int seed;
+
+    /**
+     * Builds the table.
+     * @param entries
+     *         name &rarr; value
+     */
+    NameTable(final Map<String, T> entries) {
+        super();
+        final byte[][] names = new byte[entries.size()][];
+        final Object[] values = new Object[entries.size()];
+        int n = 0;
+        for (final Map.Entry<String, T> entry: entries.entrySet()) {
+            names[n] = entry.getKey().getBytes(UTF_8);
+            values[n++] = entry.getValue();
+        }
+
+        int size = Integer.highestOneBit(Math.max(1, n * 2 - 1)) << 1;
+        while (true) {
+            for (int seed = 0; seed < MAX_SEEDS_PER_SIZE; seed++) {
+                final byte[][] keys = new byte[size][];
+                if (place(names, keys, size - 1, seed)) {
+                    this.keys = keys;
+                    this.values = new Object[size];
+                    for (int i = 0; i < n; i++) {
+                        this.values[hash(names[i], seed) & (size - 1)] = values[i];
+                    }
+                    this.mask = size - 1;
+                    this.seed = seed;
+                    return;
+                }
+            }
+            size <<= 1;
+        }
+    }
+
+
+    /**
+     * Looks up a native name.
+     * @param _name
+     *         NUL terminated UTF-8 string, e.g. as returned by {@link DBus#_messageGetMember(Pointer)}.
+     * @return
+     *         The value or {@code null} if the name is {@code NULL} or unknown.
+     */
+    @SuppressWarnings("unchecked")
+    T get(final Pointer<Byte> _name) {
+        if (_name == Pointer.NULL) {
+            return null;
+        }
+        int h = FNV_OFFSET ^ this.seed;
+        int length = 0;
+        for (byte b = _name.getByteAtIndex(0); b != 0; b = _name.getByteAtIndex(++length)) {
+            h = (h ^ (b & 0xff)) * FNV_PRIME;
+        }
+        final int slot = mix(h) & this.mask;
+        final byte[] key = this.keys[slot];
+        return key != null && matches(_name, length, key) ? (T) this.values[slot] : null;
+    }
+
+    /**
+     * Looks up a name.
+     * @return
+     *         The value or {@code null} if the name is {@code null} or unknown.
+     */
+    @SuppressWarnings("unchecked")
+    T get(final String name) {
+        if (name == null) {
+            return null;
+        }
+        final byte[] bytes = name.getBytes(UTF_8);
+        final int slot = hash(bytes, this.seed) & this.mask;
+        final byte[] key = this.keys[slot];
+        return key != null && Arrays.equals(key, bytes) ? (T) this.values[slot] : null;
+    }
+
+    /**
+     * Compares a native string with the given UTF-8 bytes.
+     * @param _name
+     *         NUL terminated UTF-8 string or {@code NULL}.
+     * @param bytes
+     *         The expected bytes.
+     * @return
+     *         {@code true} if the native string consists of exactly the given bytes.
+     */
+    static boolean equals(final Pointer<Byte> _name, final byte[] bytes) {
+        if (_name == Pointer.NULL) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (_name.getByteAtIndex(i) != bytes[i]) {
+                return false;
+            }
+        }
+        return _name.getByteAtIndex(bytes.length) == 0;
+    }
+
+
+    @Internal
+    private static boolean matches(final Pointer<Byte> _name, final int length, final byte[] key) {
+        if (length != key.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (_name.getByteAtIndex(i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Internal
+    private static boolean place(final byte[][] names, final byte[][] keys, final int mask, final int seed) {
+        for (final byte[] name: names) {
+            final int slot = hash(name, seed) & mask;
+            if (keys[slot] != null) {
+                return false;
+            }
+            keys[slot] = name;
+        }
+        return true;
+    }
+
+    /**
+     * Seeded FNV-1a; must yield the same value as the loop in {@link #get(Pointer)}.
+     */
+    @Internal
+    private static int hash(final byte[] name, final int seed) {
+        int h = FNV_OFFSET ^ seed;
+        for (final byte b: name) {
+            h = (h ^ (b & 0xff)) * FNV_PRIME;
+        }
+        return mix(h);
+    }
+
+    @Internal
+    private static int mix(final int h) {
+        return h ^ (h >>> 16);
+    }
+
+}
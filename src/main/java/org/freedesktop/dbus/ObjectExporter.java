@@ -0,0 +1,884 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import org.bridj.Pointer;
+import org.freedesktop.dbus.introspection.Interface;
+import org.freedesktop.dbus.introspection.IntrospectionWriter;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports a tree of objects with their interfaces and properties.
+ * <p>The exporter registers itself as fallback handler for its root path and implements
+ * {@code org.freedesktop.DBus.Properties} for every exported object as well as
+ * {@code org.freedesktop.DBus.ObjectManager} on the root path. All other method calls are handed over to the
+ * {@link MessageHandler} of the addressed interface.</p>
+ * <p>Changes are not signalled one by one: all property changes of the same object and interface are coalesced
+ * into a single {@code PropertiesChanged} signal (only the latest value of every property is sent), and all
+ * interfaces added to the same object are announced by a single {@code InterfacesAdded} signal. Interfaces that
+ * are added and removed again before the changes are emitted are never announced at all. Pending changes are
+ * emitted once the coalescing window has elapsed or - with a window of {@code 0} - whenever
+ * {@link #flushChanges()} is invoked, typically once per dispatch cycle of the connection.</p>
+ * <p>{@code org.freedesktop.DBus.Introspectable} is implemented for every path of the tree, including the
+ * intermediate paths that lead to exported objects. The interface part of the introspection data is generated
+ * once per distinct set of interfaces and the complete document (including the child nodes) is kept as native
+ * string per path until the object or its children change, so answering {@code Introspect} merely copies a
+ * buffer into the reply. Interfaces that have been added without a description are listed by name only.</p>
+ * @author Benjamin P. Jung
+ */
+public class ObjectExporter implements MessageHandler, AutoCloseable {
+
+    /** Default window (in milliseconds) within which changes are coalesced. */
+    public static final long DEFAULT_COALESCING_WINDOW = 50L;
+
+    private static final String GET = "Get";
+    private static final String GET_ALL = "GetAll";
+    private static final String SET = "Set";
+    private static final String GET_MANAGED_OBJECTS = "GetManagedObjects";
+    private static final String INTROSPECT = "Introspect";
+
+    @Internal
+    static final String INTROSPECTABLE_XML =
+            "  <interface name=\"" + DBus.INTERFACE_INTROSPECTABLE + "\">\n"
+            + "    <method name=\"Introspect\">\n"
+            + "      <arg name=\"xml_data\" type=\"s\" direction=\"out\"/>\n"
+            + "    </method>\n"
+            + "  </interface>\n"
+            + "  <interface name=\"" + DBus.INTERFACE_PEER + "\">\n"
+            + "    <method name=\"Ping\"/>\n"
+            + "    <method name=\"GetMachineId\">\n"
+            + "      <arg name=\"machine_uuid\" type=\"s\" direction=\"out\"/>\n"
+            + "    </method>\n"
+            + "  </interface>\n";
+
+    @Internal
+    static final String PROPERTIES_XML =
+            "  <interface name=\"" + DBus.INTERFACE_PROPERTIES + "\">\n"
+            + "    <method name=\"Get\">\n"
+            + "      <arg name=\"interface_name\" type=\"s\" direction=\"in\"/>\n"
+            + "      <arg name=\"property_name\" type=\"s\" direction=\"in\"/>\n"
+            + "      <arg name=\"value\" type=\"v\" direction=\"out\"/>\n"
+            + "    </method>\n"
+            + "    <method name=\"GetAll\">\n"
+            + "      <arg name=\"interface_name\" type=\"s\" direction=\"in\"/>\n"
+            + "      <arg name=\"props\" type=\"a{sv}\" direction=\"out\"/>\n"
+            + "    </method>\n"
+            + "    <method name=\"Set\">\n"
+            + "      <arg name=\"interface_name\" type=\"s\" direction=\"in\"/>\n"
+            + "      <arg name=\"property_name\" type=\"s\" direction=\"in\"/>\n"
+            + "      <arg name=\"value\" type=\"v\" direction=\"in\"/>\n"
+            + "    </method>\n"
+            + "    <signal name=\"PropertiesChanged\">\n"
+            + "      <arg name=\"interface_name\" type=\"s\"/>\n"
+            + "      <arg name=\"changed_properties\" type=\"a{sv}\"/>\n"
+            + "      <arg name=\"invalidated_properties\" type=\"as\"/>\n"
+            + "    </signal>\n"
+            + "  </interface>\n";
+
+    @Internal
+    static final String OBJECT_MANAGER_XML =
+            "  <interface name=\"" + ObjectManagerClient.INTERFACE_OBJECT_MANAGER + "\">\n"
+            + "    <method name=\"GetManagedObjects\">\n"
+            + "      <arg name=\"object_paths_interfaces_and_properties\" type=\"a{oa{sa{sv}}}\" direction=\"out\"/>\n"
+            + "    </method>\n"
+            + "    <signal name=\"InterfacesAdded\">\n"
+            + "      <arg name=\"object_path\" type=\"o\"/>\n"
+            + "      <arg name=\"interfaces_and_properties\" type=\"a{sa{sv}}\"/>\n"
+            + "    </signal>\n"
+            + "    <signal name=\"InterfacesRemoved\">\n"
+            + "      <arg name=\"object_path\" type=\"o\"/>\n"
+            + "      <arg name=\"interfaces\" type=\"as\"/>\n"
+            + "    </signal>\n"
+            + "  </interface>\n";
+
+    private final Connection connection;
+    private final String root;
+    private final long coalescingWindow;
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownScheduler;
+
+    /** path &rarr; exported object */
+    private final ConcurrentMap<String, ExportedObject> objects = new ConcurrentHashMap<>();
+
+    // Pending changes; guarded by this.pending.
+    private final Object pending = new Object();
+    private final Map<String, Set<String>> pendingRemoved = new LinkedHashMap<>();
+    private final Map<String, Set<String>> pendingAdded = new LinkedHashMap<>();
+    private final Map<String, Map<String, Map<String, Object>>> pendingChanged = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    // Introspection; the tree and the descriptions are guarded by this.pending as well.
+    private final PathNode tree = new PathNode();
+    /** interface &rarr; {@code interface} element generated from its description */
+    private final Map<String, String> descriptions = new TreeMap<>();
+    /** set of interfaces &rarr; {@code interface} elements */
+    private final Map<String, String> fragments = new TreeMap<>();
+    /** path &rarr; complete introspection data as native string */
+    private final ConcurrentMap<String, Pointer<Byte>> introspectionData = new ConcurrentHashMap<>();
+
+
+    /**
+     * Creates a new exporter that coalesces changes within the default window.
+     * @param connection
+     *         The connection the objects shall be exported on.
+     * @param root
+     *         Root path of the exported tree; also the path of the object manager.
+     */
+    public ObjectExporter(final Connection connection, final String root) {
+        this(connection, root, DEFAULT_COALESCING_WINDOW, null);
+    }
+
+    /**
+     * Creates a new exporter.
+     * @param connection
+     *         The connection the objects shall be exported on.
+     * @param root
+     *         Root path of the exported tree; also the path of the object manager.
+     * @param coalescingWindow
+     *         Window (in milliseconds) within which changes are coalesced, or {@code 0} if changes shall only be
+     *         emitted by {@link #flushChanges()}.
+     * @param scheduler
+     *         Scheduler used to emit changes once the window has elapsed, or {@code null} to use a dedicated thread.
+     */
+    public ObjectExporter(final Connection connection, final String root,
+                          final long coalescingWindow, final ScheduledExecutorService scheduler) {
+        super();
+        if (coalescingWindow < 0) {
+            throw new IllegalArgumentException("Coalescing window must not be negative.");
+        }
+        this.connection = connection;
+        this.root = root;
+        this.coalescingWindow = coalescingWindow;
+        this.ownScheduler = scheduler == null && coalescingWindow > 0;
+        this.scheduler = this.ownScheduler ? Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "D-Bus change emitter (" + root + ")");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }) : scheduler;
+        this.connection.registerFallback(root, this);
+    }
+
+
+    /**
+     * Returns the root path of the exported tree.
+     * @return
+     *         The root path.
+     */
+    public String getRoot() {
+        return this.root;
+    }
+
+    /**
+     * Adds an interface to an object, creating the object if necessary.
+     * @param path
+     *         Path of the object. Must be the root path or a path below it.
+     * @param _interface
+     *         Name of the interface.
+     * @param properties
+     *         Initial values of the properties of the interface. Values whose D-Bus type cannot be inferred
+     *         from their Java type must be wrapped in a {@link Variant}.
+     * @param handler
+     *         Handler for method calls on the interface, or {@code null} if the interface has no methods.
+     * @throws IllegalArgumentException
+     *         If the path is not part of the exported tree, or a value is {@code null} or cannot be encoded.
+     */
+    public void addInterface(final String path, final String _interface,
+                             final Map<String, ?> properties, final MessageHandler handler) {
+        this.addInterface(path, _interface, null, properties, handler);
+    }
+
+    /**
+     * Adds a described interface to an object, creating the object if necessary.
+     * <p>The description is used for the introspection data of every object that implements an interface of
+     * the same name; a description that differs from the one registered before replaces it for all of them.</p>
+     * @param path
+     *         Path of the object. Must be the root path or a path below it.
+     * @param description
+     *         Description of the interface.
+     * @param properties
+     *         Initial values of the properties of the interface.
+     * @param handler
+     *         Handler for method calls on the interface, or {@code null} if the interface has no methods.
+     * @throws IllegalArgumentException
+     *         If the path is not part of the exported tree, or a value is {@code null} or cannot be encoded.
+     */
+    public void addInterface(final String path, final Interface description,
+                             final Map<String, ?> properties, final MessageHandler handler) {
+        this.addInterface(path, description.getName(), description, properties, handler);
+    }
+
+    /**
+     * Removes an interface from an object. The object is removed once its last interface has been removed.
+     * @param path
+     *         Path of the object.
+     * @param _interface
+     *         Name of the interface.
+     */
+    public void removeInterface(final String path, final String _interface) {
+        synchronized (this.pending) {
+            final ExportedObject object = this.objects.get(path);
+            if (object == null || object.interfaces.remove(_interface) == null) {
+                return;
+            }
+            final boolean removed = object.interfaces.isEmpty();
+            if (removed) {
+                this.objects.remove(path);
+                this.detach(path);
+            }
+            this.render(path, removed);
+            final Map<String, Map<String, Object>> changed = this.pendingChanged.get(path);
+            if (changed != null) {
+                changed.remove(_interface);
+            }
+            final Set<String> added = this.pendingAdded.get(path);
+            if (added != null && added.remove(_interface)) {
+                // Never announced, so there is nothing to revoke.
+                return;
+            }
+            set(this.pendingRemoved, path).add(_interface);
+            this.changed();
+        }
+    }
+
+    /**
+     * Removes an object with all of its interfaces.
+     * @param path
+     *         Path of the object.
+     */
+    public void removeObject(final String path) {
+        final ExportedObject object = this.objects.get(path);
+        if (object != null) {
+            for (final String _interface: object.interfaces.keySet()) {
+                this.removeInterface(path, _interface);
+            }
+        }
+    }
+
+    /**
+     * Changes the value of a property. The change will be signalled with the next batch of changes.
+     * @param path
+     *         Path of the object.
+     * @param _interface
+     *         Name of the interface.
+     * @param name
+     *         Name of the property.
+     * @param value
+     *         New value of the property. Values whose D-Bus type cannot be inferred from their Java type must be
+     *         wrapped in a {@link Variant}.
+     * @throws IllegalArgumentException
+     *         If the interface is unknown, or the value is {@code null} or cannot be encoded.
+     */
+    public void setProperty(final String path, final String _interface, final String name, final Object value) {
+        validate(value);
+        synchronized (this.pending) {
+            final ExportedInterface exported = this.getInterface(path, _interface);
+            if (exported == null) {
+                throw new IllegalArgumentException("Unknown interface " + _interface + " on " + path);
+            }
+            exported.properties.put(name, value);
+            final Set<String> added = this.pendingAdded.get(path);
+            if (added != null && added.contains(_interface)) {
+                // The announcement of the interface will carry the latest value anyway.
+                return;
+            }
+            Map<String, Map<String, Object>> interfaces = this.pendingChanged.get(path);
+            if (interfaces == null) {
+                interfaces = new LinkedHashMap<>();
+                this.pendingChanged.put(path, interfaces);
+            }
+            Map<String, Object> changed = interfaces.get(_interface);
+            if (changed == null) {
+                changed = new LinkedHashMap<>();
+                interfaces.put(_interface, changed);
+            }
+            changed.put(name, value);
+            this.changed();
+        }
+    }
+
+    /**
+     * Returns the current value of a property.
+     * @return
+     *         The value or {@code null} if unknown.
+     */
+    public Object getProperty(final String path, final String _interface, final String name) {
+        final ExportedInterface exported = this.getInterface(path, _interface);
+        return exported == null ? null : exported.properties.get(name);
+    }
+
+    /**
+     * Emits all pending changes: first {@code InterfacesRemoved}, then {@code InterfacesAdded} and finally
+     * {@code PropertiesChanged}, at most one signal per object (and interface).
+     * <p>Signals that cannot be emitted are reported to the uncaught exception handler of the current thread
+     * and skipped.</p>
+     */
+    public void flushChanges() {
+
+        final Map<String, Set<String>> removed;
+        final Map<String, Set<String>> added;
+        final Map<String, Map<String, Map<String, Object>>> changed;
+        synchronized (this.pending) {
+            if (this.scheduledFlush != null) {
+                this.scheduledFlush.cancel(false);
+                this.scheduledFlush = null;
+            }
+            removed = new LinkedHashMap<>(this.pendingRemoved);
+            added = new LinkedHashMap<>(this.pendingAdded);
+            changed = new LinkedHashMap<>(this.pendingChanged);
+            this.pendingRemoved.clear();
+            this.pendingAdded.clear();
+            this.pendingChanged.clear();
+        }
+
+        // Every signal is emitted on its own, so a failing one does not cost the rest of the batch.
+        for (final Map.Entry<String, Set<String>> object: removed.entrySet()) {
+            try {
+                final Message signal = Message.newSignal(this.root, ObjectManagerClient.INTERFACE_OBJECT_MANAGER, "InterfacesRemoved");
+                signal.addArgument("o", object.getKey());
+                signal.addArgument("as", object.getValue());
+                this.connection.send(signal);
+            } catch (final RuntimeException e) {
+                report(e);
+            }
+        }
+        for (final Map.Entry<String, Set<String>> object: added.entrySet()) {
+            final Map<String, Map<String, Object>> interfaces = this.interfaces(object.getKey(), object.getValue());
+            if (interfaces.isEmpty()) {
+                continue;
+            }
+            try {
+                final Message signal = Message.newSignal(this.root, ObjectManagerClient.INTERFACE_OBJECT_MANAGER, "InterfacesAdded");
+                signal.addArgument("o", object.getKey());
+                signal.addArgument("a{sa{sv}}", interfaces);
+                this.connection.send(signal);
+            } catch (final RuntimeException e) {
+                report(e);
+            }
+        }
+        for (final Map.Entry<String, Map<String, Map<String, Object>>> object: changed.entrySet()) {
+            for (final Map.Entry<String, Map<String, Object>> _interface: object.getValue().entrySet()) {
+                try {
+                    final Message signal = Message.newSignal(object.getKey(), DBus.INTERFACE_PROPERTIES, "PropertiesChanged");
+                    signal.addArgument("s", _interface.getKey());
+                    signal.addArgument("a{sv}", _interface.getValue());
+                    signal.addArgument("as", Collections.<String>emptyList());
+                    this.connection.send(signal);
+                } catch (final RuntimeException e) {
+                    report(e);
+                }
+            }
+        }
+
+    }
+
+    @Override
+    public HandlerResult handleMessage(final Connection connection, final Message message) {
+
+        if (message.getType() != Message.Type.METHOD_CALL) {
+            return HandlerResult.NOT_YET_HANDLED;
+        }
+        final String path = message.getPath();
+        final String _interface = message.getInterface();
+        final String member = message.getMember();
+
+        if (DBus.INTERFACE_INTROSPECTABLE.equals(_interface) || _interface == null && INTROSPECT.equals(member)) {
+            if (!INTROSPECT.equals(member)) {
+                return this.error(message, DBus.ERROR_UNKNOWN_METHOD, "Unknown method: " + member);
+            }
+            final Pointer<Byte> _xml = this.introspect(path);
+            if (_xml == null) {
+                return this.error(message, DBus.ERROR_UNKNOWN_OBJECT, "Unknown object: " + path);
+            }
+            final Message reply = Message.newMethodReturn(message);
+            reply._addStringArgument(_xml);
+            return this.reply(message, reply);
+        }
+
+        if (ObjectManagerClient.INTERFACE_OBJECT_MANAGER.equals(_interface) && this.root.equals(path)) {
+            if (GET_MANAGED_OBJECTS.equals(member)) {
+                return this.reply(message, Message.newMethodReturn(message), "a{oa{sa{sv}}}", this.getManagedObjects());
+            }
+            return this.error(message, DBus.ERROR_UNKNOWN_METHOD, "Unknown method: " + member);
+        }
+
+        final ExportedObject object = this.objects.get(path);
+        if (object == null) {
+            return this.error(message, DBus.ERROR_UNKNOWN_OBJECT, "Unknown object: " + path);
+        }
+        if (DBus.INTERFACE_PROPERTIES.equals(_interface)) {
+            return this.handleProperties(object, message, member);
+        }
+
+        if (_interface == null) {
+            // Without an interface the first interface that handles the method wins.
+            for (final ExportedInterface exported: object.interfaces.values()) {
+                if (exported.handler != null
+                        && exported.handler.handleMessage(connection, message) == HandlerResult.HANDLED) {
+                    return HandlerResult.HANDLED;
+                }
+            }
+            return this.error(message, DBus.ERROR_UNKNOWN_METHOD, "Unknown method: " + member);
+        }
+        final ExportedInterface exported = object.interfaces.get(_interface);
+        if (exported == null) {
+            return this.error(message, DBus.ERROR_UNKNOWN_INTERFACE, "Unknown interface: " + _interface);
+        }
+        if (exported.handler == null || exported.handler.handleMessage(connection, message) != HandlerResult.HANDLED) {
+            return this.error(message, DBus.ERROR_UNKNOWN_METHOD, "Unknown method: " + member);
+        }
+        return HandlerResult.HANDLED;
+
+    }
+
+    /**
+     * Emits all pending changes and unregisters the exported tree.
+     */
+    @Override
+    public void close() {
+        this.flushChanges();
+        this.connection.unregisterObjectPath(this.root);
+        if (this.ownScheduler) {
+            this.scheduler.shutdown();
+        }
+    }
+
+
+    @Internal
+    private void addInterface(final String path, final String _interface, final Interface description,
+                              final Map<String, ?> properties, final MessageHandler handler) {
+        if (!MatchRule.isInPathNamespace(path, this.root)) {
+            throw new IllegalArgumentException("Path is not part of the exported tree: " + path);
+        }
+        if (properties != null) {
+            for (final Object value: properties.values()) {
+                validate(value);
+            }
+        }
+        synchronized (this.pending) {
+            ExportedObject object = this.objects.get(path);
+            final boolean created = object == null;
+            if (created) {
+                object = new ExportedObject(path);
+                this.objects.put(path, object);
+                this.attach(path);
+            }
+            object.interfaces.put(_interface, new ExportedInterface(_interface, properties, handler));
+            if (description != null) {
+                final StringBuilder xml = new StringBuilder();
+                IntrospectionWriter.writeInterface(xml, description);
+                final String element = xml.toString();
+                if (!element.equals(this.descriptions.put(_interface, element))) {
+                    this.describe(_interface);
+                }
+            }
+            this.render(path, created);
+            set(this.pendingAdded, path).add(_interface);
+            this.changed();
+        }
+    }
+
+    /**
+     * Returns the introspection data of a path, generating it if it is not cached.
+     * @return
+     *         The introspection data or {@code null} if the path is not part of the exported tree.
+     */
+    @Internal
+    private Pointer<Byte> introspect(final String path) {
+        final Pointer<Byte> cached = this.introspectionData.get(path);
+        if (cached != null) {
+            return cached;
+        }
+        synchronized (this.pending) {
+            final Pointer<Byte> _xml = this.introspectionData.get(path);
+            return _xml != null ? _xml : this.build(path);
+        }
+    }
+
+    /**
+     * Generates and caches the introspection data of a path. Must be invoked while holding the lock of the
+     * pending changes.
+     * @return
+     *         The introspection data or {@code null} if the path is not part of the exported tree.
+     */
+    @Internal
+    private Pointer<Byte> build(final String path) {
+        final PathNode node = this.node(path);
+        if (node == null) {
+            this.introspectionData.remove(path);
+            return null;
+        }
+        final StringBuilder xml = new StringBuilder(IntrospectionWriter.DOCTYPE);
+        xml.append("<node>\n").append(this.fragment(path));
+        for (final String child: node.children.keySet()) {
+            IntrospectionWriter.writeChild(xml, child);
+        }
+        xml.append("</node>\n");
+        final Pointer<Byte> _xml = Pointer.pointerToCString(xml.toString());
+        this.introspectionData.put(path, _xml);
+        return _xml;
+    }
+
+    /**
+     * Returns the {@code interface} elements of the object at the given path. They are shared by all objects
+     * that implement the same set of interfaces. Must be invoked while holding the lock of the pending changes.
+     */
+    @Internal
+    private String fragment(final String path) {
+        final ExportedObject object = this.objects.get(path);
+        final boolean isRoot = this.root.equals(path);
+        final Set<String> names = object == null ? Collections.<String>emptySet() : new TreeSet<>(object.interfaces.keySet());
+        final StringBuilder key = new StringBuilder(isRoot ? "/" : "");
+        for (final String name: names) {
+            key.append(' ').append(name);
+        }
+        final String cached = this.fragments.get(key.toString());
+        if (cached != null) {
+            return cached;
+        }
+        final StringBuilder xml = new StringBuilder(INTROSPECTABLE_XML);
+        if (object != null) {
+            xml.append(PROPERTIES_XML);
+        }
+        if (isRoot) {
+            xml.append(OBJECT_MANAGER_XML);
+        }
+        for (final String name: names) {
+            final String description = this.descriptions.get(name);
+            if (description != null) {
+                xml.append(description);
+            } else {
+                xml.append("  <interface name=\"").append(name).append("\"/>\n");
+            }
+        }
+        final String fragment = xml.toString();
+        this.fragments.put(key.toString(), fragment);
+        return fragment;
+    }
+
+    /**
+     * Regenerates the introspection data of a path and, if an object has been added to or removed from the
+     * path tree, of all of its ancestors, whose child nodes might have changed. Must be invoked while holding
+     * the lock of the pending changes.
+     */
+    @Internal
+    private void render(final String path, final boolean ancestors) {
+        String current = path;
+        this.build(current);
+        while (ancestors && current.length() > this.root.length()) {
+            current = current.substring(0, Math.max(current.lastIndexOf('/'), 1));
+            this.build(current);
+        }
+    }
+
+    /**
+     * Regenerates the introspection data of all objects that implement an interface whose description has
+     * changed. Must be invoked while holding the lock of the pending changes.
+     */
+    @Internal
+    private void describe(final String _interface) {
+        final String element = ' ' + _interface + ' ';
+        final Iterator<String> keys = this.fragments.keySet().iterator();
+        while (keys.hasNext()) {
+            if ((keys.next() + ' ').contains(element)) {
+                keys.remove();
+            }
+        }
+        for (final ExportedObject object: this.objects.values()) {
+            if (object.interfaces.containsKey(_interface)) {
+                this.build(object.path);
+            }
+        }
+    }
+
+    /**
+     * Adds an object to the path tree. Must be invoked while holding the lock of the pending changes.
+     */
+    @Internal
+    private void attach(final String path) {
+        PathNode node = this.tree;
+        node.objects++;
+        for (final String segment: this.segments(path)) {
+            PathNode child = node.children.get(segment);
+            if (child == null) {
+                child = new PathNode();
+                node.children.put(segment, child);
+            }
+            child.objects++;
+            node = child;
+        }
+    }
+
+    /**
+     * Removes an object from the path tree, pruning all branches that no longer lead to an object.
+     * Must be invoked while holding the lock of the pending changes.
+     */
+    @Internal
+    private void detach(final String path) {
+        PathNode node = this.tree;
+        node.objects--;
+        for (final String segment: this.segments(path)) {
+            final PathNode child = node.children.get(segment);
+            if (--child.objects == 0) {
+                node.children.remove(segment);
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * Looks up the node of a path; {@code null} if the path neither denotes nor leads to an exported object.
+     */
+    @Internal
+    private PathNode node(final String path) {
+        if (!MatchRule.isInPathNamespace(path, this.root)) {
+            return null;
+        }
+        PathNode node = this.tree;
+        for (final String segment: this.segments(path)) {
+            node = node.children.get(segment);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    @Internal
+    private String[] segments(final String path) {
+        final String relative = path.substring(this.root.length());
+        final int start = relative.startsWith("/") ? 1 : 0;
+        return start >= relative.length() ? new String[0] : relative.substring(start).split("/");
+    }
+
+    @Internal
+    private HandlerResult handleProperties(final ExportedObject object, final Message message, final String member) {
+
+        final String _interface = message.getStringArgument(0);
+        final ExportedInterface exported = _interface == null ? null : object.interfaces.get(_interface);
+        if (exported == null) {
+            return this.error(message, DBus.ERROR_UNKNOWN_INTERFACE, "Unknown interface: " + _interface);
+        }
+
+        if (GET.equals(member)) {
+            final String name = message.getStringArgument(1);
+            final Object value = name == null ? null : exported.properties.get(name);
+            if (value == null) {
+                return this.error(message, DBus.ERROR_UNKNOWN_PROPERTY, "Unknown property: " + name);
+            }
+            return this.reply(message, Message.newMethodReturn(message), "v", value);
+        }
+        if (GET_ALL.equals(member)) {
+            return this.reply(message, Message.newMethodReturn(message), "a{sv}", exported.properties);
+        }
+        if (SET.equals(member)) {
+            // Writable properties are implemented by the handler of the interface.
+            if (exported.handler != null
+                    && exported.handler.handleMessage(this.connection, message) == HandlerResult.HANDLED) {
+                return HandlerResult.HANDLED;
+            }
+            return this.error(message, DBus.ERROR_PROPERTY_READ_ONLY, "Property is read-only: " + message.getStringArgument(1));
+        }
+        return this.error(message, DBus.ERROR_UNKNOWN_METHOD, "Unknown method: " + member);
+
+    }
+
+    @Internal
+    private Map<String, Map<String, Map<String, Object>>> getManagedObjects() {
+        final Map<String, Map<String, Map<String, Object>>> managed = new LinkedHashMap<>();
+        for (final ExportedObject object: this.objects.values()) {
+            if (!object.path.equals(this.root)) {
+                managed.put(object.path, this.interfaces(object.path, object.interfaces.keySet()));
+            }
+        }
+        return managed;
+    }
+
+    @Internal
+    private Map<String, Map<String, Object>> interfaces(final String path, final Set<String> names) {
+        final Map<String, Map<String, Object>> interfaces = new LinkedHashMap<>();
+        for (final String name: names) {
+            final ExportedInterface exported = this.getInterface(path, name);
+            if (exported != null) {
+                interfaces.put(name, exported.properties);
+            }
+        }
+        return interfaces;
+    }
+
+    @Internal
+    private ExportedInterface getInterface(final String path, final String _interface) {
+        final ExportedObject object = this.objects.get(path);
+        return object == null ? null : object.interfaces.get(_interface);
+    }
+
+    /**
+     * Schedules the emission of the pending changes, unless it has been scheduled already.
+     * Must be invoked while holding the lock of the pending changes.
+     */
+    @Internal
+    private void changed() {
+        if (this.coalescingWindow == 0 || this.scheduledFlush != null) {
+            return;
+        }
+        this.scheduledFlush = this.scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flushChanges();
+                connection.flush();
+            }
+        }, this.coalescingWindow, TimeUnit.MILLISECONDS);
+    }
+
+    @Internal
+    private HandlerResult reply(final Message call, final Message reply) {
+        if (!call.isNoReply()) {
+            this.connection.send(reply);
+        }
+        return HandlerResult.HANDLED;
+    }
+
+    /**
+     * Appends a single argument to the reply and sends it; values that cannot be encoded (e.g. a property of an
+     * unsupported type) are reported to the caller as {@code org.freedesktop.DBus.Error.Failed}.
+     */
+    @Internal
+    private HandlerResult reply(final Message call, final Message reply, final String signature, final Object value) {
+        try {
+            reply.addArgument(signature, value);
+        } catch (final RuntimeException e) {
+            return this.error(call, DBus.ERROR_FAILED, "Unable to encode reply: " + e.getMessage());
+        }
+        return this.reply(call, reply);
+    }
+
+    @Internal
+    private HandlerResult error(final Message call, final String errorName, final String errorMessage) {
+        return this.reply(call, Message.newError(call, errorName, errorMessage));
+    }
+
+    /**
+     * Checks that a property value can be encoded as variant, i.e. that its D-Bus type (and the types of all
+     * of its elements) can be inferred, so a bad value is refused right away instead of failing a whole batch
+     * of signals later on.
+     */
+    @Internal
+    private static void validate(final Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Property values must not be null.");
+        }
+        if (value instanceof Variant) {
+            return;
+        }
+        final String signature = Variant.signatureOf(value);
+        if (value instanceof Map) {
+            for (final Map.Entry<?, ?> entry: ((Map<?, ?>) value).entrySet()) {
+                if (!(entry.getKey() instanceof String)) {
+                    throw new IllegalArgumentException("Dictionary keys must be strings: " + entry.getKey());
+                }
+                validate(entry.getValue());
+            }
+        } else if ("av".equals(signature)) {
+            for (final Object element: (Collection<?>) value) {
+                validate(element);
+            }
+        }
+    }
+
+    @Internal
+    private static void report(final RuntimeException e) {
+        final Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+
+    @Internal
+    private static Set<String> set(final Map<String, Set<String>> map, final String key) {
+        Set<String> set = map.get(key);
+        if (set == null) {
+            set = new LinkedHashSet<>();
+            map.put(key, set);
+        }
+        return set;
+    }
+
+
+    /**
+     * An exported object.
+     */
+    private static final class ExportedObject {
+
+        private final String path;
+        private final ConcurrentMap<String, ExportedInterface> interfaces = new ConcurrentHashMap<>();
+
+        private ExportedObject(final String path) {
+            super();
+            this.path = path;
+        }
+
+    }
+
+    /**
+     * A node of the exported tree. Paths are relative to the root path.
+     */
+    private static final class PathNode {
+
+        /** segment &rarr; child node, sorted to keep the introspection data stable */
+        private final Map<String, PathNode> children = new TreeMap<>();
+        /** Number of exported objects at or below this node. */
+        private int objects;
+
+    }
+
+    /**
+     * An interface of an exported object.
+     */
+    private static final class ExportedInterface {
+
+        private final String name;
+        private final ConcurrentMap<String, Object> properties;
+        private final MessageHandler handler;
+
+        private ExportedInterface(final String name, final Map<String, ?> properties, final MessageHandler handler) {
+            super();
+            this.name = name;
+            this.properties = properties == null
+                    ? new ConcurrentHashMap<String, Object>()
+                    : new ConcurrentHashMap<String, Object>(properties);
+            this.handler = handler;
+        }
+
+    }
+
+}
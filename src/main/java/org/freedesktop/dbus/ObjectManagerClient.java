@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.freedesktop.dbus.Message.MethodArgument.stringParam;
+
+/**
+ * Local mirror of all objects that are managed by a remote {@code org.freedesktop.DBus.ObjectManager}.
+ * <p>The complete object tree (objects, their interfaces and all properties) is fetched with a single
+ * {@code GetManagedObjects} call and afterwards updated incrementally by the {@code InterfacesAdded},
+ * {@code InterfacesRemoved} and {@code PropertiesChanged} signals. All queries are answered from memory and
+ * never block.</p>
+ * <p>Signals that arrive before the {@code GetManagedObjects} reply are not applied, since the reply already
+ * reflects them. This only holds as long as signals and replies are processed in the order they are received, so
+ * the mirror needs a {@link SignalDispatcher} that invokes its handlers on the dispatching thread.</p>
+ * @author Benjamin P. Jung
+ */
+public class ObjectManagerClient implements AutoCloseable {
+
+    /** Name of the object manager interface. */
+    public static final String INTERFACE_OBJECT_MANAGER = "org.freedesktop.DBus.ObjectManager";
+
+    private final Connection connection;
+    private final String destination;
+    private final String path;
+    private final List<SignalDispatcher.Subscription> subscriptions = new ArrayList<>(3);
+
+    /** path &rarr; interface &rarr; immutable snapshot of the properties; {@code null} until loaded. */
+    private volatile ConcurrentMap<String, ConcurrentMap<String, Map<String, Object>>> objects;
+    private final PendingReply<Message> loading;
+
+
+    /**
+     * Creates a new mirror and starts loading the managed objects.
+     * @param connection
+     *         The connection to the bus.
+     * @param dispatcher
+     *         Dispatcher that delivers signals of the same connection on the dispatching thread, i.e. one that
+     *         has been created without an executor (see {@link SignalDispatcher}).
+     * @param destination
+     *         Bus name of the object manager.
+     * @param path
+     *         Object path of the object manager.
+     * @throws IllegalArgumentException
+     *         If the dispatcher invokes its handlers on an executor.
+     */
+    public ObjectManagerClient(final Connection connection, final SignalDispatcher dispatcher,
+                               final String destination, final String path) {
+        super();
+        if (dispatcher.getExecutor() != null) {
+            throw new IllegalArgumentException("Signals must be dispatched on the dispatching thread.");
+        }
+        this.connection = connection;
+        this.destination = destination;
+        this.path = path;
+
+        // Subscribe first, so no change that happens while GetManagedObjects is in flight can get lost.
+        this.subscriptions.add(dispatcher.subscribe(
+                MatchRule.signal(INTERFACE_OBJECT_MANAGER, "InterfacesAdded").sender(destination).path(path).build(),
+                new SignalHandler() {
+                    @Override
+                    public void handleSignal(final Message signal) {
+                        interfacesAdded(signal);
+                    }
+                }));
+        this.subscriptions.add(dispatcher.subscribe(
+                MatchRule.signal(INTERFACE_OBJECT_MANAGER, "InterfacesRemoved").sender(destination).path(path).build(),
+                new SignalHandler() {
+                    @Override
+                    public void handleSignal(final Message signal) {
+                        interfacesRemoved(signal);
+                    }
+                }));
+        this.subscriptions.add(dispatcher.subscribe(
+                MatchRule.signal(DBus.INTERFACE_PROPERTIES, "PropertiesChanged").sender(destination).pathNamespace(path).build(),
+                new SignalHandler() {
+                    @Override
+                    public void handleSignal(final Message signal) {
+                        propertiesChanged(signal);
+                    }
+                }));
+
+        final Message getManagedObjects = Message.newMethodCall(destination, path, INTERFACE_OBJECT_MANAGER, "GetManagedObjects");
+        this.loading = connection.sendWithReplyAsync(getManagedObjects);
+        this.loading.addListener(new PendingReply.Listener<Message>() {
+            @Override
+            public void completed(final PendingReply<Message> reply) {
+                loaded(reply);
+            }
+        });
+    }
+
+
+    /**
+     * Returns whether the managed objects have been loaded.
+     * @return
+     *         {@code true} once the reply to {@code GetManagedObjects} has been applied.
+     */
+    public boolean isLoaded() {
+        return this.objects != null;
+    }
+
+    /**
+     * Returns the pending {@code GetManagedObjects} call, e.g. to wait for the mirror to be loaded.
+     * @return
+     *         The pending call.
+     */
+    public PendingReply<Message> getLoading() {
+        return this.loading;
+    }
+
+    /**
+     * Returns the paths of all managed objects.
+     * @return
+     *         Unmodifiable view of the object paths (empty until loaded).
+     */
+    public Set<String> getObjectPaths() {
+        final Map<String, ConcurrentMap<String, Map<String, Object>>> objects = this.objects;
+        return objects == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(objects.keySet());
+    }
+
+    /**
+     * Returns the paths of all managed objects that implement the given interface.
+     * @param _interface
+     *         The interface name.
+     * @return
+     *         The matching object paths.
+     */
+    public List<String> getObjectPaths(final String _interface) {
+        final Map<String, ConcurrentMap<String, Map<String, Object>>> objects = this.objects;
+        final List<String> paths = new ArrayList<>();
+        if (objects != null) {
+            for (final Map.Entry<String, ConcurrentMap<String, Map<String, Object>>> object: objects.entrySet()) {
+                if (object.getValue().containsKey(_interface)) {
+                    paths.add(object.getKey());
+                }
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Returns the interfaces of a managed object.
+     * @param path
+     *         Path of the object.
+     * @return
+     *         Unmodifiable view of the interface names or {@code null} if the object is unknown.
+     */
+    public Set<String> getInterfaces(final String path) {
+        final ConcurrentMap<String, Map<String, Object>> interfaces = this.object(path);
+        return interfaces == null ? null : Collections.unmodifiableSet(interfaces.keySet());
+    }
+
+    /**
+     * Returns the properties of one interface of a managed object.
+     * @param path
+     *         Path of the object.
+     * @param _interface
+     *         The interface name.
+     * @return
+     *         Immutable snapshot of the properties or {@code null} if the object or interface is unknown.
+     */
+    public Map<String, Object> getProperties(final String path, final String _interface) {
+        final ConcurrentMap<String, Map<String, Object>> interfaces = this.object(path);
+        return interfaces == null ? null : interfaces.get(_interface);
+    }
+
+    /**
+     * Returns the value of a single property of a managed object.
+     * @return
+     *         The value or {@code null} if unknown.
+     */
+    public Object getProperty(final String path, final String _interface, final String name) {
+        final Map<String, Object> properties = this.getProperties(path, _interface);
+        return properties == null ? null : properties.get(name);
+    }
+
+    @Override
+    public void close() {
+        this.loading.cancel(false);
+        for (final SignalDispatcher.Subscription subscription: this.subscriptions) {
+            subscription.close();
+        }
+        this.objects = null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ObjectManagerClient (%s %s)", this.destination, this.path);
+    }
+
+
+    @Internal
+    private ConcurrentMap<String, Map<String, Object>> object(final String path) {
+        final Map<String, ConcurrentMap<String, Map<String, Object>>> objects = this.objects;
+        return objects == null ? null : objects.get(path);
+    }
+
+    @Internal
+    private void loaded(final PendingReply<Message> reply) {
+        final Object managedObjects;
+        try {
+            managedObjects = reply.get().getArgument(0);
+        } catch (final Exception e) {
+            return;
+        }
+        if (!(managedObjects instanceof Map)) {
+            return;
+        }
+        final ConcurrentMap<String, ConcurrentMap<String, Map<String, Object>>> objects = new ConcurrentHashMap<>();
+        for (final Map.Entry<?, ?> object: ((Map<?, ?>) managedObjects).entrySet()) {
+            objects.put((String) object.getKey(), interfaces((Map<?, ?>) object.getValue()));
+        }
+        synchronized (this) {
+            this.objects = objects;
+        }
+    }
+
+    @Internal
+    private void interfacesAdded(final Message signal) {
+        final String path = signal.getStringArgument(0);
+        final Map<String, Object> added = signal.getDictionaryArgument(1);
+        if (path == null || added == null) {
+            return;
+        }
+        synchronized (this) {
+            if (this.objects == null) {
+                return;
+            }
+            ConcurrentMap<String, Map<String, Object>> interfaces = this.objects.get(path);
+            if (interfaces == null) {
+                interfaces = new ConcurrentHashMap<>();
+                this.objects.put(path, interfaces);
+            }
+            interfaces.putAll(interfaces(added));
+        }
+    }
+
+    @Internal
+    private void interfacesRemoved(final Message signal) {
+        final String path = signal.getStringArgument(0);
+        final List<String> removed = signal.getStringArrayArgument(1);
+        if (path == null || removed == null) {
+            return;
+        }
+        synchronized (this) {
+            if (this.objects == null) {
+                return;
+            }
+            final ConcurrentMap<String, Map<String, Object>> interfaces = this.objects.get(path);
+            if (interfaces != null) {
+                interfaces.keySet().removeAll(removed);
+                if (interfaces.isEmpty()) {
+                    this.objects.remove(path);
+                }
+            }
+        }
+    }
+
+    @Internal
+    private void propertiesChanged(final Message signal) {
+        final String path = signal.getPath();
+        final String _interface = signal.getStringArgument(0);
+        final Map<String, Object> changed = signal.getDictionaryArgument(1);
+        final List<String> invalidated = signal.getStringArrayArgument(2);
+        if (path == null || _interface == null || changed == null || invalidated == null) {
+            return;
+        }
+        synchronized (this) {
+            final ConcurrentMap<String, Map<String, Object>> interfaces = this.object(path);
+            final Map<String, Object> current = interfaces == null ? null : interfaces.get(_interface);
+            if (current == null) {
+                return;
+            }
+            final Map<String, Object> properties = new HashMap<>(current);
+            properties.putAll(changed);
+            properties.keySet().removeAll(invalidated);
+            interfaces.put(_interface, Collections.unmodifiableMap(properties));
+        }
+        for (final String name: invalidated) {
+            this.refetch(path, _interface, name);
+        }
+    }
+
+    @Internal
+    private void refetch(final String path, final String _interface, final String name) {
+        final Message get = Message.newMethodCall(this.destination, path, DBus.INTERFACE_PROPERTIES, "Get");
+        get.addArguments(stringParam(_interface), stringParam(name));
+        this.connection.sendWithReplyAsync(get).addListener(new PendingReply.Listener<Message>() {
+            @Override
+            public void completed(final PendingReply<Message> reply) {
+                final Object value;
+                try {
+                    value = reply.get().getArgument(0);
+                } catch (final Exception e) {
+                    return;
+                }
+                synchronized (ObjectManagerClient.this) {
+                    final ConcurrentMap<String, Map<String, Object>> interfaces = object(path);
+                    final Map<String, Object> current = interfaces == null ? null : interfaces.get(_interface);
+                    if (current == null || value == null) {
+                        return;
+                    }
+                    final Map<String, Object> properties = new HashMap<>(current);
+                    properties.put(name, value);
+                    interfaces.put(_interface, Collections.unmodifiableMap(properties));
+                }
+            }
+        });
+    }
+
+    /**
+     * Converts a decoded {@code a{sa{sv}}} dictionary into interface &rarr; immutable property snapshot.
+     */
+    @Internal
+    private static ConcurrentMap<String, Map<String, Object>> interfaces(final Map<?, ?> decoded) {
+        final ConcurrentMap<String, Map<String, Object>> interfaces = new ConcurrentHashMap<>();
+        for (final Map.Entry<?, ?> _interface: decoded.entrySet()) {
+            final Map<String, Object> properties = new HashMap<>();
+            for (final Map.Entry<?, ?> property: ((Map<?, ?>) _interface.getValue()).entrySet()) {
+                properties.put((String) property.getKey(), property.getValue());
+            }
+            interfaces.put((String) _interface.getKey(), Collections.unmodifiableMap(properties));
+        }
+        return interfaces;
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import org.freedesktop.dbus.introspection.Interface;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Resolves the objects of a {@link VirtualObjectTree} on demand.
+ * <p>Neither the objects nor the structure of the tree need to be kept in memory: every call is resolved
+ * through {@link #getObject(String)} and child nodes are only listed when the tree is being introspected or
+ * enumerated. Implementations are invoked concurrently and may cache whatever is worth caching.</p>
+ * @author Benjamin P. Jung
+ */
+public interface ObjectProvider {
+
+    /**
+     * Resolves an object.
+     * @param path
+     *         Path of the object.
+     * @return
+     *         The object or {@code null} if there is no object at this path.
+     */
+    ProvidedObject getObject(String path);
+
+    /**
+     * Lists the child nodes of a path, whether they are objects themselves or only lead to objects.
+     * @param path
+     *         Path of the parent node.
+     * @return
+     *         Names (the last path element) of the child nodes; empty if there are none.
+     */
+    Collection<String> getChildren(String path);
+
+
+    /**
+     * An object resolved by an {@link ObjectProvider}. Method calls of all interfaces except
+     * {@code org.freedesktop.DBus.Properties.Get/GetAll} are handed over to {@link #handleMessage(Connection, Message)}.
+     */
+    public static interface ProvidedObject extends MessageHandler {
+
+        /**
+         * Describes the interfaces of the object.
+         * @return
+         *         The interface descriptions.
+         */
+        Collection<Interface> getInterfaces();
+
+        /**
+         * Returns the properties of an interface.
+         * @param _interface
+         *         Name of the interface.
+         * @return
+         *         property name &rarr; value; empty if the interface has no properties.
+         */
+        Map<String, ?> getProperties(String _interface);
+
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes messages in parallel while preserving their order per key.
+ * <p>The executor consists of a fixed number of serial lanes. Every message is hashed by a configurable
+ * {@link Key} (e.g. its sender or its path) onto one of the lanes, so messages of the same key are processed one
+ * after another in the order they have been received, while messages of different keys are processed
+ * concurrently. Pass the executor to a {@link SignalDispatcher} or an {@link AnnotatedHandler}.</p>
+ * <p>Tasks submitted by {@link #execute(Runnable)} carry no key; they are spread across the lanes without any
+ * ordering guarantee.</p>
+ * @author Benjamin P. Jung
+ */
+public class OrderedExecutor implements Executor, AutoCloseable {
+
+    /** Keeps the messages of every sender in order. */
+    public static final Key SENDER = new Key() {
+        @Override
+        public Object keyOf(final Message message) {
+            return message.getSender();
+        }
+    };
+
+    /** Keeps the messages of every object path in order. */
+    public static final Key PATH = new Key() {
+        @Override
+        public Object keyOf(final Message message) {
+            return message.getPath();
+        }
+    };
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    private final Key key;
+    private final ExecutorService[] lanes;
+    private final AtomicInteger next = new AtomicInteger();
+
+
+    /**
+     * Creates a new executor with daemon lane threads.
+     * @param lanes
+     *         Number of lanes, typically the number of available processors.
+     * @param key
+     *         Key the order of messages is preserved for, e.g. {@link #SENDER} or {@link #PATH}.
+     */
+    public OrderedExecutor(final int lanes, final Key key) {
+        super();
+        if (lanes <= 0) {
+            throw new IllegalArgumentException("At least one lane is required.");
+        }
+        this.key = key;
+        this.lanes = new ExecutorService[lanes];
+        final int pool = POOL_NUMBER.incrementAndGet();
+        for (int i = 0; i < lanes; i++) {
+            final String name = "D-Bus lane " + pool + "-" + (i + 1);
+            this.lanes[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, name);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+
+    /**
+     * Executes a task on the lane of a message.
+     * @param message
+     *         The message the task processes.
+     * @param task
+     *         The task.
+     */
+    public void execute(final Message message, final Runnable task) {
+        this.execute(this.key.keyOf(message), task);
+    }
+
+    /**
+     * Executes a task on the lane of a key.
+     * @param key
+     *         The key; tasks of equal keys are executed in the order they have been submitted.
+     * @param task
+     *         The task.
+     */
+    public void execute(final Object key, final Runnable task) {
+        if (key == null) {
+            this.execute(task);
+            return;
+        }
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        this.lanes[(h & Integer.MAX_VALUE) % this.lanes.length].execute(task);
+    }
+
+    /**
+     * Executes a task without key on the next lane.
+     */
+    @Override
+    public void execute(final Runnable task) {
+        this.lanes[(this.next.getAndIncrement() & Integer.MAX_VALUE) % this.lanes.length].execute(task);
+    }
+
+    /**
+     * Returns the number of lanes.
+     * @return
+     *         The number of lanes.
+     */
+    public int getLaneCount() {
+        return this.lanes.length;
+    }
+
+    /**
+     * Stops accepting tasks; tasks that have been submitted already are still executed.
+     */
+    @Override
+    public void close() {
+        for (final ExecutorService lane: this.lanes) {
+            lane.shutdown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OrderedExecutor (%d lanes)", this.lanes.length);
+    }
+
+
+    /**
+     * Derives the key the order of messages is preserved for.
+     */
+    public static interface Key {
+
+        /**
+         * Returns the key of a message.
+         * @param message
+         *         The message.
+         * @return
+         *         The key or {@code null} if the message may be processed in any order.
+         */
+        Object keyOf(Message message);
+
+    }
+
+}
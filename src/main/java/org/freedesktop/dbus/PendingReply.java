@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import org.bridj.Pointer;
+import org.freedesktop.dbus.DBus._Message;
+import org.freedesktop.dbus.DBus._PendingCall;
+import org.freedesktop.dbus.DBus._PendingCallNotifyFunction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The reply to a method call that has been sent by {@link Connection#sendWithReplyAsync(Message, int, Decoder)}.
+ * <p>The reply is being received while the connection is being dispatched (e.g. by
+ * {@link Connection#readWriteDispatch(int)}); listeners are invoked on the dispatching thread. {@link #get()} may
+ * also be used without anybody dispatching the connection: it blocks on the connection itself until the reply
+ * has arrived. {@link #get(long, TimeUnit)} in contrast only waits for the reply to be dispatched.</p>
+ * <p>Error replies complete the future with a {@link DBusException} as cause of the {@link ExecutionException}.</p>
+ * @param <T>
+ *         Type of the decoded reply.
+ * @author Benjamin P. Jung
+ */
+public class PendingReply<T> implements Future<T> {
+
+    private final Connection connection;
+    private final Pointer<_PendingCall> _pending;
+    private final Decoder<T> decoder;
+    /** Whether the call has been short-circuited in process (see {@link Connection#setShortCircuit(boolean)}). */
+    private final boolean local;
+    private final List<Listener<T>> listeners = new ArrayList<>();
+
+    /** Must be referenced as long as the pending call is in flight. */
+    @Internal
+    private final _PendingCallNotifyFunction _notify = new _PendingCallNotifyFunction() {
+        @Override
+        public void run(final Pointer<_PendingCall> _pending, final Pointer<?> _userData) {
+            complete();
+        }
+    };
+
+    private boolean done;
+    private boolean cancelled;
+    private T value;
+    private DBusException exception;
+
+    @Internal
+    PendingReply(final Connection connection, final Pointer<_PendingCall> _pending, final Decoder<T> decoder) {
+        super();
+        this.connection = connection;
+        this._pending = _pending;
+        this.decoder = decoder;
+        this.local = false;
+    }
+
+    /**
+     * Creates a reply to a call that is being handled in process and will be completed by
+     * {@link #complete(Message)}.
+     */
+    @Internal
+    PendingReply(final Connection connection, final Decoder<T> decoder) {
+        super();
+        this.connection = connection;
+        this._pending = null;
+        this.decoder = decoder;
+        this.local = true;
+    }
+
+
+    /**
+     * Registers the notification callback. The reply may already have been received at this point, in which
+     * case the pending call gets completed right away.
+     */
+    @Internal
+    void start() {
+        if (this.local) {
+            return;
+        }
+        if (this._pending == Pointer.NULL) {
+            this.fail(new DBusException("Connection is not connected."));
+        } else if (!DBus._pendingCallSetNotify(this._pending, this._notify, Pointer.NULL, null)) {
+            this.fail(new DBusException("Registering of reply notification failed."));
+        } else if (DBus._pendingCallGetCompleted(this._pending)) {
+            this.complete();
+        }
+    }
+
+    /**
+     * Adds a listener that will be invoked once this reply has been completed, failed or cancelled.
+     * If this is already the case, the listener is being invoked immediately on the calling thread.
+     * @param listener
+     *         The listener to be added.
+     */
+    public void addListener(final Listener<T> listener) {
+        synchronized (this) {
+            if (!this.done) {
+                this.listeners.add(listener);
+                return;
+            }
+        }
+        listener.completed(this);
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (this.done) {
+                return false;
+            }
+            if (!this.local) {
+                DBus._pendingCallCancel(this._pending);
+                DBus._pendingCallUnref(this._pending);
+            }
+            this.cancelled = true;
+        }
+        this.finish();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return this.done;
+    }
+
+    /**
+     * Waits for the reply. If the reply has not been dispatched yet, this method blocks on the connection
+     * until the reply has been received or the timeout of the method call has elapsed.
+     */
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        synchronized (this) {
+            if (this.done) {
+                return this.result();
+            }
+            if (this.local) {
+                // There is no connection to block on: the reply is sent by another thread of this process.
+                while (!this.done) {
+                    this.wait();
+                }
+                return this.result();
+            }
+            DBus._pendingCallRef(this._pending);
+        }
+        try {
+            DBus._pendingCallBlock(this._pending);
+            this.complete();
+        } finally {
+            DBus._pendingCallUnref(this._pending);
+        }
+        synchronized (this) {
+            return this.result();
+        }
+    }
+
+    /**
+     * Waits for the reply to be dispatched by another thread.
+     */
+    @Override
+    public synchronized T get(final long timeout, final TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!this.done) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return this.result();
+    }
+
+    @Internal
+    private T result() throws ExecutionException {
+        if (this.cancelled) {
+            throw new CancellationException();
+        }
+        if (this.exception != null) {
+            throw new ExecutionException(this.exception);
+        }
+        return this.value;
+    }
+
+    /**
+     * Steals the reply from the pending call and decodes it. Has no effect if already completed.
+     */
+    @Internal
+    private void complete() {
+        synchronized (this) {
+            if (this.done) {
+                return;
+            }
+            final Pointer<_Message> _reply = DBus._pendingCallStealReply(this._pending);
+            DBus._pendingCallUnref(this._pending);
+            if (_reply == Pointer.NULL) {
+                this.exception = new DBusException("No reply received.");
+            } else {
+                this.decode(new Message(_reply));
+            }
+        }
+        this.finish();
+    }
+
+    /**
+     * Completes a call that has been handled in process. Has no effect if already completed.
+     * @param reply
+     *         The method return or error.
+     */
+    @Internal
+    void complete(final Message reply) {
+        synchronized (this) {
+            if (this.done) {
+                return;
+            }
+            this.decode(reply);
+        }
+        this.finish();
+    }
+
+    /**
+     * Completes the reply with an error. Has no effect if already completed.
+     */
+    @Internal
+    void fail(final DBusException exception) {
+        synchronized (this) {
+            if (this.done) {
+                return;
+            }
+            this.exception = exception;
+        }
+        this.finish();
+    }
+
+    @Internal
+    private void decode(final Message reply) {
+        try {
+            if (reply.isError()) {
+                this.exception = new DBusException(reply);
+            } else {
+                this.value = this.decoder.decode(reply);
+            }
+        } catch (final RuntimeException e) {
+            this.exception = new DBusException("Decoding of reply failed.", e);
+        }
+    }
+
+    @Internal
+    private void finish() {
+        final List<Listener<T>> listeners;
+        synchronized (this) {
+            this.done = true;
+            this.notifyAll();
+            listeners = new ArrayList<>(this.listeners);
+            this.listeners.clear();
+        }
+        this.connection.replyCompleted(this);
+        for (final Listener<T> listener: listeners) {
+            try {
+                listener.completed(this);
+            } catch (final RuntimeException e) {
+                // Listeners must not prevent other listeners from being notified.
+            }
+        }
+    }
+
+
+    /**
+     * Turns a successful method return into the value of a {@link PendingReply}.
+     * @param <T>
+     *         Type of the decoded reply.
+     */
+    public static interface Decoder<T> {
+
+        /**
+         * Decodes a reply.
+         * @param reply
+         *         Message of type {@link Message.Type#METHOD_RETURN}.
+         * @return
+         *         The decoded value.
+         */
+        T decode(Message reply);
+
+    }
+
+    /**
+     * Listener that gets notified once a {@link PendingReply} is done.
+     * @param <T>
+     *         Type of the decoded reply.
+     */
+    public static interface Listener<T> {
+
+        void completed(PendingReply<T> reply);
+
+    }
+
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.freedesktop.dbus.Message.MethodArgument.stringParam;
+
+/**
+ * Client-side cache of remote properties ({@code org.freedesktop.DBus.Properties}).
+ * <p>The properties of every (destination, path, interface) triple are loaded with a single {@code GetAll} call
+ * and are afterwards kept up to date by the {@code PropertiesChanged} signal. Properties that are reported as
+ * invalidated (i.e. without their new value) are re-fetched individually.</p>
+ * <p>Reads never block: they return an immutable snapshot of the properties as currently known, or {@code null}
+ * while the properties are still being loaded. The number of cached triples is bounded; once the bound has been
+ * exceeded the least recently read triple is being evicted, and triples that have not been read for the configured
+ * time are evicted as well.</p>
+ * <p>Signals that arrive before the {@code GetAll} reply are not applied, since the reply already reflects them.
+ * This only holds as long as signals and replies are processed in the order they are received, so the cache
+ * needs a {@link SignalDispatcher} that invokes its handlers on the dispatching thread.</p>
+ * @author Benjamin P. Jung
+ */
+public class PropertiesCache implements AutoCloseable {
+
+    /** Default upper bound for the number of cached (destination, path, interface) triples. */
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    /** Default time (in milliseconds) after which a triple that has not been read is being evicted. */
+    public static final long DEFAULT_EXPIRE_AFTER_ACCESS = 10L * 60L * 1000L;
+
+    private static final String PROPERTIES_CHANGED = "PropertiesChanged";
+
+    private final Connection connection;
+    private final SignalDispatcher dispatcher;
+    private final int maxEntries;
+    private final long expireAfterAccess;
+
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+
+
+    /**
+     * Creates a new cache using the default eviction policy.
+     * @param connection
+     *         The connection to the bus.
+     * @param dispatcher
+     *         Dispatcher that delivers signals of the same connection on the dispatching thread, i.e. one that
+     *         has been created without an executor (see {@link SignalDispatcher}).
+     * @throws IllegalArgumentException
+     *         If the dispatcher invokes its handlers on an executor.
+     */
+    public PropertiesCache(final Connection connection, final SignalDispatcher dispatcher) {
+        this(connection, dispatcher, DEFAULT_MAX_ENTRIES, DEFAULT_EXPIRE_AFTER_ACCESS);
+    }
+
+    /**
+     * Creates a new cache.
+     * @param connection
+     *         The connection to the bus.
+     * @param dispatcher
+     *         Dispatcher that delivers signals of the same connection on the dispatching thread, i.e. one that
+     *         has been created without an executor (see {@link SignalDispatcher}).
+     * @param maxEntries
+     *         Upper bound for the number of cached (destination, path, interface) triples.
+     * @param expireAfterAccess
+     *         Time (in milliseconds) after which a triple that has not been read is being evicted,
+     *         or {@code 0} to keep triples until they are evicted because of the upper bound.
+     * @throws IllegalArgumentException
+     *         If the dispatcher invokes its handlers on an executor.
+     */
+    public PropertiesCache(final Connection connection, final SignalDispatcher dispatcher,
+                           final int maxEntries, final long expireAfterAccess) {
+        super();
+        if (maxEntries <= 0 || expireAfterAccess < 0) {
+            throw new IllegalArgumentException("Invalid eviction settings.");
+        }
+        if (dispatcher.getExecutor() != null) {
+            throw new IllegalArgumentException("Signals must be dispatched on the dispatching thread.");
+        }
+        this.connection = connection;
+        this.dispatcher = dispatcher;
+        this.maxEntries = maxEntries;
+        this.expireAfterAccess = expireAfterAccess;
+    }
+
+
+    /**
+     * Returns a snapshot of all properties of the given interface. Starts loading the properties if they are
+     * not cached yet.
+     * @param destination
+     *         Bus name of the remote object.
+     * @param path
+     *         Object path of the remote object.
+     * @param _interface
+     *         Interface whose properties shall be returned.
+     * @return
+     *         Immutable snapshot of the properties or {@code null} if they have not been loaded yet.
+     */
+    public Map<String, Object> getAll(final String destination, final String path, final String _interface) {
+        final Entry entry = this.entry(new Key(destination, path, _interface));
+        entry.lastAccess = System.currentTimeMillis();
+        return entry.snapshot;
+    }
+
+    /**
+     * Returns the current value of a single property. Starts loading the properties of the interface if they
+     * are not cached yet.
+     * @return
+     *         The value of the property or {@code null} if the property is unknown or has not been loaded yet.
+     */
+    public Object get(final String destination, final String path, final String _interface, final String name) {
+        final Map<String, Object> properties = this.getAll(destination, path, _interface);
+        return properties == null ? null : properties.get(name);
+    }
+
+    /**
+     * Starts loading the properties of the given interface unless they are cached already.
+     * @return
+     *         The {@code GetAll} call that is in flight or {@code null} if the properties are cached already.
+     */
+    public PendingReply<Map<String, Object>> load(final String destination, final String path, final String _interface) {
+        final Entry entry = this.entry(new Key(destination, path, _interface));
+        synchronized (entry) {
+            return entry.snapshot == null ? entry.loading : null;
+        }
+    }
+
+    /**
+     * Drops the properties of the given interface and cancels the subscription to their changes.
+     */
+    public void evict(final String destination, final String path, final String _interface) {
+        final Entry entry = this.entries.remove(new Key(destination, path, _interface));
+        if (entry != null) {
+            entry.close();
+        }
+    }
+
+    /**
+     * Returns the number of cached (destination, path, interface) triples.
+     * @return
+     *         The number of cached triples.
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    @Override
+    public void close() {
+        for (final Entry entry: this.entries.values()) {
+            entry.close();
+        }
+        this.entries.clear();
+    }
+
+
+    @Internal
+    private Entry entry(final Key key) {
+        final Entry cached = this.entries.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        final Entry entry;
+        synchronized (this.entries) {
+            final Entry raced = this.entries.get(key);
+            if (raced != null) {
+                return raced;
+            }
+            entry = new Entry(key);
+            this.entries.put(key, entry);
+            this.evictStale();
+        }
+        entry.open();
+        return entry;
+    }
+
+    /**
+     * Evicts expired triples and, if the upper bound has been exceeded, the least recently read ones.
+     * Only invoked when a new triple is being added, so reads never pay for eviction.
+     */
+    @Internal
+    private void evictStale() {
+        final long now = System.currentTimeMillis();
+        if (this.expireAfterAccess > 0) {
+            for (final Entry entry: this.entries.values()) {
+                if (now - entry.lastAccess > this.expireAfterAccess) {
+                    this.evict(entry);
+                }
+            }
+        }
+        while (this.entries.size() > this.maxEntries) {
+            Entry eldest = null;
+            for (final Entry entry: this.entries.values()) {
+                if (eldest == null || entry.lastAccess < eldest.lastAccess) {
+                    eldest = entry;
+                }
+            }
+            this.evict(eldest);
+        }
+    }
+
+    @Internal
+    private void evict(final Entry entry) {
+        if (this.entries.remove(entry.key, entry)) {
+            entry.close();
+        }
+    }
+
+
+    /**
+     * Identifies the properties of one interface of one remote object.
+     */
+    private static final class Key {
+
+        private final String destination;
+        private final String path;
+        private final String _interface;
+
+        private Key(final String destination, final String path, final String _interface) {
+            super();
+            this.destination = destination;
+            this.path = path;
+            this._interface = _interface;
+        }
+
+        @Override
+        public int hashCode() {
+            return (this.destination.hashCode() * 31 + this.path.hashCode()) * 31 + this._interface.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return this.destination.equals(other.destination)
+                    && this.path.equals(other.path)
+                    && this._interface.equals(other._interface);
+        }
+
+    }
+
+    /**
+     * The cached properties of one interface of one remote object.
+     */
+    private final class Entry implements SignalHandler {
+
+        private final Key key;
+        private volatile Map<String, Object> snapshot;
+        private volatile long lastAccess = System.currentTimeMillis();
+        private SignalDispatcher.Subscription subscription;
+        private PendingReply<Map<String, Object>> loading;
+        private boolean closed;
+
+        private Entry(final Key key) {
+            super();
+            this.key = key;
+        }
+
+        /**
+         * Subscribes to changes first and loads all properties afterwards, so no change can get lost.
+         * Changes that are received before the {@code GetAll} reply are superseded by it, because the bus
+         * preserves the order of all messages of the same sender.
+         */
+        private void open() {
+            final MatchRule rule = MatchRule.signal(DBus.INTERFACE_PROPERTIES, PROPERTIES_CHANGED)
+                    .sender(this.key.destination)
+                    .path(this.key.path)
+                    .arg(0, this.key._interface)
+                    .build();
+            final SignalDispatcher.Subscription subscription = dispatcher.subscribe(rule, this);
+            synchronized (this) {
+                if (this.closed) {
+                    subscription.close();
+                    return;
+                }
+                this.subscription = subscription;
+            }
+            final Message getAll = Message.newMethodCall(this.key.destination, this.key.path,
+                    DBus.INTERFACE_PROPERTIES, "GetAll");
+            getAll.addArguments(stringParam(this.key._interface));
+            final PendingReply<Map<String, Object>> loading = connection.sendWithReplyAsync(getAll,
+                    DBus.TIMEOUT_USE_DEFAULT, new PendingReply.Decoder<Map<String, Object>>() {
+                        @Override
+                        public Map<String, Object> decode(final Message reply) {
+                            return Collections.unmodifiableMap(reply.getDictionaryArgument(0));
+                        }
+                    });
+            synchronized (this) {
+                this.loading = loading;
+            }
+            loading.addListener(new PendingReply.Listener<Map<String, Object>>() {
+                @Override
+                public void completed(final PendingReply<Map<String, Object>> reply) {
+                    loaded(reply);
+                }
+            });
+        }
+
+        private void loaded(final PendingReply<Map<String, Object>> reply) {
+            try {
+                final Map<String, Object> properties = reply.get();
+                synchronized (this) {
+                    this.loading = null;
+                    if (!this.closed) {
+                        this.snapshot = properties;
+                    }
+                }
+            } catch (final Exception e) {
+                // Do not cache failures: the next read will try again.
+                evict(this);
+            }
+        }
+
+        @Override
+        public void handleSignal(final Message signal) {
+            final Map<String, Object> changed = signal.getDictionaryArgument(1);
+            final List<String> invalidated = signal.getStringArrayArgument(2);
+            if (changed == null || invalidated == null) {
+                return;
+            }
+            synchronized (this) {
+                if (this.snapshot == null) {
+                    return;
+                }
+                final Map<String, Object> properties = new HashMap<>(this.snapshot);
+                properties.putAll(changed);
+                properties.keySet().removeAll(invalidated);
+                this.snapshot = Collections.unmodifiableMap(properties);
+            }
+            for (final String name: invalidated) {
+                this.refetch(name);
+            }
+        }
+
+        private void refetch(final String name) {
+            final Message get = Message.newMethodCall(this.key.destination, this.key.path,
+                    DBus.INTERFACE_PROPERTIES, "Get");
+            get.addArguments(stringParam(this.key._interface), stringParam(name));
+            connection.sendWithReplyAsync(get).addListener(new PendingReply.Listener<Message>() {
+                @Override
+                public void completed(final PendingReply<Message> reply) {
+                    refetched(name, reply);
+                }
+            });
+        }
+
+        private void refetched(final String name, final PendingReply<Message> reply) {
+            final Object value;
+            try {
+                value = reply.get().getArgument(0);
+            } catch (final Exception e) {
+                return;
+            }
+            synchronized (this) {
+                if (this.snapshot == null || value == null) {
+                    return;
+                }
+                final Map<String, Object> properties = new HashMap<>(this.snapshot);
+                properties.put(name, value);
+                this.snapshot = Collections.unmodifiableMap(properties);
+            }
+        }
+
+        private void close() {
+            final SignalDispatcher.Subscription subscription;
+            synchronized (this) {
+                this.closed = true;
+                this.snapshot = null;
+                subscription = this.subscription;
+                this.subscription = null;
+            }
+            if (subscription != null) {
+                subscription.close();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import org.freedesktop.dbus.Connection.NameFlag;
+import org.freedesktop.dbus.Connection.RequestNameReply;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.freedesktop.dbus.Message.MethodArgument.stringParam;
+import static org.freedesktop.dbus.Message.MethodArgument.uint32Param;
+
+/**
+ * A private bus connection that survives restarts of the bus daemon.
+ * <p>All state that lives on the bus side of a connection (owned names and match rules) as well as all
+ * state that is bound to a native connection (message filters and exported object paths) is recorded by this
+ * wrapper. A dedicated thread pumps the underlying connection; as soon as the local
+ * {@code org.freedesktop.DBus.Local.Disconnected} signal has been received, a new connection is being
+ * established (with exponential backoff) and all recorded state is replayed onto it.</p>
+ * <p>Names and match rules are being replayed as a single pipelined batch, i.e. all requests are queued
+ * and flushed at once, so recovery costs one round trip instead of one round trip per name or rule.</p>
+ * <p>{@link DBus#initialize()} must have been called before an instance of this class is created, because the
+ * underlying connection will be accessed from more than one thread.</p>
+ * @author Benjamin P. Jung
+ */
+public class ReconnectingConnection implements AutoCloseable {
+
+    /** Default delay (in milliseconds) before the first reconnection attempt. */
+    public static final long DEFAULT_INITIAL_BACKOFF = 100L;
+
+    /** Default upper bound (in milliseconds) for the delay between two reconnection attempts. */
+    public static final long DEFAULT_MAX_BACKOFF = 30000L;
+
+    /** Timeout (in milliseconds) used by the pump thread when waiting for I/O. */
+    private static final int POLL_TIMEOUT = 250;
+
+    private static final String DISCONNECTED = "Disconnected";
+
+    private final BusType busType;
+    private final long initialBackoff;
+    private final long maxBackoff;
+
+    /** Requested names and the flags that have been used to request them. */
+    private final Map<String, Integer> names = new LinkedHashMap<>();
+    private final Set<String> matchRules = new LinkedHashSet<>();
+    private final Set<MessageHandler> filters = new LinkedHashSet<>();
+    private final Map<String, MessageHandler> objectPaths = new LinkedHashMap<>();
+    private final Map<String, MessageHandler> fallbacks = new LinkedHashMap<>();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private final MessageHandler disconnectFilter = new MessageHandler() {
+        @Override
+        public HandlerResult handleMessage(final Connection connection, final Message message) {
+            if (message.isSignal(DBus.INTERFACE_LOCAL, DISCONNECTED) && message.hasPath(DBus.PATH_LOCAL)) {
+                ReconnectingConnection.this.disconnected = true;
+            }
+            return HandlerResult.NOT_YET_HANDLED;
+        }
+    };
+
+    private final Thread pump;
+
+    private volatile Connection connection;
+    private volatile boolean disconnected;
+    private volatile boolean closed;
+
+
+    /**
+     * Creates a new reconnecting connection using the default backoff settings.
+     * @param busType
+     *         Type of the bus to connect to.
+     */
+    public ReconnectingConnection(final BusType busType) {
+        this(busType, DEFAULT_INITIAL_BACKOFF, DEFAULT_MAX_BACKOFF);
+    }
+
+    /**
+     * Creates a new reconnecting connection.
+     * <p>The initial connection is being established synchronously, so errors will be reported immediately.</p>
+     * @param busType
+     *         Type of the bus to connect to.
+     * @param initialBackoff
+     *         Delay (in milliseconds) before the first reconnection attempt. Doubled after every failed attempt.
+     * @param maxBackoff
+     *         Upper bound (in milliseconds) for the delay between two reconnection attempts.
+     */
+    public ReconnectingConnection(final BusType busType, final long initialBackoff, final long maxBackoff) {
+        super();
+        if (initialBackoff <= 0 || maxBackoff < initialBackoff) {
+            throw new IllegalArgumentException("Invalid backoff settings.");
+        }
+        this.busType = busType;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.connect();
+        this.pump = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pump();
+            }
+        }, "D-Bus connection pump (" + busType + ")");
+        this.pump.setDaemon(true);
+        this.pump.start();
+    }
+
+
+    /**
+     * Returns the currently active connection.
+     * <p>The returned instance must not be cached, because it will be replaced once the bus connection
+     * has been re-established.</p>
+     * @return
+     *         The currently active connection.
+     */
+    public Connection getConnection() {
+        return this.connection;
+    }
+
+    /**
+     * Returns whether the underlying connection is currently established.
+     * @return
+     *         {@code true} if connected, {@code false} if a reconnection is pending.
+     */
+    public boolean isConnected() {
+        final Connection connection = this.connection;
+        return !this.disconnected && connection != null && connection.isConnected();
+    }
+
+    public void addListener(final Listener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(final Listener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Requests the given name and makes sure that it will be requested again after a reconnect.
+     * @see Connection#requestName(String, Connection.NameFlag...)
+     * @return
+     *         The reply of the bus or {@code null} if currently disconnected, in which case the name will be
+     *         requested as soon as the connection has been re-established.
+     */
+    public synchronized RequestNameReply requestName(final String name, final NameFlag... flags) {
+        int _flags = 0;
+        for (final NameFlag flag: flags) {
+            _flags |= flag.value();
+        }
+        this.names.put(name, Integer.valueOf(_flags));
+        return this.isConnected() ? this.connection.requestName(name, flags) : null;
+    }
+
+    public synchronized void releaseName(final String name) {
+        this.names.remove(name);
+        if (this.isConnected()) {
+            this.connection.releaseName(name);
+        }
+    }
+
+    public synchronized void addMatch(final String rule) {
+        if (this.matchRules.add(rule) && this.isConnected()) {
+            this.connection.addMatch(rule);
+        }
+    }
+
+    public synchronized void removeMatch(final String rule) {
+        if (this.matchRules.remove(rule) && this.isConnected()) {
+            this.connection.removeMatch(rule);
+        }
+    }
+
+    public synchronized void addFilter(final MessageHandler filter) {
+        if (this.filters.add(filter)) {
+            this.connection.addFilter(filter);
+        }
+    }
+
+    public synchronized void removeFilter(final MessageHandler filter) {
+        if (this.filters.remove(filter)) {
+            this.connection.removeFilter(filter);
+        }
+    }
+
+    public synchronized void registerObjectPath(final String path, final MessageHandler handler) {
+        this.connection.registerObjectPath(path, handler);
+        this.objectPaths.put(path, handler);
+    }
+
+    public synchronized void registerFallback(final String path, final MessageHandler handler) {
+        this.connection.registerFallback(path, handler);
+        this.fallbacks.put(path, handler);
+    }
+
+    public synchronized void unregisterObjectPath(final String path) {
+        this.objectPaths.remove(path);
+        this.fallbacks.remove(path);
+        this.connection.unregisterObjectPath(path);
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        this.pump.interrupt();
+        try {
+            this.pump.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        final Connection connection = this.connection;
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Reconnecting D-Bus Connection (%s)", this.busType);
+    }
+
+
+    /**
+     * Establishes a new private connection and replays all recorded state onto it.
+     * Only once the replay has succeeded the new connection replaces the old one.
+     */
+    @Internal
+    private void connect() {
+
+        final Connection connection = Connection.getConnection(this.busType, true);
+        connection.setExitOnDisconnect(false);
+
+        final Connection previous;
+        synchronized (this) {
+            try {
+                connection.addFilter(this.disconnectFilter);
+                for (final MessageHandler filter: this.filters) {
+                    connection.addFilter(filter);
+                }
+                for (final Map.Entry<String, MessageHandler> objectPath: this.objectPaths.entrySet()) {
+                    connection.registerObjectPath(objectPath.getKey(), objectPath.getValue());
+                }
+                for (final Map.Entry<String, MessageHandler> fallback: this.fallbacks.entrySet()) {
+                    connection.registerFallback(fallback.getKey(), fallback.getValue());
+                }
+                this.replayBusState(connection);
+            } catch (final RuntimeException e) {
+                connection.close();
+                throw e;
+            }
+            previous = this.connection;
+            this.connection = connection;
+            this.disconnected = false;
+        }
+        if (previous != null) {
+            previous.close();
+        }
+
+    }
+
+    /**
+     * Re-requests all names and re-adds all match rules using one pipelined batch of method calls.
+     */
+    @Internal
+    private void replayBusState(final Connection connection) {
+
+        final List<Message> batch = new ArrayList<>(this.names.size() + this.matchRules.size());
+        for (final Map.Entry<String, Integer> name: this.names.entrySet()) {
+            final Message requestName = Message.newMethodCall(DBus.SERVICE_DBUS, DBus.PATH_DBUS, DBus.INTERFACE_DBUS, "RequestName");
+            requestName.addArguments(stringParam(name.getKey()), uint32Param(name.getValue().intValue()));
+            batch.add(requestName);
+        }
+        for (final String rule: this.matchRules) {
+            final Message addMatch = Message.newMethodCall(DBus.SERVICE_DBUS, DBus.PATH_DBUS, DBus.INTERFACE_DBUS, "AddMatch");
+            addMatch.addArguments(stringParam(rule));
+            batch.add(addMatch);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        for (final Message reply: connection.sendAllWithReply(batch, DBus.TIMEOUT_USE_DEFAULT)) {
+            if (reply.isError()) {
+                throw new DBusException("Replaying of connection state failed: " + reply.getErrorName());
+            }
+        }
+
+    }
+
+    @Internal
+    private void pump() {
+
+        long backoff = this.initialBackoff;
+        boolean notified = false;
+
+        while (!this.closed) {
+
+            final Connection connection = this.connection;
+            if (!this.disconnected && connection.readWriteDispatch(POLL_TIMEOUT)) {
+                continue;
+            }
+            if (this.closed) {
+                break;
+            }
+
+            this.disconnected = true;
+            if (!notified) {
+                notified = true;
+                for (final Listener listener: this.listeners) {
+                    listener.disconnected(this);
+                }
+            }
+
+            // Whatever goes wrong while reconnecting must not end the pump; the next attempt is merely delayed.
+            try {
+                this.connect();
+            } catch (final RuntimeException e) {
+                try {
+                    Thread.sleep(backoff);
+                } catch (final InterruptedException ie) {
+                    continue;
+                }
+                backoff = Math.min(backoff * 2, this.maxBackoff);
+                continue;
+            }
+
+            backoff = this.initialBackoff;
+            notified = false;
+            for (final Listener listener: this.listeners) {
+                listener.reconnected(this, this.connection);
+            }
+
+        }
+
+    }
+
+
+    /**
+     * Listener that gets notified about state changes of a {@link ReconnectingConnection}.
+     * <p>Listeners are being invoked on the pump thread of the connection.</p>
+     */
+    public static interface Listener {
+
+        /**
+         * Invoked once the underlying connection has been lost.
+         * @param source
+         *         The affected connection.
+         */
+        void disconnected(ReconnectingConnection source);
+
+        /**
+         * Invoked once a new connection has been established and all recorded state has been replayed.
+         * @param source
+         *         The affected connection.
+         * @param connection
+         *         The newly established underlying connection.
+         */
+        void reconnected(ReconnectingConnection source, Connection connection);
+
+    }
+
+}
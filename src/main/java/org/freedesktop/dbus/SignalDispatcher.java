@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Dispatches incoming signals to subscribed {@link SignalHandler handlers}.
+ * <p>Every subscription is described by a {@link MatchRule}. The complete rule - including all argument
+ * predicates ({@code argN}, {@code argNpath}, {@code arg0namespace}) - is handed over to the bus daemon via the
+ * {@link MatchRuleRegistry} of the dispatcher, so that signals which are of no interest for any subscriber are
+ * filtered out by the bus daemon instead of being sent to this process and discarded here.</p>
+ * <p>The dispatcher installs itself as a message filter on the connection. Signals are only being delivered
+ * while the connection is being dispatched, e.g. by {@link Connection#readWriteDispatch(int)}.</p>
+ * <p>Subscriptions are kept in a {@link SignalRoutingIndex}, so the cost of routing a signal does not grow with
+ * the number of subscriptions.</p>
+ * <p>Subscriptions whose rule names a well-known sender only receive the signals of the current owner of that
+ * name. Owners are resolved by a {@link NameOwnerCache}, which is either passed in by
+ * {@link #setNameOwnerCache(NameOwnerCache)} or created by the dispatcher as soon as the first such
+ * subscription is made. Signals that arrive while the owner is not known yet are not delivered.</p>
+ * <p>If a signal is delivered to more than one subscriber, its arguments are decoded once up front (see
+ * {@link Message#getArguments()}) and all subscribers share the same immutable snapshot, so the cost of decoding
+ * does not grow with the number of subscribers either. Only {@link Message#getArguments()},
+ * {@link Message#getArgument(int)} and its typed variants are answered from the snapshot: iterating the message
+ * (see {@link Message#iterator()}) reads the native message again for every subscriber.</p>
+ * <p>Handlers are invoked on the dispatching thread unless an executor has been passed. With an
+ * {@link OrderedExecutor} signals are processed in parallel while their order is preserved per key (e.g. per
+ * sender); with any other executor signals are processed in no particular order. Either way signals are no
+ * longer ordered with respect to replies: the listeners of a {@link PendingReply} still run on the dispatching
+ * thread, so a handler may see a signal that has been received after a reply before the reply's listeners have
+ * run, or the other way round. Mirrors that apply signals on top of a snapshot fetched by a method call (such as
+ * {@link PropertiesCache} and {@link ObjectManagerClient}) rely on that order and refuse a dispatcher with an
+ * executor.</p>
+ * @author Benjamin P. Jung
+ */
+public class SignalDispatcher implements MessageHandler, AutoCloseable {
+
+    private final Connection connection;
+    private final MatchRuleRegistry matchRules;
+    private final Executor executor;
+    private final Set<Subscription> subscriptions = Collections.newSetFromMap(new ConcurrentHashMap<Subscription, Boolean>());
+    private final SignalRoutingIndex<Subscription> index = new SignalRoutingIndex<>();
+
+    /** Cache well-known sender names are resolved with; guarded by {@code this}. */
+    private NameOwnerCache owners;
+    private boolean ownsOwners;
+
+    /**
+     * Creates a new dispatcher that manages its own match rules.
+     * @param connection
+     *         The connection whose signals shall be dispatched.
+     */
+    public SignalDispatcher(final Connection connection) {
+        this(connection, new MatchRuleRegistry(connection));
+    }
+
+    /**
+     * Creates a new dispatcher.
+     * @param connection
+     *         The connection whose signals shall be dispatched.
+     * @param matchRules
+     *         Registry that shall be used to add the match rules of all subscriptions.
+     */
+    public SignalDispatcher(final Connection connection, final MatchRuleRegistry matchRules) {
+        this(connection, matchRules, null);
+    }
+
+    /**
+     * Creates a new dispatcher that invokes its handlers on an executor.
+     * @param connection
+     *         The connection whose signals shall be dispatched.
+     * @param matchRules
+     *         Registry that shall be used to add the match rules of all subscriptions.
+     * @param executor
+     *         Executor the handlers are invoked on, or {@code null} to invoke them on the dispatching thread.
+     */
+    public SignalDispatcher(final Connection connection, final MatchRuleRegistry matchRules, final Executor executor) {
+        super();
+        this.connection = connection;
+        this.matchRules = matchRules;
+        this.executor = executor;
+        this.connection.addFilter(this);
+    }
+
+
+    /**
+     * Subscribes to all signals that match the given rule.
+     * @param rule
+     *         The rule that describes the signals of interest. Should be created by
+     *         {@link MatchRule#signal(String, String)}.
+     * @param handler
+     *         Handler that will be invoked for every matching signal.
+     * @return
+     *         The subscription, which must be closed once the handler is not needed anymore.
+     */
+    public Subscription subscribe(final MatchRule rule, final SignalHandler handler) {
+        if (rule.getType() != null && rule.getType() != Message.Type.SIGNAL) {
+            throw new IllegalArgumentException("Match rule does not describe a signal: " + rule);
+        }
+        final Subscription subscription = new Subscription(rule, handler);
+        this.matchRules.addMatch(rule);
+        this.matchRules.flush();
+        this.subscriptions.add(subscription);
+        this.index.add(rule, subscription);
+        final String sender = rule.getSender();
+        if (sender != null && !sender.startsWith(":") && !DBus.SERVICE_DBUS.equals(sender)) {
+            this.resolveNamedSenders();
+        }
+        return subscription;
+    }
+
+    /**
+     * Sets the cache well-known sender names of subscriptions are resolved with, e.g. to share one cache among
+     * several components. Must be called before the first subscription to a well-known sender name is made.
+     * @param owners
+     *         A cache that is fed by this dispatcher.
+     */
+    public synchronized void setNameOwnerCache(final NameOwnerCache owners) {
+        if (this.owners != null) {
+            throw new IllegalStateException("A name owner cache has been set already.");
+        }
+        this.owners = owners;
+        owners.addListener(new NameOwnerCache.Listener() {
+            @Override
+            public void ownerChanged(final String name, final String oldOwner, final String newOwner) {
+                index.ownerChanged(name, newOwner);
+            }
+        });
+        this.index.setNameOwners(owners);
+    }
+
+    /**
+     * Returns the cache well-known sender names of subscriptions are resolved with.
+     * @return
+     *         The cache or {@code null} if no subscription has referred to a well-known sender name yet.
+     */
+    public synchronized NameOwnerCache getNameOwnerCache() {
+        return this.owners;
+    }
+
+    /**
+     * Returns the executor the handlers are invoked on.
+     * @return
+     *         The executor or {@code null} if the handlers are invoked on the dispatching thread.
+     */
+    public Executor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Returns the match rule registry that is being used by this dispatcher.
+     * @return
+     *         The match rule registry.
+     */
+    public MatchRuleRegistry getMatchRules() {
+        return this.matchRules;
+    }
+
+    @Override
+    public HandlerResult handleMessage(final Connection connection, final Message message) {
+        if (message.getType() != Message.Type.SIGNAL || !this.matchRules.accepts(message)) {
+            return HandlerResult.NOT_YET_HANDLED;
+        }
+        final List<Subscription> targets = new ArrayList<>();
+        this.index.route(message, targets);
+        if (targets.isEmpty()) {
+            return HandlerResult.NOT_YET_HANDLED;
+        }
+        if (targets.size() > 1) {
+            message.getArguments();
+        }
+        if (this.executor == null) {
+            deliver(message, targets);
+            return HandlerResult.NOT_YET_HANDLED;
+        }
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                deliver(message, targets);
+            }
+        };
+        if (this.executor instanceof OrderedExecutor) {
+            ((OrderedExecutor) this.executor).execute(message, task);
+        } else {
+            this.executor.execute(task);
+        }
+        return HandlerResult.NOT_YET_HANDLED;
+    }
+
+    /**
+     * Cancels all subscriptions and detaches this dispatcher from its connection.
+     */
+    @Override
+    public void close() {
+        this.connection.removeFilter(this);
+        for (final Subscription subscription: this.subscriptions) {
+            subscription.close();
+        }
+        synchronized (this) {
+            if (this.ownsOwners) {
+                this.owners.close();
+            }
+        }
+    }
+
+
+    @Internal
+    private synchronized void resolveNamedSenders() {
+        if (this.owners == null) {
+            // The cache only subscribes to signals of the bus daemon, so this does not recurse.
+            this.setNameOwnerCache(new NameOwnerCache(new BusDriver(this.connection), this));
+            this.ownsOwners = true;
+        }
+    }
+
+
+    @Internal
+    private static void deliver(final Message signal, final List<Subscription> targets) {
+        for (final Subscription subscription: targets) {
+            try {
+                subscription.handler.handleSignal(signal);
+            } catch (final RuntimeException e) {
+                // A failing handler must not keep the signal from the remaining subscribers.
+                final Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+    }
+
+
+    /**
+     * A subscription to signals that has been created by {@link SignalDispatcher#subscribe(MatchRule, SignalHandler)}.
+     */
+    public final class Subscription implements AutoCloseable {
+
+        private final MatchRule rule;
+        private final SignalHandler handler;
+
+        private Subscription(final MatchRule rule, final SignalHandler handler) {
+            super();
+            this.rule = rule;
+            this.handler = handler;
+        }
+
+        public MatchRule getRule() {
+            return this.rule;
+        }
+
+        /**
+         * Cancels this subscription. Closing a subscription more than once has no effect.
+         */
+        @Override
+        public void close() {
+            if (SignalDispatcher.this.subscriptions.remove(this)) {
+                SignalDispatcher.this.index.remove(this.rule, this);
+                SignalDispatcher.this.matchRules.removeMatch(this.rule);
+                SignalDispatcher.this.matchRules.flush();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+/**
+ * Receives signals that match a subscription (see {@link SignalDispatcher#subscribe(MatchRule, SignalHandler)}).
+ * @author Benjamin P. Jung
+ */
+public interface SignalHandler {
+
+    /**
+     * Handles a received signal.
+     * @param signal
+     *         The signal message.
+     */
+    void handleSignal(Message signal);
+
+}
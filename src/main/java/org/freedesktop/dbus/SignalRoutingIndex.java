@@ -0,0 +1,532 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Routing index that maps incoming signals to the targets of all subscriptions whose rules match.
+ * <p>Subscriptions are indexed by the combination of interface and member, and by (unique) sender name. Subscriptions for a well-known
+ * sender name are filed under the unique name of its current owner as resolved by a {@link NameOwnerCache}, and
+ * are moved whenever the owner changes (see {@link #ownerChanged(String, String)}); while the owner is unknown
+ * they only receive signals whose sender is the name itself, as sent by the bus daemon. Below that, subscriptions for
+ * exact object paths are kept in a hash map and subscriptions for path namespaces in a trie of path elements.
+ * Thus routing a signal costs a few hash lookups, independent of the number of subscriptions, instead of
+ * evaluating every subscribed rule: Combinations that no subscription leaves open (e.g. rules without a member)
+ * are not looked up at all, so a signal usually takes a single lookup of its interface and member. The header
+ * fields are read from the message lazily, and only once (see {@link Message#getPath()}).</p>
+ * <p>All lookups are lock-free: the index only consists of concurrent maps and copy-on-write lists and arrays,
+ * while all modifications are serialized by the index itself.</p>
+ * @param <T>
+ *         Type of the subscription targets.
+ * @author Benjamin P. Jung
+ */
+final class SignalRoutingIndex<T> {
+
+    /** Key that is used for wildcards, i.e. for rules that do not restrict a field at all. */
+    private static final String ANY = "";
+
+    /** (interface, member) &rarr; sender &rarr; bucket */
+    private final ConcurrentMap<Key, ConcurrentMap<String, Bucket<T>>> index = new ConcurrentHashMap<>();
+
+    /** Number of keys per {@link Key#shape() shape}. Guarded by {@code this}. */
+    private final int[] shapeCounts = new int[4];
+
+    /** Bit mask of the shapes that are present in the index. */
+    private volatile int shapes;
+
+    /** well-known sender name &rarr; its subscriptions. Guarded by {@code this}. */
+    private final Map<String, List<Entry<T>>> named = new HashMap<>();
+
+    /** Cache well-known sender names are resolved with. Guarded by {@code this}. */
+    private NameOwnerCache owners;
+
+
+    /**
+     * Adds a subscription to this index.
+     * @param rule
+     *         Rule of the subscription.
+     * @param target
+     *         Target of the subscription.
+     */
+    synchronized void add(final MatchRule rule, final T target) {
+        final Entry<T> entry = new Entry<>(rule, target);
+        final String sender = rule.getSender();
+        if (sender == null || sender.startsWith(":")) {
+            entry.sender = key(sender);
+        } else {
+            List<Entry<T>> entries = this.named.get(sender);
+            if (entries == null) {
+                entries = new ArrayList<>(1);
+                this.named.put(sender, entries);
+            }
+            entries.add(entry);
+            entry.sender = this.ownerKey(sender, this.owners == null ? null : this.owners.getOwner(sender));
+        }
+        this.file(entry);
+    }
+
+    /**
+     * Removes a subscription from this index.
+     * @param rule
+     *         Rule of the subscription.
+     * @param target
+     *         Target of the subscription.
+     */
+    synchronized void remove(final MatchRule rule, final T target) {
+        final String sender = rule.getSender();
+        if (sender == null || sender.startsWith(":")) {
+            this.unfile(rule, target, key(sender));
+            return;
+        }
+        final List<Entry<T>> entries = this.named.get(sender);
+        if (entries == null) {
+            return;
+        }
+        for (final Entry<T> entry: entries) {
+            if (entry.is(rule, target)) {
+                entries.remove(entry);
+                if (entries.isEmpty()) {
+                    this.named.remove(sender);
+                }
+                this.unfile(rule, target, entry.sender);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sets the cache well-known sender names are resolved with and re-files all of their subscriptions.
+     * @param owners
+     *         The cache.
+     */
+    synchronized void setNameOwners(final NameOwnerCache owners) {
+        this.owners = owners;
+        for (final Map.Entry<String, List<Entry<T>>> entries: this.named.entrySet()) {
+            this.refile(entries.getValue(), this.ownerKey(entries.getKey(), owners.getOwner(entries.getKey())));
+        }
+    }
+
+    /**
+     * Moves the subscriptions for a well-known sender name to its new owner.
+     * @param name
+     *         The well-known name.
+     * @param owner
+     *         Unique name of the new owner or {@code null} if the name has been released.
+     */
+    synchronized void ownerChanged(final String name, final String owner) {
+        final List<Entry<T>> entries = this.named.get(name);
+        if (entries != null) {
+            this.refile(entries, this.ownerKey(name, owner));
+        }
+    }
+
+    @Internal
+    private String ownerKey(final String name, final String owner) {
+        // Only the bus daemon sends signals under a well-known name; no unique name can ever be equal to it.
+        return owner == null ? name : owner;
+    }
+
+    /**
+     * Files the entries under their new sender key. A signal is only routed through the bucket of its own sender,
+     * so it can never see an entry twice while the entry is being moved.
+     */
+    @Internal
+    private void refile(final List<Entry<T>> entries, final String sender) {
+        for (final Entry<T> entry: entries) {
+            if (!entry.sender.equals(sender)) {
+                final String previous = entry.sender;
+                entry.sender = sender;
+                this.file(entry);
+                this.unfile(entry.rule, entry.target, previous);
+            }
+        }
+    }
+
+    @Internal
+    private void file(final Entry<T> entry) {
+
+        final Key key = new Key(entry.rule.getInterface(), entry.rule.getMember());
+        final String sender = entry.sender;
+
+        ConcurrentMap<String, Bucket<T>> senders = this.index.get(key);
+        if (senders == null) {
+            senders = new ConcurrentHashMap<>();
+            this.index.put(key, senders);
+            this.shapeCounts[key.shape()]++;
+            this.shapes |= 1 << key.shape();
+        }
+        Bucket<T> bucket = senders.get(sender);
+        if (bucket == null) {
+            bucket = new Bucket<>();
+            senders.put(sender, bucket);
+        }
+        bucket.add(entry);
+
+    }
+
+    @Internal
+    private void unfile(final MatchRule rule, final T target, final String sender) {
+
+        final Key key = new Key(rule.getInterface(), rule.getMember());
+
+        final ConcurrentMap<String, Bucket<T>> senders = this.index.get(key);
+        if (senders == null) {
+            return;
+        }
+        final Bucket<T> bucket = senders.get(sender);
+        if (bucket == null) {
+            return;
+        }
+        bucket.remove(rule, target);
+
+        // Prune empty branches
+        if (bucket.isEmpty()) {
+            senders.remove(sender);
+            if (senders.isEmpty()) {
+                this.index.remove(key);
+                if (--this.shapeCounts[key.shape()] == 0) {
+                    this.shapes &= ~(1 << key.shape());
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Collects the targets of all subscriptions that match the given signal.
+     * @param message
+     *         The received signal.
+     * @param targets
+     *         List that all matching targets will be added to.
+     */
+    void route(final Message message, final List<T> targets) {
+
+        final int shapes = this.shapes;
+        if (shapes == 0) {
+            return;
+        }
+
+        final String _interface = message.getInterface();
+        final String member = message.getMember();
+        for (int shape = 0; shape < 4; shape++) {
+            if ((shapes & 1 << shape) == 0) {
+                continue;
+            }
+            final boolean anyInterface = (shape & Key.ANY_INTERFACE) != 0;
+            final boolean anyMember = (shape & Key.ANY_MEMBER) != 0;
+            // A signal without such a header field is only matched by rules that leave the field open.
+            if (!anyInterface && _interface == null || !anyMember && member == null) {
+                continue;
+            }
+            this.route(this.index.get(new Key(anyInterface ? null : _interface, anyMember ? null : member)),
+                    message, targets);
+        }
+
+    }
+
+    @Internal
+    private void route(final ConcurrentMap<String, Bucket<T>> senders, final Message message, final List<T> targets) {
+        if (senders == null) {
+            return;
+        }
+        final String sender = message.getSender();
+        final Bucket<T> bucket = senders.get(key(sender));
+        if (bucket != null) {
+            bucket.route(message, targets);
+        }
+        if (sender != null) {
+            final Bucket<T> any = senders.get(ANY);
+            if (any != null) {
+                any.route(message, targets);
+            }
+        }
+    }
+
+    @Internal
+    private static String key(final String value) {
+        return value == null ? ANY : value;
+    }
+
+
+    /**
+     * Combination of interface and member a subscription is filed under; {@code null} stands for any.
+     */
+    private static final class Key {
+
+        private static final int ANY_INTERFACE = 2;
+        private static final int ANY_MEMBER = 1;
+
+        private final String _interface;
+        private final String member;
+
+        private Key(final String _interface, final String member) {
+            super();
+            this._interface = _interface;
+            this.member = member;
+        }
+
+        /** Returns which of the fields are wildcards. */
+        private int shape() {
+            return (this._interface == null ? ANY_INTERFACE : 0) | (this.member == null ? ANY_MEMBER : 0);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (this._interface == null ? 0 : this._interface.hashCode())
+                    + (this.member == null ? 0 : this.member.hashCode());
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return (this._interface == null ? other._interface == null : this._interface.equals(other._interface))
+                    && (this.member == null ? other.member == null : this.member.equals(other.member));
+        }
+
+    }
+
+    /**
+     * A subscription within the index.
+     */
+    private static final class Entry<T> {
+
+        private final MatchRule rule;
+        private final T target;
+
+        /** Key the entry is filed under in the sender map. Guarded by the index. */
+        private String sender;
+
+        /** Whether the rule contains predicates that are not covered by the index itself. */
+        private final boolean verify;
+
+        private Entry(final MatchRule rule, final T target) {
+            super();
+            this.rule = rule;
+            this.target = target;
+            this.verify = !rule.getArgs().isEmpty()
+                    || !rule.getArgPaths().isEmpty()
+                    || rule.getArg0Namespace() != null
+                    || rule.getDestination() != null;
+        }
+
+        private boolean is(final MatchRule rule, final T target) {
+            return this.target == target && this.rule.equals(rule);
+        }
+
+        private void route(final Message message, final List<T> targets) {
+            // The sender has been verified by the index already.
+            if (!this.verify || this.rule.matchesIgnoringSender(message)) {
+                targets.add(this.target);
+            }
+        }
+
+    }
+
+    /**
+     * All subscriptions for one combination of interface, member and sender, indexed by object path.
+     */
+    private static final class Bucket<T> {
+
+        private final CopyOnWriteArrayList<Entry<T>> anyPath = new CopyOnWriteArrayList<>();
+        private final ConcurrentMap<String, CopyOnWriteArrayList<Entry<T>>> byPath = new ConcurrentHashMap<>();
+        private final PathNode<T> namespaces = new PathNode<>(null);
+        private volatile int namespaceCount;
+
+        private void add(final Entry<T> entry) {
+            final String path = entry.rule.getPath();
+            final String pathNamespace = entry.rule.getPathNamespace();
+            if (path != null) {
+                CopyOnWriteArrayList<Entry<T>> entries = this.byPath.get(path);
+                if (entries == null) {
+                    entries = new CopyOnWriteArrayList<>();
+                    this.byPath.put(path, entries);
+                }
+                entries.add(entry);
+            } else if (pathNamespace != null) {
+                this.namespaces.add(pathNamespace, entry);
+                this.namespaceCount++;
+            } else {
+                this.anyPath.add(entry);
+            }
+        }
+
+        private void remove(final MatchRule rule, final T target) {
+            final String path = rule.getPath();
+            final String pathNamespace = rule.getPathNamespace();
+            if (path != null) {
+                final CopyOnWriteArrayList<Entry<T>> entries = this.byPath.get(path);
+                if (entries != null && removeFrom(entries, rule, target) && entries.isEmpty()) {
+                    this.byPath.remove(path);
+                }
+            } else if (pathNamespace != null) {
+                if (this.namespaces.remove(pathNamespace, 1, rule, target)) {
+                    this.namespaceCount--;
+                }
+            } else {
+                removeFrom(this.anyPath, rule, target);
+            }
+        }
+
+        private boolean isEmpty() {
+            return this.anyPath.isEmpty() && this.byPath.isEmpty() && this.namespaceCount == 0;
+        }
+
+        private void route(final Message message, final List<T> targets) {
+            for (final Entry<T> entry: this.anyPath) {
+                entry.route(message, targets);
+            }
+            if (this.byPath.isEmpty() && this.namespaceCount == 0) {
+                return;
+            }
+            final String path = message.getPath();
+            if (path == null) {
+                return;
+            }
+            final List<Entry<T>> exact = this.byPath.get(path);
+            if (exact != null) {
+                for (final Entry<T> entry: exact) {
+                    entry.route(message, targets);
+                }
+            }
+            if (this.namespaceCount > 0) {
+                this.namespaces.route(path, message, targets);
+            }
+        }
+
+        private static <T> boolean removeFrom(final List<Entry<T>> entries, final MatchRule rule, final T target) {
+            for (final Entry<T> entry: entries) {
+                if (entry.is(rule, target)) {
+                    return entries.remove(entry);
+                }
+            }
+            return false;
+        }
+
+    }
+
+    /**
+     * Node of the trie of path namespace subscriptions. Every node represents one element of an object path.
+     * <p>Nodes usually have few children, so the children are scanned rather than hashed: This way a path can be
+     * walked without extracting a string for every element.</p>
+     */
+    private static final class PathNode<T> {
+
+        /** Element of the object path; {@code null} for the root node. */
+        private final String element;
+        /** Child nodes; copy-on-write, modified by the index only. */
+        private volatile PathNode<T>[] children;
+        private final CopyOnWriteArrayList<Entry<T>> entries = new CopyOnWriteArrayList<>();
+
+        @SuppressWarnings("unchecked")
+        private PathNode(final String element) {
+            super();
+            this.element = element;
+            this.children = (PathNode<T>[]) new PathNode<?>[0];
+        }
+
+        /** Returns the child for the path element between the given indices or {@code null} if there is none. */
+        private PathNode<T> child(final String path, final int start, final int end) {
+            final int length = end - start;
+            for (final PathNode<T> child: this.children) {
+                if (child.element.length() == length && path.regionMatches(start, child.element, 0, length)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        private void add(final String path, final Entry<T> entry) {
+            PathNode<T> node = this;
+            int start = 1;
+            while (start < path.length()) {
+                final int end = end(path, start);
+                PathNode<T> child = node.child(path, start, end);
+                if (child == null) {
+                    child = new PathNode<>(path.substring(start, end));
+                    final PathNode<T>[] children = Arrays.copyOf(node.children, node.children.length + 1);
+                    children[children.length - 1] = child;
+                    node.children = children;
+                }
+                node = child;
+                start = end + 1;
+            }
+            node.entries.add(entry);
+        }
+
+        /**
+         * Removes a subscription from the node of the given path (starting at the given index), pruning all
+         * branches that no longer lead to a subscription.
+         */
+        private boolean remove(final String path, final int start, final MatchRule rule, final T target) {
+            if (start >= path.length()) {
+                return Bucket.removeFrom(this.entries, rule, target);
+            }
+            final int end = end(path, start);
+            final PathNode<T> child = this.child(path, start, end);
+            if (child == null || !child.remove(path, end + 1, rule, target)) {
+                return false;
+            }
+            if (child.entries.isEmpty() && child.children.length == 0) {
+                final PathNode<T>[] children = this.children;
+                final PathNode<T>[] pruned = Arrays.copyOf(children, children.length - 1);
+                int i = 0;
+                for (final PathNode<T> node: children) {
+                    if (node != child) {
+                        pruned[i++] = node;
+                    }
+                }
+                this.children = pruned;
+            }
+            return true;
+        }
+
+        /** Collects the entries of this node and of all nodes on the way down to the given path. */
+        private void route(final String path, final Message message, final List<T> targets) {
+            PathNode<T> node = this;
+            int start = 1;
+            while (node != null) {
+                for (final Entry<T> entry: node.entries) {
+                    entry.route(message, targets);
+                }
+                if (start >= path.length()) {
+                    break;
+                }
+                final int end = end(path, start);
+                node = node.child(path, start, end);
+                start = end + 1;
+            }
+        }
+
+        private static int end(final String path, final int start) {
+            final int end = path.indexOf('/', start);
+            return end < 0 ? path.length() : end;
+        }
+
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A value together with its D-Bus type signature, as carried by a D-Bus variant ({@code v}).
+ * <p>Needed whenever the signature of a value cannot be derived from its Java type, e.g. for unsigned integers
+ * or object paths. For all other values {@link #of(Object)} infers the signature.</p>
+ * @author Benjamin P. Jung
+ */
+public final class Variant {
+
+    private final String signature;
+    private final Object value;
+
+    /**
+     * Creates a new variant.
+     * @param signature
+     *         Signature of a single complete type, e.g. {@code u} or {@code a{sv}}.
+     * @param value
+     *         The value.
+     */
+    public Variant(final String signature, final Object value) {
+        super();
+        if (signature == null || value == null) {
+            throw new IllegalArgumentException("Signature and value must not be null.");
+        }
+        this.signature = signature;
+        this.value = value;
+    }
+
+    /**
+     * Wraps the given value and infers its signature from its Java type.
+     * <p>Strings map to {@code s}, booleans to {@code b}, bytes to {@code y}, shorts to {@code n}, integers to
+     * {@code i}, longs to {@code x}, doubles to {@code d}, collections of strings to {@code as}, other collections
+     * to {@code av} and maps to {@code a{sv}}. Variants are returned as they are.</p>
+     * @param value
+     *         The value.
+     * @return
+     *         The variant.
+     */
+    public static Variant of(final Object value) {
+        if (value instanceof Variant) {
+            return (Variant) value;
+        }
+        return new Variant(signatureOf(value), value);
+    }
+
+    @Internal
+    static String signatureOf(final Object value) {
+        if (value instanceof String) {
+            return DBus.TYPE_STRING_AS_STRING;
+        } else if (value instanceof Boolean) {
+            return DBus.TYPE_BOOLEAN_AS_STRING;
+        } else if (value instanceof Byte) {
+            return DBus.TYPE_BYTE_AS_STRING;
+        } else if (value instanceof Short) {
+            return DBus.TYPE_INT16_AS_STRING;
+        } else if (value instanceof Integer) {
+            return DBus.TYPE_INT32_AS_STRING;
+        } else if (value instanceof Long) {
+            return DBus.TYPE_INT64_AS_STRING;
+        } else if (value instanceof Double) {
+            return DBus.TYPE_DOUBLE_AS_STRING;
+        } else if (value instanceof Variant) {
+            return "v";
+        } else if (value instanceof Map) {
+            return "a{sv}";
+        } else if (value instanceof Collection) {
+            for (final Object element: (Collection<?>) value) {
+                if (!(element instanceof String)) {
+                    return "av";
+                }
+            }
+            return "as";
+        }
+        throw new IllegalArgumentException("Unable to infer D-Bus type of " + value.getClass().getName());
+    }
+
+    public String getSignature() {
+        return this.signature;
+    }
+
+    public Object getValue() {
+        return this.value;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.signature.hashCode() * 31 + this.value.hashCode();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (!(o instanceof Variant)) {
+            return false;
+        }
+        final Variant other = (Variant) o;
+        return this.signature.equals(other.signature) && this.value.equals(other.value);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s> %s", this.signature, this.value);
+    }
+
+}
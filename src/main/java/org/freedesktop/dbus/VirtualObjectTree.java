@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import org.freedesktop.dbus.introspection.Interface;
+import org.freedesktop.dbus.introspection.IntrospectionWriter;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exports a tree of objects that are resolved per call by an {@link ObjectProvider}.
+ * <p>The tree registers itself as fallback handler for its root path, so a single registration serves any number
+ * of objects and memory stays proportional to the objects the provider chooses to keep. Besides handing method
+ * calls over to the resolved objects, the tree implements {@code org.freedesktop.DBus.Introspectable} (listing the
+ * child nodes as reported by the provider), {@code Get} and {@code GetAll} of {@code org.freedesktop.DBus.Properties}
+ * and {@code org.freedesktop.DBus.ObjectManager} on the root path. Enumerating the managed objects walks the whole
+ * tree, which is as expensive as the tree is large.</p>
+ * @author Benjamin P. Jung
+ */
+public class VirtualObjectTree implements MessageHandler, AutoCloseable {
+
+    private static final String GET = "Get";
+    private static final String GET_ALL = "GetAll";
+    private static final String SET = "Set";
+    private static final String GET_MANAGED_OBJECTS = "GetManagedObjects";
+    private static final String INTROSPECT = "Introspect";
+
+    private final Connection connection;
+    private final String root;
+    private final ObjectProvider provider;
+
+
+    /**
+     * Creates a new tree and registers it on the connection.
+     * @param connection
+     *         The connection the objects shall be exported on.
+     * @param root
+     *         Root path of the tree; also the path of the object manager.
+     * @param provider
+     *         Provider that resolves the objects.
+     */
+    public VirtualObjectTree(final Connection connection, final String root, final ObjectProvider provider) {
+        super();
+        this.connection = connection;
+        this.root = root;
+        this.provider = provider;
+        this.connection.registerFallback(root, this);
+    }
+
+
+    /**
+     * Returns the root path of the tree.
+     * @return
+     *         The root path.
+     */
+    public String getRoot() {
+        return this.root;
+    }
+
+    @Override
+    public HandlerResult handleMessage(final Connection connection, final Message message) {
+
+        if (message.getType() != Message.Type.METHOD_CALL) {
+            return HandlerResult.NOT_YET_HANDLED;
+        }
+        final String path = message.getPath();
+        final String _interface = message.getInterface();
+        final String member = message.getMember();
+
+        if (DBus.INTERFACE_INTROSPECTABLE.equals(_interface) || _interface == null && INTROSPECT.equals(member)) {
+            if (!INTROSPECT.equals(member)) {
+                return this.error(message, DBus.ERROR_UNKNOWN_METHOD, "Unknown method: " + member);
+            }
+            final String xml = this.introspect(path);
+            if (xml == null) {
+                return this.error(message, DBus.ERROR_UNKNOWN_OBJECT, "Unknown object: " + path);
+            }
+            final Message reply = Message.newMethodReturn(message);
+            reply.addArgument("s", xml);
+            return this.reply(message, reply);
+        }
+
+        if (ObjectManagerClient.INTERFACE_OBJECT_MANAGER.equals(_interface) && this.root.equals(path)) {
+            if (GET_MANAGED_OBJECTS.equals(member)) {
+                return this.reply(message, Message.newMethodReturn(message), "a{oa{sa{sv}}}", this.getManagedObjects());
+            }
+            return this.error(message, DBus.ERROR_UNKNOWN_METHOD, "Unknown method: " + member);
+        }
+
+        final ObjectProvider.ProvidedObject object = this.provider.getObject(path);
+        if (object == null) {
+            return this.error(message, DBus.ERROR_UNKNOWN_OBJECT, "Unknown object: " + path);
+        }
+        if (DBus.INTERFACE_PROPERTIES.equals(_interface) && (GET.equals(member) || GET_ALL.equals(member))) {
+            return this.handleProperties(object, message, member);
+        }
+        if (object.handleMessage(connection, message) == HandlerResult.HANDLED) {
+            return HandlerResult.HANDLED;
+        }
+        if (DBus.INTERFACE_PROPERTIES.equals(_interface)) {
+            // Writable properties are implemented by the object itself.
+            return SET.equals(member)
+                    ? this.error(message, DBus.ERROR_PROPERTY_READ_ONLY, "Property is read-only: " + message.getStringArgument(1))
+                    : this.error(message, DBus.ERROR_UNKNOWN_METHOD, "Unknown method: " + member);
+        }
+        if (_interface != null && find(object, _interface) == null) {
+            return this.error(message, DBus.ERROR_UNKNOWN_INTERFACE, "Unknown interface: " + _interface);
+        }
+        return this.error(message, DBus.ERROR_UNKNOWN_METHOD, "Unknown method: " + member);
+
+    }
+
+    /**
+     * Unregisters the tree.
+     */
+    @Override
+    public void close() {
+        this.connection.unregisterObjectPath(this.root);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("VirtualObjectTree (%s)", this.root);
+    }
+
+
+    /**
+     * Generates the introspection data of a path.
+     * @return
+     *         The introspection data or {@code null} if the path neither denotes nor leads to an object.
+     */
+    @Internal
+    private String introspect(final String path) {
+        final ObjectProvider.ProvidedObject object = this.provider.getObject(path);
+        final Collection<String> children = this.provider.getChildren(path);
+        final boolean isRoot = this.root.equals(path);
+        if (object == null && children.isEmpty() && !isRoot) {
+            return null;
+        }
+        final StringBuilder xml = new StringBuilder(IntrospectionWriter.DOCTYPE);
+        xml.append("<node>\n").append(ObjectExporter.INTROSPECTABLE_XML);
+        if (object != null) {
+            xml.append(ObjectExporter.PROPERTIES_XML);
+        }
+        if (isRoot) {
+            xml.append(ObjectExporter.OBJECT_MANAGER_XML);
+        }
+        if (object != null) {
+            for (final Interface _interface: object.getInterfaces()) {
+                IntrospectionWriter.writeInterface(xml, _interface);
+            }
+        }
+        for (final String child: children) {
+            IntrospectionWriter.writeChild(xml, child);
+        }
+        return xml.append("</node>\n").toString();
+    }
+
+    @Internal
+    private HandlerResult handleProperties(final ObjectProvider.ProvidedObject object, final Message message,
+                                           final String member) {
+        final String _interface = message.getStringArgument(0);
+        if (_interface == null || find(object, _interface) == null) {
+            return this.error(message, DBus.ERROR_UNKNOWN_INTERFACE, "Unknown interface: " + _interface);
+        }
+        final Map<String, ?> properties = object.getProperties(_interface);
+        if (GET_ALL.equals(member)) {
+            return this.reply(message, Message.newMethodReturn(message), "a{sv}", properties);
+        }
+        final String name = message.getStringArgument(1);
+        final Object value = name == null ? null : properties.get(name);
+        if (value == null) {
+            return this.error(message, DBus.ERROR_UNKNOWN_PROPERTY, "Unknown property: " + name);
+        }
+        return this.reply(message, Message.newMethodReturn(message), "v", value);
+    }
+
+    /**
+     * Walks the whole tree below the root.
+     */
+    @Internal
+    private Map<String, Map<String, Map<String, ?>>> getManagedObjects() {
+        final Map<String, Map<String, Map<String, ?>>> managed = new LinkedHashMap<>();
+        final Deque<String> paths = new ArrayDeque<>();
+        paths.push(this.root);
+        while (!paths.isEmpty()) {
+            final String path = paths.pop();
+            if (!path.equals(this.root)) {
+                final ObjectProvider.ProvidedObject object = this.provider.getObject(path);
+                if (object != null) {
+                    final Map<String, Map<String, ?>> interfaces = new LinkedHashMap<>();
+                    for (final Interface _interface: object.getInterfaces()) {
+                        interfaces.put(_interface.getName(), object.getProperties(_interface.getName()));
+                    }
+                    managed.put(path, interfaces);
+                }
+            }
+            for (final String child: this.provider.getChildren(path)) {
+                paths.push("/".equals(path) ? "/" + child : path + "/" + child);
+            }
+        }
+        return managed;
+    }
+
+    @Internal
+    private static Interface find(final ObjectProvider.ProvidedObject object, final String _interface) {
+        for (final Interface description: object.getInterfaces()) {
+            if (description.getName().equals(_interface)) {
+                return description;
+            }
+        }
+        return null;
+    }
+
+    @Internal
+    private HandlerResult reply(final Message call, final Message reply) {
+        if (!call.isNoReply()) {
+            this.connection.send(reply);
+        }
+        return HandlerResult.HANDLED;
+    }
+
+    /**
+     * Appends a single argument to the reply and sends it; values that cannot be encoded are reported to the
+     * caller as {@code org.freedesktop.DBus.Error.Failed}.
+     */
+    @Internal
+    private HandlerResult reply(final Message call, final Message reply, final String signature, final Object value) {
+        try {
+            reply.addArgument(signature, value);
+        } catch (final RuntimeException e) {
+            return this.error(call, DBus.ERROR_FAILED, "Unable to encode reply: " + e.getMessage());
+        }
+        return this.reply(call, reply);
+    }
+
+    @Internal
+    private HandlerResult error(final Message call, final String errorName, final String errorMessage) {
+        return this.reply(call, Message.newError(call, errorName, errorMessage));
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * This annotation is used to mark methods that are exported as D-Bus methods.
+ * <p>Signatures that are left empty are inferred from the Java types: {@code String}, {@code boolean},
+ * {@code byte}, {@code short}, {@code int}, {@code long} and {@code double} map to the respective basic
+ * type, {@code Object} to a variant and {@code Map} to {@code a{sv}}. All other types must be declared.</p>
+ * <p>Declared signatures are checked against the Java types when the method is exported: strings map to
+ * {@code String}, basic types to their boxed types, arrays and structs to {@code List}, dictionaries to
+ * {@code Map} and variants to any type.</p>
+ * @author Benjamin P. Jung
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.METHOD })
+public @interface DBusMethod {
+
+    /** Name of the D-Bus method; defaults to the name of the Java method. */
+    String name() default "";
+
+    /** Signature of the arguments of the method call, one complete type per parameter. */
+    String in() default "";
+
+    /**
+     * Signature of the reply; methods with more than one output argument return an {@code Object[]}.
+     * Must be declared for methods that defer their reply, unless the reply has no arguments or is forwarded
+     * from a downstream call (a {@code Message}), in which case the signature is checked if declared.
+     */
+    String out() default "";
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus.introspection;
+
+/**
+ * An argument of a method or signal.
+ * @author Benjamin P. Jung
+ */
+public final class Argument {
+
+    private final String name;
+    private final String type;
+
+    /**
+     * @param name
+     *         Name of the argument or {@code null} if unnamed.
+     * @param type
+     *         Signature of the argument.
+     */
+    public Argument(final String name, final String type) {
+        super();
+        this.name = name;
+        this.type = type;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public String getType() {
+        return this.type;
+    }
+
+    @Override
+    public String toString() {
+        return this.name == null ? this.type : this.name + ":" + this.type;
+    }
+
+}
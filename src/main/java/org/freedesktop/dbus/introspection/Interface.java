@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus.introspection;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An interface with its methods, signals and properties.
+ * @author Benjamin P. Jung
+ */
+public final class Interface {
+
+    private final String name;
+    private final List<Method> methods;
+    private final List<Signal> signals;
+    private final List<Property> properties;
+    private final Map<String, String> annotations;
+
+    public Interface(final String name, final List<Method> methods, final List<Signal> signals,
+                     final List<Property> properties, final Map<String, String> annotations) {
+        super();
+        this.name = name;
+        this.methods = Node.freeze(methods);
+        this.signals = Node.freeze(signals);
+        this.properties = Node.freeze(properties);
+        this.annotations = Node.freeze(annotations);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public List<Method> getMethods() {
+        return this.methods;
+    }
+
+    public List<Signal> getSignals() {
+        return this.signals;
+    }
+
+    public List<Property> getProperties() {
+        return this.properties;
+    }
+
+    public Map<String, String> getAnnotations() {
+        return this.annotations;
+    }
+
+    /**
+     * Looks up a method by its name.
+     * @param name
+     *         Name of the method.
+     * @return
+     *         The method or {@code null} if there is no such method.
+     */
+    public Method getMethod(final String name) {
+        for (final Method method: this.methods) {
+            if (method.getName().equals(name)) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    public Signal getSignal(final String name) {
+        for (final Signal signal: this.signals) {
+            if (signal.getName().equals(name)) {
+                return signal;
+            }
+        }
+        return null;
+    }
+
+    public Property getProperty(final String name) {
+        for (final Property property: this.properties) {
+            if (property.getName().equals(name)) {
+                return property;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "Interface " + this.name;
+    }
+
+}
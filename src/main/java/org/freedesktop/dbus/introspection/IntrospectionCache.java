@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus.introspection;
+
+import org.freedesktop.dbus.Connection;
+import org.freedesktop.dbus.DBus;
+import org.freedesktop.dbus.Message;
+import org.freedesktop.dbus.NameOwnerCache;
+import org.freedesktop.dbus.PendingReply;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Cache for introspection data, keyed by the unique name of the introspected connection and the object path.
+ * <p>Unique names are never reused during the lifetime of a bus, so cached data stays valid as long as the
+ * connection that provided it exists. All entries of a connection are dropped as soon as the
+ * {@link NameOwnerCache} reports that its unique name has vanished.</p>
+ * <p>Optionally the cache can be persisted to a file. Data that has been persisted for the same bus instance
+ * (identified by its bus ID) is loaded again on startup, so a restarted process does not need to introspect
+ * services that have kept running in the meantime. The file holds the introspection XML of every
+ * (unique name, path) pair, which is re-read with the {@link IntrospectionParser} like a reply from the bus.</p>
+ * @author Benjamin P. Jung
+ */
+public class IntrospectionCache implements NameOwnerCache.Listener, AutoCloseable {
+
+    private static final PendingReply.Decoder<Introspected> DECODER = new PendingReply.Decoder<Introspected>() {
+        @Override
+        public Introspected decode(final Message reply) {
+            try {
+                return new Introspected(reply.getSender(), IntrospectionParser.parse(reply.getStringArgument(0)));
+            } catch (final XMLStreamException e) {
+                throw new IllegalArgumentException("Malformed introspection data.", e);
+            }
+        }
+    };
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Upper bound for the introspection data of a single object in a persisted file. */
+    private static final int MAX_PERSISTED_LENGTH = 16 * 1024 * 1024;
+
+    private final Connection connection;
+    private final NameOwnerCache nameOwners;
+    private final File file;
+
+    /** unique name &rarr; path &rarr; node */
+    private final ConcurrentMap<String, ConcurrentMap<String, Node>> nodes = new ConcurrentHashMap<>();
+
+
+    /**
+     * Creates a new in-memory cache.
+     * @param connection
+     *         The connection to the bus.
+     * @param nameOwners
+     *         Name-owner cache of the same connection.
+     */
+    public IntrospectionCache(final Connection connection, final NameOwnerCache nameOwners) {
+        this(connection, nameOwners, null);
+    }
+
+    /**
+     * Creates a new cache that can be persisted.
+     * @param connection
+     *         The connection to the bus.
+     * @param nameOwners
+     *         Name-owner cache of the same connection.
+     * @param file
+     *         File the cache is loaded from (if it exists) and {@link #save() saved} to,
+     *         or {@code null} for an in-memory cache.
+     */
+    public IntrospectionCache(final Connection connection, final NameOwnerCache nameOwners, final File file) {
+        super();
+        this.connection = connection;
+        this.nameOwners = nameOwners;
+        this.file = file;
+        this.nameOwners.addListener(this);
+        if (file != null && file.isFile()) {
+            this.load();
+        }
+    }
+
+
+    /**
+     * Returns cached introspection data without blocking.
+     * @param destination
+     *         Bus name (unique or well-known) of the introspected connection.
+     * @param path
+     *         The object path.
+     * @return
+     *         The cached node or {@code null} if not cached.
+     */
+    public Node getCached(final String destination, final String path) {
+        final String uniqueName = this.resolve(destination);
+        final Map<String, Node> paths = uniqueName == null ? null : this.nodes.get(uniqueName);
+        return paths == null ? null : paths.get(path);
+    }
+
+    /**
+     * Introspects an object and caches the result.
+     * @param destination
+     *         Bus name (unique or well-known) of the introspected connection.
+     * @param path
+     *         The object path.
+     * @return
+     *         The pending {@code Introspect} call.
+     */
+    public PendingReply<Introspected> fetch(final String destination, final String path) {
+        final Message introspect = Message.newMethodCall(destination, path, DBus.INTERFACE_INTROSPECTABLE, "Introspect");
+        final PendingReply<Introspected> reply = this.connection.sendWithReplyAsync(introspect, DBus.TIMEOUT_USE_DEFAULT, DECODER);
+        reply.addListener(new PendingReply.Listener<Introspected>() {
+            @Override
+            public void completed(final PendingReply<Introspected> reply) {
+                fetched(path, reply);
+            }
+        });
+        return reply;
+    }
+
+    /**
+     * Returns the introspection data of an object, introspecting it if it is not cached.
+     * @param destination
+     *         Bus name (unique or well-known) of the introspected connection.
+     * @param path
+     *         The object path.
+     * @return
+     *         The introspected node.
+     * @throws InterruptedException
+     *         If interrupted while waiting for the reply.
+     * @throws ExecutionException
+     *         If the object could not be introspected.
+     */
+    public Node introspect(final String destination, final String path) throws InterruptedException, ExecutionException {
+        final Node cached = this.getCached(destination, path);
+        return cached != null ? cached : this.fetch(destination, path).get().getNode();
+    }
+
+    /**
+     * Drops all cached data of a connection.
+     * @param uniqueName
+     *         Unique name of the connection.
+     */
+    public void invalidate(final String uniqueName) {
+        this.nodes.remove(uniqueName);
+    }
+
+    @Override
+    public void ownerChanged(final String name, final String oldOwner, final String newOwner) {
+        if (newOwner == null && name.startsWith(":")) {
+            this.invalidate(name);
+        }
+    }
+
+    /**
+     * Writes the cache to its file. Data of connections that are known to have vanished is omitted.
+     * @throws IOException
+     *         If the file could not be written.
+     */
+    public void save() throws IOException {
+        if (this.file == null) {
+            throw new IllegalStateException("Cache is not persistent.");
+        }
+        // unique name, path and introspection data of every entry
+        final List<String[]> snapshot = new ArrayList<>();
+        for (final Map.Entry<String, ConcurrentMap<String, Node>> entry: this.nodes.entrySet()) {
+            if (!this.nameOwners.isSeeded() || this.nameOwners.hasOwner(entry.getKey())) {
+                for (final Map.Entry<String, Node> path: entry.getValue().entrySet()) {
+                    snapshot.add(new String[] { entry.getKey(), path.getKey(), IntrospectionWriter.write(path.getValue()) });
+                }
+            }
+        }
+        final File temporary = new File(this.file.getPath() + ".tmp");
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            out.writeUTF(this.connection.getBusId());
+            out.writeInt(snapshot.size());
+            for (final String[] entry: snapshot) {
+                out.writeUTF(entry[0]);
+                out.writeUTF(entry[1]);
+                final byte[] xml = entry[2].getBytes(UTF_8);
+                out.writeInt(xml.length);
+                out.write(xml);
+            }
+        }
+        if (!temporary.renameTo(this.file)) {
+            throw new IOException("Unable to replace " + this.file);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.nameOwners.removeListener(this);
+        this.nodes.clear();
+    }
+
+
+    /**
+     * Loads persisted data, provided that it has been written for the same bus instance.
+     * A broken or outdated file is silently ignored.
+     */
+    private void load() {
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)))) {
+            if (!in.readUTF().equals(this.connection.getBusId())) {
+                return;
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                final String uniqueName = in.readUTF();
+                final String path = in.readUTF();
+                final int length = in.readInt();
+                if (length < 0 || length > MAX_PERSISTED_LENGTH) {
+                    throw new IOException("Invalid length of introspection data: " + length);
+                }
+                final byte[] xml = new byte[length];
+                in.readFully(xml);
+                ConcurrentMap<String, Node> paths = this.nodes.get(uniqueName);
+                if (paths == null) {
+                    paths = new ConcurrentHashMap<>();
+                    this.nodes.put(uniqueName, paths);
+                }
+                paths.put(path, IntrospectionParser.parse(new String(xml, UTF_8)));
+            }
+        } catch (final IOException | XMLStreamException e) {
+            this.nodes.clear();
+        }
+    }
+
+    private String resolve(final String destination) {
+        return destination.startsWith(":") ? destination : this.nameOwners.getOwner(destination);
+    }
+
+    private void fetched(final String path, final PendingReply<Introspected> reply) {
+        final Introspected introspected;
+        try {
+            introspected = reply.get();
+        } catch (final InterruptedException | ExecutionException e) {
+            return;
+        }
+        final String uniqueName = introspected.getUniqueName();
+        // Do not resurrect connections that have vanished while the call was in flight.
+        if (uniqueName == null || (this.nameOwners.isSeeded() && !this.nameOwners.hasOwner(uniqueName))) {
+            return;
+        }
+        ConcurrentMap<String, Node> paths = this.nodes.get(uniqueName);
+        if (paths == null) {
+            final ConcurrentMap<String, Node> created = new ConcurrentHashMap<>();
+            paths = this.nodes.putIfAbsent(uniqueName, created);
+            if (paths == null) {
+                paths = created;
+            }
+        }
+        paths.put(path, introspected.getNode());
+    }
+
+
+    /**
+     * Introspection data together with the unique name of the connection that provided it.
+     */
+    public static final class Introspected {
+
+        private final String uniqueName;
+        private final Node node;
+
+        private Introspected(final String uniqueName, final Node node) {
+            super();
+            this.uniqueName = uniqueName;
+            this.node = node;
+        }
+
+        public String getUniqueName() {
+            return this.uniqueName;
+        }
+
+        public Node getNode() {
+            return this.node;
+        }
+
+    }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus.introspection;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming (StAX) parser for D-Bus introspection data.
+ * <p>The XML is never turned into a DOM: the parser reads the document once and directly builds the compact
+ * {@link Node} model. The contents of nested child nodes are skipped, only their names are recorded. All names
+ * and signatures are interned, because the same interfaces are usually implemented by many objects.</p>
+ * <p>DTD processing is disabled; the {@code DOCTYPE} declaration of introspection data is ignored.</p>
+ * @author Benjamin P. Jung
+ */
+public final class IntrospectionParser {
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+    static {
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+    }
+
+    private IntrospectionParser() {
+        // Utility class
+    }
+
+
+    /**
+     * Parses introspection data.
+     * @param xml
+     *         The introspection data as returned by {@code org.freedesktop.DBus.Introspectable.Introspect}.
+     * @return
+     *         The introspected node.
+     * @throws XMLStreamException
+     *         If the data is not well-formed.
+     */
+    public static Node parse(final String xml) throws XMLStreamException {
+        return parse(new StringReader(xml));
+    }
+
+    /**
+     * Parses introspection data.
+     * @param reader
+     *         Reader that provides the introspection data.
+     * @return
+     *         The introspected node.
+     * @throws XMLStreamException
+     *         If the data is not well-formed.
+     */
+    public static Node parse(final Reader reader) throws XMLStreamException {
+        final XMLStreamReader xml = FACTORY.createXMLStreamReader(reader);
+        try {
+            return parse(xml);
+        } finally {
+            xml.close();
+        }
+    }
+
+
+    private static Node parse(final XMLStreamReader xml) throws XMLStreamException {
+
+        String nodeName = null;
+        final List<Interface> interfaces = new ArrayList<>();
+        final List<String> children = new ArrayList<>();
+
+        // State of the element that is currently being parsed.
+        String interfaceName = null;
+        List<Method> methods = null;
+        List<Signal> signals = null;
+        List<Property> properties = null;
+        Map<String, String> interfaceAnnotations = null;
+        String memberName = null;
+        String propertyType = null;
+        String propertyAccess = null;
+        List<Argument> inArguments = null;
+        List<Argument> outArguments = null;
+        Map<String, String> memberAnnotations = null;
+
+        int depth = 0;
+        while (xml.hasNext()) {
+            final int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                final String element = xml.getLocalName();
+                if ("node".equals(element)) {
+                    if (depth == 1) {
+                        nodeName = attribute(xml, "name");
+                    } else {
+                        final String child = attribute(xml, "name");
+                        if (child != null) {
+                            children.add(child);
+                        }
+                        skip(xml);
+                        depth--;
+                    }
+                } else if ("interface".equals(element)) {
+                    interfaceName = attribute(xml, "name");
+                    methods = new ArrayList<>();
+                    signals = new ArrayList<>();
+                    properties = new ArrayList<>();
+                    interfaceAnnotations = new LinkedHashMap<>();
+                } else if ("method".equals(element) || "signal".equals(element)) {
+                    memberName = attribute(xml, "name");
+                    inArguments = new ArrayList<>();
+                    outArguments = new ArrayList<>();
+                    memberAnnotations = new LinkedHashMap<>();
+                } else if ("property".equals(element)) {
+                    memberName = attribute(xml, "name");
+                    propertyType = attribute(xml, "type");
+                    propertyAccess = xml.getAttributeValue(null, "access");
+                    memberAnnotations = new LinkedHashMap<>();
+                } else if ("arg".equals(element) && inArguments != null) {
+                    final Argument argument = new Argument(attribute(xml, "name"), attribute(xml, "type"));
+                    // Arguments of methods default to "in", arguments of signals are always "out".
+                    if ("out".equals(xml.getAttributeValue(null, "direction"))) {
+                        outArguments.add(argument);
+                    } else {
+                        inArguments.add(argument);
+                    }
+                } else if ("annotation".equals(element)) {
+                    final Map<String, String> annotations = memberAnnotations != null ? memberAnnotations : interfaceAnnotations;
+                    if (annotations != null) {
+                        annotations.put(attribute(xml, "name"), attribute(xml, "value"));
+                    }
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+                final String element = xml.getLocalName();
+                if ("interface".equals(element) && interfaceName != null) {
+                    interfaces.add(new Interface(interfaceName, methods, signals, properties, interfaceAnnotations));
+                    interfaceName = null;
+                    interfaceAnnotations = null;
+                } else if ("method".equals(element) && methods != null) {
+                    methods.add(new Method(memberName, inArguments, outArguments, memberAnnotations));
+                    inArguments = outArguments = null;
+                    memberAnnotations = null;
+                } else if ("signal".equals(element) && signals != null) {
+                    // Signal arguments are written without direction or with direction="out".
+                    final List<Argument> arguments = new ArrayList<>(inArguments);
+                    arguments.addAll(outArguments);
+                    signals.add(new Signal(memberName, arguments, memberAnnotations));
+                    inArguments = outArguments = null;
+                    memberAnnotations = null;
+                } else if ("property".equals(element) && properties != null) {
+                    properties.add(new Property(memberName, propertyType, Property.Access.fromValue(propertyAccess), memberAnnotations));
+                    memberAnnotations = null;
+                }
+            }
+        }
+
+        return new Node(nodeName, interfaces, children);
+
+    }
+
+    /**
+     * Returns the interned value of an attribute.
+     */
+    private static String attribute(final XMLStreamReader xml, final String name) {
+        final String value = xml.getAttributeValue(null, name);
+        return value == null ? null : value.intern();
+    }
+
+    /**
+     * Skips the current element including all of its children.
+     */
+    private static void skip(final XMLStreamReader xml) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && xml.hasNext()) {
+            final int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+}
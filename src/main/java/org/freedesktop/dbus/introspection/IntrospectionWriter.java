@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus.introspection;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the {@link Node} model as D-Bus introspection XML.
+ * <p>Besides complete documents, single interfaces can be written as fragments, so callers can assemble
+ * documents from precomputed parts.</p>
+ * @author Benjamin P. Jung
+ */
+public final class IntrospectionWriter {
+
+    /** The document type declaration of introspection data. */
+    public static final String DOCTYPE =
+            "<!DOCTYPE node PUBLIC \"-//freedesktop//DTD D-BUS Object Introspection 1.0//EN\"\n"
+            + " \"http://www.freedesktop.org/standards/dbus/1.0/introspect.dtd\">\n";
+
+    private IntrospectionWriter() {
+        // Utility class
+    }
+
+
+    /**
+     * Writes a complete introspection document.
+     * @param node
+     *         The node to be written.
+     * @return
+     *         The introspection data.
+     */
+    public static String write(final Node node) {
+        final StringBuilder xml = new StringBuilder(DOCTYPE);
+        xml.append("<node");
+        if (node.getName() != null) {
+            attribute(xml, "name", node.getName());
+        }
+        xml.append(">\n");
+        for (final Interface _interface: node.getInterfaces()) {
+            writeInterface(xml, _interface);
+        }
+        for (final String child: node.getChildren()) {
+            writeChild(xml, child);
+        }
+        return xml.append("</node>\n").toString();
+    }
+
+    /**
+     * Writes an {@code interface} element.
+     * @param xml
+     *         Buffer the element is appended to.
+     * @param _interface
+     *         The interface to be written.
+     */
+    public static void writeInterface(final StringBuilder xml, final Interface _interface) {
+        xml.append("  <interface");
+        attribute(xml, "name", _interface.getName());
+        xml.append(">\n");
+        for (final Method method: _interface.getMethods()) {
+            xml.append("    <method");
+            attribute(xml, "name", method.getName());
+            xml.append(">\n");
+            writeArguments(xml, method.getInArguments(), "in");
+            writeArguments(xml, method.getOutArguments(), "out");
+            writeAnnotations(xml, method.getAnnotations(), "      ");
+            xml.append("    </method>\n");
+        }
+        for (final Signal signal: _interface.getSignals()) {
+            xml.append("    <signal");
+            attribute(xml, "name", signal.getName());
+            xml.append(">\n");
+            writeArguments(xml, signal.getArguments(), null);
+            writeAnnotations(xml, signal.getAnnotations(), "      ");
+            xml.append("    </signal>\n");
+        }
+        for (final Property property: _interface.getProperties()) {
+            xml.append("    <property");
+            attribute(xml, "name", property.getName());
+            attribute(xml, "type", property.getType());
+            attribute(xml, "access", property.getAccess().value());
+            if (property.getAnnotations().isEmpty()) {
+                xml.append("/>\n");
+            } else {
+                xml.append(">\n");
+                writeAnnotations(xml, property.getAnnotations(), "      ");
+                xml.append("    </property>\n");
+            }
+        }
+        writeAnnotations(xml, _interface.getAnnotations(), "    ");
+        xml.append("  </interface>\n");
+    }
+
+    /**
+     * Writes a child {@code node} element.
+     * @param xml
+     *         Buffer the element is appended to.
+     * @param name
+     *         Name (relative path) of the child node.
+     */
+    public static void writeChild(final StringBuilder xml, final String name) {
+        xml.append("  <node");
+        attribute(xml, "name", name);
+        xml.append("/>\n");
+    }
+
+
+    private static void writeArguments(final StringBuilder xml, final List<Argument> arguments, final String direction) {
+        for (final Argument argument: arguments) {
+            xml.append("      <arg");
+            if (argument.getName() != null) {
+                attribute(xml, "name", argument.getName());
+            }
+            attribute(xml, "type", argument.getType());
+            if (direction != null) {
+                attribute(xml, "direction", direction);
+            }
+            xml.append("/>\n");
+        }
+    }
+
+    private static void writeAnnotations(final StringBuilder xml, final Map<String, String> annotations, final String indent) {
+        for (final Map.Entry<String, String> annotation: annotations.entrySet()) {
+            xml.append(indent).append("<annotation");
+            attribute(xml, "name", annotation.getKey());
+            attribute(xml, "value", annotation.getValue());
+            xml.append("/>\n");
+        }
+    }
+
+    private static void attribute(final StringBuilder xml, final String name, final String value) {
+        xml.append(' ').append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '&': xml.append("&amp;"); break;
+                case '<': xml.append("&lt;"); break;
+                case '>': xml.append("&gt;"); break;
+                case '"': xml.append("&quot;"); break;
+                default: xml.append(c);
+            }
+        }
+        xml.append('"');
+    }
+
+}
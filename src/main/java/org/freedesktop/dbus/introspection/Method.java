@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus.introspection;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A method of an interface.
+ * @author Benjamin P. Jung
+ */
+public final class Method {
+
+    private final String name;
+    private final List<Argument> inArguments;
+    private final List<Argument> outArguments;
+    private final Map<String, String> annotations;
+
+    public Method(final String name, final List<Argument> inArguments, final List<Argument> outArguments,
+                  final Map<String, String> annotations) {
+        super();
+        this.name = name;
+        this.inArguments = Node.freeze(inArguments);
+        this.outArguments = Node.freeze(outArguments);
+        this.annotations = Node.freeze(annotations);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public List<Argument> getInArguments() {
+        return this.inArguments;
+    }
+
+    public List<Argument> getOutArguments() {
+        return this.outArguments;
+    }
+
+    /**
+     * Returns the signature of all input arguments, i.e. the signature of a matching method call.
+     * @return
+     *         The input signature.
+     */
+    public String getInSignature() {
+        return Node.signature(this.inArguments);
+    }
+
+    /**
+     * Returns the signature of all output arguments, i.e. the signature of the method return.
+     * @return
+     *         The output signature.
+     */
+    public String getOutSignature() {
+        return Node.signature(this.outArguments);
+    }
+
+    public Map<String, String> getAnnotations() {
+        return this.annotations;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s(%s) -> (%s)", this.name, this.getInSignature(), this.getOutSignature());
+    }
+
+}
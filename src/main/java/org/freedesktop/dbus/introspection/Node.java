@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus.introspection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An introspected object: its interfaces and the names of its child nodes.
+ * <p>All parts of the model are immutable. Nested child nodes are only recorded by name; they have to be
+ * introspected on their own.</p>
+ * @author Benjamin P. Jung
+ */
+public final class Node {
+
+    private final String name;
+    private final List<Interface> interfaces;
+    private final List<String> children;
+
+    /**
+     * @param name
+     *         Value of the {@code name} attribute of the node or {@code null} if not set.
+     * @param interfaces
+     *         The interfaces of the node.
+     * @param children
+     *         Names (relative paths) of the child nodes.
+     */
+    public Node(final String name, final List<Interface> interfaces, final List<String> children) {
+        super();
+        this.name = name;
+        this.interfaces = freeze(interfaces);
+        this.children = freeze(children);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public List<Interface> getInterfaces() {
+        return this.interfaces;
+    }
+
+    public List<String> getChildren() {
+        return this.children;
+    }
+
+    /**
+     * Looks up an interface by its name.
+     * @param name
+     *         Name of the interface.
+     * @return
+     *         The interface or {@code null} if the node does not implement such an interface.
+     */
+    public Interface getInterface(final String name) {
+        for (final Interface _interface: this.interfaces) {
+            if (_interface.getName().equals(name)) {
+                return _interface;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Node %s %s %s", this.name, this.interfaces, this.children);
+    }
+
+
+    static <T> List<T> freeze(final List<T> list) {
+        if (list == null || list.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return list.size() == 1
+                ? Collections.singletonList(list.get(0))
+                : Collections.unmodifiableList(new ArrayList<>(list));
+    }
+
+    static Map<String, String> freeze(final Map<String, String> map) {
+        if (map == null || map.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(new LinkedHashMap<>(map));
+    }
+
+    static String signature(final List<Argument> arguments) {
+        if (arguments.isEmpty()) {
+            return "";
+        }
+        final StringBuilder signature = new StringBuilder();
+        for (final Argument argument: arguments) {
+            signature.append(argument.getType());
+        }
+        return signature.toString();
+    }
+
+}
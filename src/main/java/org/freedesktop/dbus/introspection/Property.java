@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus.introspection;
+
+import java.util.Map;
+
+/**
+ * A property of an interface.
+ * @author Benjamin P. Jung
+ */
+public final class Property {
+
+    private final String name;
+    private final String type;
+    private final Access access;
+    private final Map<String, String> annotations;
+
+    public Property(final String name, final String type, final Access access, final Map<String, String> annotations) {
+        super();
+        this.name = name;
+        this.type = type;
+        this.access = access;
+        this.annotations = Node.freeze(annotations);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public String getType() {
+        return this.type;
+    }
+
+    public Access getAccess() {
+        return this.access;
+    }
+
+    public Map<String, String> getAnnotations() {
+        return this.annotations;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s:%s (%s)", this.name, this.type, this.access);
+    }
+
+
+    /**
+     * Access permissions of a property.
+     */
+    public static enum Access {
+
+        READ("read"),
+        WRITE("write"),
+        READWRITE("readwrite");
+
+        private final String value;
+        private Access(final String value) {
+            this.value = value;
+        }
+
+        /**
+         * Returns the value of the {@code access} attribute.
+         * @return
+         *         The attribute value.
+         */
+        public String value() {
+            return this.value;
+        }
+
+        /**
+         * Parses the value of an {@code access} attribute.
+         * @param value
+         *         The attribute value.
+         * @return
+         *         The access permissions; unknown values are treated as {@link #READ}.
+         */
+        public static Access fromValue(final String value) {
+            for (final Access access: values()) {
+                if (access.value.equals(value)) {
+                    return access;
+                }
+            }
+            return READ;
+        }
+
+        public boolean isReadable() {
+            return this != WRITE;
+        }
+
+        public boolean isWritable() {
+            return this != READ;
+        }
+
+    }
+
+}
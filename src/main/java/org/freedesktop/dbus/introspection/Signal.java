@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus.introspection;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A signal of an interface.
+ * @author Benjamin P. Jung
+ */
+public final class Signal {
+
+    private final String name;
+    private final List<Argument> arguments;
+    private final Map<String, String> annotations;
+
+    public Signal(final String name, final List<Argument> arguments, final Map<String, String> annotations) {
+        super();
+        this.name = name;
+        this.arguments = Node.freeze(arguments);
+        this.annotations = Node.freeze(annotations);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public List<Argument> getArguments() {
+        return this.arguments;
+    }
+
+    public String getSignature() {
+        return Node.signature(this.arguments);
+    }
+
+    public Map<String, String> getAnnotations() {
+        return this.annotations;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s(%s)", this.name, this.getSignature());
+    }
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2013 The Cat Hive Developers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.freedesktop.dbus;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the scheduling and shedding of the {@link FairScheduler} with a single worker thread, which is kept busy
+ * by a blocking task while the queues are being filled.
+ * @author Benjamin P. Jung
+ */
+public class FairSchedulerTest {
+
+    private static final long TIMEOUT = 5L;
+
+
+    @Test
+    public void testRoundRobin() throws InterruptedException {
+        try (final FairScheduler scheduler = new FairScheduler(1)) {
+            final CountDownLatch gate = this.block(scheduler);
+            final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+            final CountDownLatch done = new CountDownLatch(4);
+            scheduler.execute(":1.1", new Record(order, "a1", done));
+            scheduler.execute(":1.1", new Record(order, "a2", done));
+            scheduler.execute(":1.1", new Record(order, "a3", done));
+            scheduler.execute(":1.2", new Record(order, "b1", done));
+            assertEquals(scheduler.getQueueDepth(":1.1"), 3);
+            assertEquals(scheduler.getQueueDepth(":1.2"), 1);
+            gate.countDown();
+            assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+            assertEquals(order, Arrays.asList("a1", "b1", "a2", "a3"));
+        }
+    }
+
+    @Test
+    public void testWeight() throws InterruptedException {
+        try (final FairScheduler scheduler = new FairScheduler(1)) {
+            scheduler.setWeight(":1.1", 2);
+            final CountDownLatch gate = this.block(scheduler);
+            final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+            final CountDownLatch done = new CountDownLatch(5);
+            scheduler.execute(":1.1", new Record(order, "a1", done));
+            scheduler.execute(":1.1", new Record(order, "a2", done));
+            scheduler.execute(":1.1", new Record(order, "a3", done));
+            scheduler.execute(":1.2", new Record(order, "b1", done));
+            scheduler.execute(":1.2", new Record(order, "b2", done));
+            gate.countDown();
+            assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+            assertEquals(order, Arrays.asList("a1", "a2", "b1", "a3", "b2"));
+        }
+    }
+
+    @Test
+    public void testQueueDepth() throws InterruptedException {
+        try (final FairScheduler scheduler = new FairScheduler(1)) {
+            scheduler.setMaxQueueDepth(3);
+            scheduler.setMaxSenderQueueDepth(2);
+            final CountDownLatch gate = this.block(scheduler);
+            final Runnable task = new Record(new ArrayList<String>(), "", new CountDownLatch(0));
+            assertTrue(scheduler.offer(":1.1", task));
+            assertTrue(scheduler.offer(":1.1", task));
+            assertFalse(scheduler.offer(":1.1", task));
+            assertTrue(scheduler.offer(":1.2", task));
+            assertFalse(scheduler.offer(":1.3", task));
+            assertEquals(scheduler.size(), 3);
+            assertEquals(scheduler.getShedCount(), 2);
+            gate.countDown();
+        }
+    }
+
+    @Test(expectedExceptions = RejectedExecutionException.class)
+    public void testClosed() {
+        final FairScheduler scheduler = new FairScheduler(1);
+        scheduler.close();
+        scheduler.execute(new Record(new ArrayList<String>(), "", new CountDownLatch(0)));
+    }
+
+    @Test
+    public void testLatencyTarget() throws InterruptedException {
+        try (final FairScheduler scheduler = new FairScheduler(1)) {
+            scheduler.setLatencyTarget(10L, 100L);
+            final CountDownLatch gate = this.block(scheduler);
+            final Call first = new Call();
+            final Gate busy = new Gate();
+            final Call second = new Call();
+            scheduler.execute(":1.1", first);
+            scheduler.execute(":1.2", busy);
+            scheduler.execute(":1.1", second);
+            Thread.sleep(50L);
+            gate.countDown();
+            // The first late call merely starts the interval...
+            assertTrue(first.done.await(TIMEOUT, TimeUnit.SECONDS));
+            assertFalse(first.shed);
+            assertTrue(busy.started.await(TIMEOUT, TimeUnit.SECONDS));
+            assertFalse(scheduler.isOverloaded());
+            // ... and calls are shed once the wait has exceeded the target for the whole interval.
+            Thread.sleep(150L);
+            busy.released.countDown();
+            assertTrue(second.done.await(TIMEOUT, TimeUnit.SECONDS));
+            assertTrue(second.shed);
+            assertTrue(scheduler.isOverloaded());
+            assertEquals(scheduler.getShedCount(), 1);
+        }
+    }
+
+    @Test
+    public void testLatencyTargetAfterIdlePeriod() throws InterruptedException {
+        try (final FairScheduler scheduler = new FairScheduler(1)) {
+            scheduler.setLatencyTarget(10L, 100L);
+            // The blocking task is dequeued within the target; the worker then stays busy for longer than an
+            // interval, which must not count as the wait of the next call.
+            final CountDownLatch gate = this.block(scheduler);
+            Thread.sleep(150L);
+            final Call call = new Call();
+            scheduler.execute(":1.1", call);
+            Thread.sleep(50L);
+            gate.countDown();
+            assertTrue(call.done.await(TIMEOUT, TimeUnit.SECONDS));
+            assertFalse(call.shed);
+            assertFalse(scheduler.isOverloaded());
+            assertEquals(scheduler.getShedCount(), 0);
+        }
+    }
+
+
+    /**
+     * Occupies the only worker of a scheduler until the returned latch is released.
+     */
+    private CountDownLatch block(final FairScheduler scheduler) throws InterruptedException {
+        final Gate gate = new Gate();
+        scheduler.execute(gate);
+        assertTrue(gate.started.await(TIMEOUT, TimeUnit.SECONDS));
+        return gate.released;
+    }
+
+
+    private static final class Gate implements Runnable {
+
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        @Override
+        public void run() {
+            this.started.countDown();
+            try {
+                this.released.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+    private static final class Record implements Runnable {
+
+        private final List<String> order;
+        private final String name;
+        private final CountDownLatch done;
+
+        private Record(final List<String> order, final String name, final CountDownLatch done) {
+            super();
+            this.order = order;
+            this.name = name;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            this.order.add(this.name);
+            this.done.countDown();
+        }
+
+    }
+
+    private static final class Call implements FairScheduler.Sheddable {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean shed;
+
+        @Override
+        public void run() {
+            this.done.countDown();
+        }
+
+        @Override
+        public void shed() {
+            this.shed = true;
+            this.done.countDown();
+        }
+
+    }
+
+}